@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import com.aevi.print.model.Alignment;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures laying out a receipt of 40 to 60 lines with {@link TextLayout}, with the cache warm as it is when the same receipt
+ * lines are printed again, and without a cache as for lines that are printed once.
+ *
+ * The lines counter gives the lines laid out per second. Run with the GC profiler to see the allocations per receipt
+ * (gc.alloc.rate.norm), e.g. <code>./gradlew :printer-driver-api:jmh -Pjmh.profilers=gc</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextLayoutBenchmark {
+
+    private static final String[] ITEMS = {"Flat white", "Large oat milk latte with an extra shot", "Croissant", "Pain au chocolat"};
+    private static final String[] PRICES = {"2.80", "4.10", "2.20", "2.45"};
+
+    @Param({"40", "60"})
+    public int lines;
+
+    private TextLayout cachedLayout;
+    private TextLayout uncachedLayout;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class LaidOutLines {
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        cachedLayout = new TextLayout(48);
+        uncachedLayout = new TextLayout(48, 0);
+    }
+
+    @Benchmark
+    public void cachedLayout(LaidOutLines laidOutLines, Blackhole blackhole) {
+        layoutReceipt(cachedLayout, laidOutLines, blackhole);
+    }
+
+    @Benchmark
+    public void uncachedLayout(LaidOutLines laidOutLines, Blackhole blackhole) {
+        layoutReceipt(uncachedLayout, laidOutLines, blackhole);
+    }
+
+    private void layoutReceipt(TextLayout textLayout, LaidOutLines laidOutLines, Blackhole blackhole) {
+        blackhole.consume(textLayout.wrap("AEVI COFFEE SHOP", Alignment.CENTER));
+        for (int i = 0; i < lines - 3; i++) {
+            blackhole.consume(textLayout.columns(ITEMS[i % ITEMS.length], PRICES[i % PRICES.length]));
+        }
+        blackhole.consume(textLayout.columns("TOTAL", "112.00"));
+        blackhole.consume(textLayout.justify("Goods can be returned within 28 days with this receipt. Thank you for your visit."));
+        laidOutLines.lines += lines;
+    }
+}
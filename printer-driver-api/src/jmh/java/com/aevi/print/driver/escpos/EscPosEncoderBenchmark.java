@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import com.aevi.print.model.Alignment;
+import com.aevi.print.model.FontStyle;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRow;
+import com.aevi.print.model.TextRow;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of encoding a receipt into ESC/POS with {@link EscPosEncoder}, against the usual approach of
+ * concatenating strings into a {@link ByteArrayOutputStream}.
+ *
+ * The bytes counter gives the bytes encoded per second. Run with the GC profiler to see the allocations per receipt
+ * (gc.alloc.rate.norm), e.g. <code>./gradlew :printer-driver-api:jmh -Pjmh.profilers=gc</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscPosEncoderBenchmark {
+
+    @Param({"10", "50"})
+    public int lines;
+
+    private PrintPayload receipt;
+    private EscPosEncoder encoder;
+    private final DiscardingChannel channel = new DiscardingChannel();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class EncodedBytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        receipt = new PrintPayload("benchmark");
+        receipt.append("AEVI COFFEE SHOP").align(Alignment.CENTER).fontStyle(FontStyle.BOLD);
+        for (int i = 0; i < lines; i++) {
+            receipt.append("Flat white                     2.80").align(Alignment.LEFT);
+        }
+        receipt.append("TOTAL                         28.00").fontStyle(FontStyle.BOLD);
+        receipt.append("Thank you for your visit").align(Alignment.CENTER);
+        encoder = new EscPosEncoder(null);
+    }
+
+    @Benchmark
+    public long pooledEncoder(EncodedBytes encodedBytes) throws IOException {
+        long bytes = encoder.encode(receipt, channel);
+        encodedBytes.bytes += bytes;
+        return bytes;
+    }
+
+    @Benchmark
+    public long stringConcatenation(EncodedBytes encodedBytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write(new byte[]{0x1b, '@'});
+        for (PrintRow printRow : receipt.getRows()) {
+            TextRow textRow = (TextRow) printRow;
+            String command = "\u001ba" + (char) textRow.getAlignment().ordinal() + "\u001bE" + (char) (textRow.getFontStyle() == FontStyle.BOLD ? 1 : 0);
+            outputStream.write((command + textRow.getText() + "\n").getBytes("US-ASCII"));
+        }
+        outputStream.write(new byte[]{0x1b, 'd', 3, 0x1d, 'V', 66, 0});
+        byte[] bytes = outputStream.toByteArray();
+        channel.write(ByteBuffer.wrap(bytes));
+        encodedBytes.bytes += bytes.length;
+        return bytes.length;
+    }
+
+    /**
+     * Stands in for the connection to the printer
+     */
+    private static class DiscardingChannel implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the first print and the first status message in a fresh JVM, with and without the serializers
+ * having been prepared by {@link ModelSerializers#preloadNow()} beforehand (as the driver services do at creation).
+ *
+ * Run with <code>./gradlew :printer-driver-api:jmh</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class ModelSerializationStartupBenchmark {
+
+    // Literals so that building the input does not itself prepare the serializers
+    private static final String PAYLOAD_JSON = "{\"printerId\":\"benchmark\"}";
+    private static final String PRINTER_ID = "benchmark";
+
+    @Param({"false", "true"})
+    public boolean preloaded;
+
+    @Setup
+    public void setup() {
+        if (preloaded) {
+            ModelSerializers.preloadNow();
+        }
+    }
+
+    @Benchmark
+    public void firstPrint(Blackhole blackhole) {
+        PrintPayload printPayload = PrintPayload.fromJson(PAYLOAD_JSON);
+        blackhole.consume(printPayload.getPrinterId());
+        blackhole.consume(PrintJobMessages.toJson(PrintJobMessages.IN_PROGRESS));
+        blackhole.consume(PrintJobMessages.toJson(PrintJobMessages.PRINTED));
+    }
+
+    @Benchmark
+    public void firstFailedPrint(Blackhole blackhole) {
+        blackhole.consume(PrintPayload.fromJson(PAYLOAD_JSON));
+        blackhole.consume(new PrintJob(PrintJob.State.FAILED, PrinterMessages.ERROR_BUSY, PRINTER_ID).toJson());
+    }
+
+    @Benchmark
+    public void firstStatusMessage(Blackhole blackhole) {
+        blackhole.consume(new PrinterStatus(PrinterMessages.PRINTER_READY).toJson());
+    }
+
+    @Benchmark
+    public void firstDriverProperties(Blackhole blackhole) {
+        blackhole.consume(new DriverProperties().toJson());
+    }
+}
@@ -16,6 +16,7 @@ package com.aevi.print.driver;
 import com.aevi.android.rxmessenger.ChannelServer;
 import com.aevi.android.rxmessenger.service.AbstractChannelService;
 import com.aevi.print.model.ChannelPrintingContext;
+import com.aevi.print.model.ModelSerializers;
 import com.aevi.print.model.PrintAction;
 import com.aevi.print.model.PrintingContext;
 
@@ -28,6 +29,10 @@ import io.reactivex.functions.Consumer;
  */
 public abstract class BasePrinterActionService extends AbstractChannelService {
 
+    protected BasePrinterActionService() {
+        ModelSerializers.preloadInBackground();
+    }
+
     @Override
     protected void onNewClient(ChannelServer channelServer, final String callingPackageName) {
         final PrintingContext printingContext = new ChannelPrintingContext(channelServer);
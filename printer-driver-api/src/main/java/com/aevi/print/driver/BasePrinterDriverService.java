@@ -16,10 +16,16 @@ package com.aevi.print.driver;
 import com.aevi.android.rxmessenger.ChannelServer;
 import com.aevi.android.rxmessenger.service.AbstractChannelService;
 import com.aevi.print.model.ChannelPrintingContext;
+import com.aevi.print.model.MessageCompression;
+import com.aevi.print.model.ModelSerializers;
 import com.aevi.print.model.PrintJob;
+import com.aevi.print.model.PrintJobMessages;
 import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
+import com.aevi.print.model.PrinterMessages;
 import com.aevi.print.model.PrintingContext;
 
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 
 /**
@@ -29,23 +35,80 @@ import io.reactivex.functions.Consumer;
  */
 public abstract class BasePrinterDriverService extends AbstractChannelService {
 
+    protected BasePrinterDriverService() {
+        ModelSerializers.preloadInBackground();
+    }
+
     @Override
-    protected void onNewClient(ChannelServer channelServer, final String callingPackageName) {
-        PrintingContext printingContext = new ChannelPrintingContext(channelServer);
+    protected void onNewClient(final ChannelServer channelServer, final String callingPackageName) {
+        final ChannelPrintingContext printingContext = new ChannelPrintingContext(channelServer);
         channelServer.subscribeToMessages().subscribe(new Consumer<String>() {
             @Override
-            public void accept(String payload) {
-                print(printingContext, PrintPayload.fromJson(payload));
+            public void accept(String received) {
+                String message;
+                try {
+                    message = printingContext.decompress(received);
+                } catch (IllegalArgumentException e) {
+                    printingContext.sendError(PrinterMessages.ERROR_PRINT_FAILED, "Invalid message: " + e.getMessage());
+                    return;
+                }
+                if (MessageCompression.isMessageCompression(message)) {
+                    // sent uncompressed, so that the client always knows how to read the reply
+                    MessageCompression accepted = printingContext.negotiateCompression(MessageCompression.fromJson(message));
+                    channelServer.send(accepted.toJson());
+                } else {
+                    PrintRequest printRequest;
+                    if (PrintRequest.isPrintRequest(message)) {
+                        printRequest = PrintRequest.fromJson(message);
+                    } else {
+                        printRequest = new PrintRequest(PrintPayload.fromJson(message));
+                    }
+                    printRequest.setCallingPackageName(callingPackageName);
+                    print(printingContext, printRequest);
+                }
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) {
+                onClientDisconnected(printingContext);
+            }
+        }, new Action() {
+            @Override
+            public void run() {
+                onClientDisconnected(printingContext);
             }
         });
     }
 
+    /**
+     * Called when the client has disconnected, after which nothing more can be sent to it using the printing context.
+     * Any print job still running for the client should be cancelled.
+     *
+     * @param printingContext the printing context of the client
+     */
+    protected void onClientDisconnected(PrintingContext printingContext) {
+
+    }
+
     protected abstract void print(PrintingContext printingContext, PrintPayload payload);
 
+    /**
+     * Called for every print request received from a client. A plain payload is received as a print request with default options.
+     * By default the options of the request are ignored and only its payload is printed.
+     *
+     * @param printingContext the printing context
+     * @param printRequest    the print request
+     */
+    protected void print(PrintingContext printingContext, PrintRequest printRequest) {
+        print(printingContext, printRequest.getPrintPayload());
+    }
+
     protected void sendResponse(PrintingContext printingContext, PrintJob printJob) {
-        printingContext.send(printJob.toJson());
-        if (printJob.getPrintJobState() == PrintJob.State.FAILED || printJob.getPrintJobState() == PrintJob.State.PRINTED) {
-            printingContext.sendEndStream();
+        String message = PrintJobMessages.toJson(printJob);
+        if (PrintJobMessages.isFinalState(printJob)) {
+            printingContext.sendAndEndStream(message);
+        } else {
+            printingContext.send(message);
         }
     }
 }
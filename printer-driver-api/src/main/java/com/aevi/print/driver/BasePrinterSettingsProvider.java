@@ -83,7 +83,7 @@ public abstract class BasePrinterSettingsProvider extends ContentProvider {
                 b.putString(CONFIGURATION_KEY, JsonConverter.serialize(new PrinterSettingsList(getPrintersSettings())));
                 break;
             case METHOD_DRIVER_PROPERTIES:
-                b.putString(PROPERTIES_KEY, JsonConverter.serialize(getDriverProperties()));
+                b.putString(PROPERTIES_KEY, getDriverProperties().toJson());
                 break;
         }
         return b;
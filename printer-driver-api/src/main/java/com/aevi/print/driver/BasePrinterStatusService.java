@@ -16,6 +16,7 @@ package com.aevi.print.driver;
 import com.aevi.android.rxmessenger.ChannelServer;
 import com.aevi.android.rxmessenger.service.AbstractChannelService;
 import com.aevi.print.model.ChannelPrintingContext;
+import com.aevi.print.model.ModelSerializers;
 import com.aevi.print.model.PrintingContext;
 
 import io.reactivex.functions.Consumer;
@@ -30,6 +31,7 @@ public abstract class BasePrinterStatusService extends AbstractChannelService {
     private final PrinterStatusStream printerStatusStream;
 
     protected BasePrinterStatusService() {
+        ModelSerializers.preloadInBackground();
         printerStatusStream = new PrinterStatusStream();
     }
 
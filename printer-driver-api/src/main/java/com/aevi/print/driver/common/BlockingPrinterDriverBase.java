@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import com.aevi.print.model.BasePrinterInfo;
+import com.aevi.print.model.PrintPayload;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * A base class for printer SDKs with a blocking API.
+ *
+ * All the blocking methods of the implementation are called on a single I/O thread dedicated to this printer, never on the thread of
+ * the caller. Returning normally completes the step, throwing an exception fails it in the same way as for
+ * {@link ReactivePrinterDriverBase} (throw a {@link PrinterDriverException} to give a specific reason).
+ * The I/O thread is released after a period of inactivity and recreated on demand.
+ *
+ * A blocking call that is cancelled or times out is interrupted. As the call may ignore the interrupt, a call that times out is
+ * abandoned on its thread and the printer is given a new I/O thread, on which the connection is closed first so that the printer
+ * is reconnected from scratch. That close runs whilst the abandoned call may still be blocked, so {@link #closeConnection()} must
+ * be safe to call concurrently with the other blocking methods. The timeout is reported as an unrecoverable error.
+ *
+ * @param <T> The class that has been derived from {@link BasePrinterInfo}
+ */
+public abstract class BlockingPrinterDriverBase<T extends BasePrinterInfo> extends ReactivePrinterDriverBase<T> {
+
+    private static final String TAG = BlockingPrinterDriverBase.class.getSimpleName();
+    private static final long IO_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final IoThreadMetrics ioThreadMetrics = new IoThreadMetrics();
+    private final AtomicReference<ThreadPoolExecutor> ioThreadExecutor = new AtomicReference<>();
+
+    /**
+     * The constructor for BlockingPrinterDriverBase
+     *
+     * @param printerInfo The class providing the details of the printer
+     */
+    public BlockingPrinterDriverBase(@NonNull BasePrinterInfo printerInfo) {
+        super(printerInfo);
+        ioThreadExecutor.set(createIoThreadExecutor(printerInfo.getPrinterId()));
+    }
+
+    /**
+     * Opens a connection to the printer, blocking until the printer is ready
+     *
+     * @throws Exception if the connection cannot be made
+     */
+    protected abstract void openConnection() throws Exception;
+
+    /**
+     * Closes the connection to the printer.
+     *
+     * This method must be safe to call whilst another thread is still blocked in {@link #openConnection}, {@link #printBlocking} or
+     * {@link #performActionBlocking}. After a call times out, the connection is closed on a new I/O thread while the call may still
+     * be blocked on the abandoned one, as a blocking SDK call that ignores the interrupt usually only returns once its socket or
+     * stream is closed under it. Closing the connection is what lets the abandoned thread exit, so it must not wait for that call
+     * nor take a lock that the call holds. The blocked call is then expected to fail, and its outcome is ignored.
+     *
+     * @throws Exception if the connection could not be closed cleanly
+     */
+    protected abstract void closeConnection() throws Exception;
+
+    /**
+     * Converts the printer payload to a form the printer will accept and sends it the printer, blocking until it has been printed
+     *
+     * @param printPayload the printer payload that is be printed.
+     * @throws Exception if printing failed
+     */
+    protected abstract void printBlocking(@NonNull PrintPayload printPayload) throws Exception;
+
+    /**
+     * Carries out the printer action, blocking until it has completed
+     *
+     * @param printAction The print action command to be carried out by the printer (e.g. open the cash drawer)
+     * @throws Exception if the action failed
+     */
+    protected abstract void performActionBlocking(@NonNull String printAction) throws Exception;
+
+    /**
+     * @return the utilization metrics of the I/O thread of this printer
+     */
+    @NonNull
+    public IoThreadMetrics getIoThreadMetrics() {
+        return ioThreadMetrics;
+    }
+
+    @NonNull
+    @Override
+    protected final Completable connect() {
+        return onIoThread(new Action() {
+            @Override
+            public void run() throws Exception {
+                openConnection();
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    protected final Completable disconnect() {
+        return onIoThread(new Action() {
+            @Override
+            public void run() throws Exception {
+                closeConnection();
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    protected final Completable printPayload(@NonNull final PrintPayload printPayload) {
+        return onIoThread(new Action() {
+            @Override
+            public void run() throws Exception {
+                printBlocking(printPayload);
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    protected final Completable performAction(@NonNull final String printAction) {
+        return onIoThread(new Action() {
+            @Override
+            public void run() throws Exception {
+                performActionBlocking(printAction);
+            }
+        });
+    }
+
+    /**
+     * Abandons the I/O thread, which may still be blocked in the call that timed out, and closes the connection on a new one.
+     * The close runs concurrently with the blocked call, which it is meant to unblock, see {@link #closeConnection()}.
+     */
+    @Override
+    protected boolean onStepTimedOut() {
+        ThreadPoolExecutor executor = ioThreadExecutor.get();
+        if (ioThreadExecutor.compareAndSet(executor, createIoThreadExecutor(getPrinterInfo().getPrinterId()))) {
+            // the abandoned thread exits once the blocked call returns
+            executor.shutdown();
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        closeConnection();
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to close the connection after a timeout", e);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    private Completable onIoThread(final Action action) {
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(final CompletableEmitter emitter) {
+                final FutureTask<Void> task = new FutureTask<>(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            action.run();
+                            emitter.onComplete();
+                        } catch (Exception e) {
+                            emitter.tryOnError(e);
+                        }
+                    }
+                }, null);
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        // interrupts the blocking call if it is running
+                        task.cancel(true);
+                    }
+                });
+                execute(task);
+            }
+        });
+    }
+
+    private void execute(final Runnable runnable) {
+        final long queuedNanos = System.nanoTime();
+        ioThreadExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                try {
+                    runnable.run();
+                } finally {
+                    ioThreadMetrics.onTaskExecuted(startNanos - queuedNanos, System.nanoTime() - startNanos);
+                }
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor createIoThreadExecutor(final String printerId) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, IO_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "printer-io-" + printerId);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache that holds entries up to a maximum total weight, e.g. a number of bytes, evicting the least recently used entries first.
+ * It counts its hits and misses so that its hit ratio can be reported.
+ *
+ * This class is thread safe.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class BoundedLruCache<K, V> {
+
+    /**
+     * Gives the weight of an entry, which must not change whilst it is cached
+     */
+    public interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxWeight;
+    private final Weigher<K, V> weigher;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxWeight the maximum total weight of the cached entries
+     * @param weigher   gives the weight of each entry
+     */
+    public BoundedLruCache(long maxWeight, @NonNull Weigher<K, V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value, or null if there is none
+     */
+    public synchronized V get(@NonNull K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Caches the value, evicting the least recently used entries as needed. A value that is heavier than the cache is not cached.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public synchronized void put(@NonNull K key, @NonNull V value) {
+        int entryWeight = weigher.weigh(key, value);
+        V previous = entries.remove(key);
+        if (previous != null) {
+            weight -= weigher.weigh(key, previous);
+        }
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, value);
+        weight += entryWeight;
+
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            weight -= weigher.weigh(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total weight of the cached entries
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the share of lookups that found a cached value, or 0 if there have been no lookups
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BoundedLruCache{" +
+                "size=" + entries.size() +
+                ", weight=" + weight +
+                ", maxWeight=" + maxWeight +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Utilization metrics of the I/O thread of a {@link BlockingPrinterDriverBase}
+ */
+public class IoThreadMetrics {
+
+    private final long createdNanos = System.nanoTime();
+    private final AtomicLong tasksExecuted = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    void onTaskExecuted(long waitNanos, long runNanos) {
+        tasksExecuted.incrementAndGet();
+        busyNanos.addAndGet(runNanos);
+        queueWaitNanos.addAndGet(waitNanos);
+        long max;
+        do {
+            max = maxQueueWaitNanos.get();
+        } while (waitNanos > max && !maxQueueWaitNanos.compareAndSet(max, waitNanos));
+    }
+
+    /**
+     * @return the number of blocking SDK calls made on the I/O thread
+     */
+    public long getTasksExecuted() {
+        return tasksExecuted.get();
+    }
+
+    /**
+     * @return the total time spent inside blocking SDK calls
+     */
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * @return the total time calls spent waiting for the I/O thread to become free
+     */
+    public long getQueueWaitNanos() {
+        return queueWaitNanos.get();
+    }
+
+    public long getMaxQueueWaitNanos() {
+        return maxQueueWaitNanos.get();
+    }
+
+    /**
+     * @return the fraction of time since the driver was created that the I/O thread has been busy
+     */
+    public double getUtilization() {
+        long elapsed = System.nanoTime() - createdNanos;
+        return elapsed <= 0 ? 0 : Math.min(1, (double) busyNanos.get() / elapsed);
+    }
+
+    @Override
+    public String toString() {
+        return "IoThreadMetrics{" +
+                "tasksExecuted=" + getTasksExecuted() +
+                ", busyNanos=" + getBusyNanos() +
+                ", queueWaitNanos=" + getQueueWaitNanos() +
+                ", maxQueueWaitNanos=" + getMaxQueueWaitNanos() +
+                ", utilization=" + getUtilization() +
+                '}';
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.aevi.print.model.ImageRow;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
+import com.aevi.print.model.PrintRow;
+import com.aevi.print.model.TextRow;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the payloads of waiting print jobs within a memory budget that is shared by every printer driver it is set on.
+ *
+ * A payload that is larger than the spill threshold, or that does not fit in what is left of the memory budget, is written to a
+ * spool file and the print job only keeps a reference to that file. The payload is read back from the file when the print job is
+ * given to the printer. A print job that fails
+ * before it is printed hands its spool file back to the print request, which only reads it should the request be resubmitted,
+ * see {@link PrintRequest#restorePrintPayload()}. The size of a payload is estimated from its rows, as the characters of its text and the pixels of its
+ * images, so that a payload that stays in memory is never serialized. A spooled payload is written as the JSON of
+ * {@link PrintPayload#toJson()}, as only the print-api converter knows the types of its rows and how to write their images, and
+ * read back from the file in a single read.
+ *
+ * This class is thread safe.
+ */
+public class PayloadSpool {
+    private static final String TAG = PayloadSpool.class.getSimpleName();
+
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_SPILL_THRESHOLD_BYTES = 1024 * 1024;
+
+    private static final String SPOOL_FILE_PREFIX = "payload-";
+    private static final String SPOOL_FILE_SUFFIX = ".json";
+    private static final int BYTES_PER_CHAR = 2;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int ROW_OVERHEAD_BYTES = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final long memoryBudgetBytes;
+    private final long spillThresholdBytes;
+    private final AtomicLong bytesInMemory = new AtomicLong();
+    private final AtomicLong bytesOnDisk = new AtomicLong();
+    private final AtomicLong payloadsSpilled = new AtomicLong();
+
+    public PayloadSpool(File directory) {
+        this(directory, DEFAULT_MEMORY_BUDGET_BYTES, DEFAULT_SPILL_THRESHOLD_BYTES);
+    }
+
+    /**
+     * @param directory           the directory of the spool files, e.g. in the cache directory of the service
+     * @param memoryBudgetBytes   the total size of the payloads that are kept in memory
+     * @param spillThresholdBytes the size above which a payload is always spooled to disk
+     */
+    public PayloadSpool(File directory, long memoryBudgetBytes, long spillThresholdBytes) {
+        this.directory = directory;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillThresholdBytes = spillThresholdBytes;
+        deleteSpoolFiles();
+    }
+
+    /**
+     * Spool files left behind by an earlier process belong to print jobs that no longer exist, the journal has its own copy of them
+     */
+    private void deleteSpoolFiles() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SPOOL_FILE_PREFIX) && !file.delete()) {
+                    Log.w(TAG, "Failed to delete spool file: " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the payload in memory if it fits within the budget, otherwise writes it to a spool file
+     *
+     * @param printPayload the payload of a waiting print job
+     * @return the spooled payload
+     * @throws IOException if the payload needed to be written to disk but could not be
+     */
+    SpooledPayload spool(PrintPayload printPayload) throws IOException {
+        long sizeBytes = estimateSizeBytes(printPayload);
+        if (sizeBytes <= spillThresholdBytes && reserveMemory(sizeBytes)) {
+            return new SpooledPayload(this, printPayload, null, sizeBytes);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create spool directory: " + directory);
+        }
+        byte[] json;
+        try {
+            json = printPayload.toJson().getBytes(UTF_8);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to serialize payload", e);
+        }
+        File file = File.createTempFile(SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX, directory);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(json);
+            outputStream.close();
+        } catch (IOException e) {
+            outputStream.close();
+            file.delete();
+            throw e;
+        }
+
+        long fileBytes = file.length();
+        bytesOnDisk.addAndGet(fileBytes);
+        payloadsSpilled.incrementAndGet();
+        Log.d(TAG, "Spooled payload of about " + sizeBytes + " bytes to disk, " + bytesOnDisk.get() + " bytes on disk");
+        return new SpooledPayload(this, null, file, fileBytes);
+    }
+
+    /**
+     * @param printPayload a payload
+     * @return the approximate size in bytes that the payload takes in memory
+     */
+    static long estimateSizeBytes(PrintPayload printPayload) {
+        long sizeBytes = 0;
+        for (PrintRow printRow : printPayload.getRows()) {
+            sizeBytes += ROW_OVERHEAD_BYTES;
+            if (printRow instanceof TextRow) {
+                String text = ((TextRow) printRow).getText();
+                sizeBytes += text != null ? (long) text.length() * BYTES_PER_CHAR : 0;
+            } else if (printRow instanceof ImageRow) {
+                Bitmap image = ((ImageRow) printRow).getImage();
+                sizeBytes += image != null ? (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL : 0;
+            }
+        }
+        return sizeBytes;
+    }
+
+    private boolean reserveMemory(long sizeBytes) {
+        long current;
+        do {
+            current = bytesInMemory.get();
+            if (current + sizeBytes > memoryBudgetBytes) {
+                return false;
+            }
+        } while (!bytesInMemory.compareAndSet(current, current + sizeBytes));
+        return true;
+    }
+
+    /**
+     * @return the total size of the payloads of waiting print jobs that are kept in memory
+     */
+    public long getBytesInMemory() {
+        return bytesInMemory.get();
+    }
+
+    /**
+     * @return the total size of the spool files of waiting print jobs
+     */
+    public long getBytesOnDisk() {
+        return bytesOnDisk.get();
+    }
+
+    /**
+     * @return the number of payloads that have been written to a spool file
+     */
+    public long getPayloadsSpilled() {
+        return payloadsSpilled.get();
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public long getSpillThresholdBytes() {
+        return spillThresholdBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadSpool{" +
+                "bytesInMemory=" + getBytesInMemory() +
+                ", bytesOnDisk=" + getBytesOnDisk() +
+                ", payloadsSpilled=" + getPayloadsSpilled() +
+                '}';
+    }
+
+    /**
+     * The payload of a print job, held either in memory or in a spool file. It can be read or released only once.
+     */
+    static final class SpooledPayload implements PrintRequest.SpooledPrintPayload {
+        private final PayloadSpool payloadSpool;
+        private final File file;
+        private final long sizeBytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile PrintPayload printPayload;
+
+        private SpooledPayload(PayloadSpool payloadSpool, PrintPayload printPayload, File file, long sizeBytes) {
+            this.payloadSpool = payloadSpool;
+            this.printPayload = printPayload;
+            this.file = file;
+            this.sizeBytes = sizeBytes;
+        }
+
+        /**
+         * @param printPayload a payload that is not accounted for by any spool
+         * @return the payload held in memory
+         */
+        static SpooledPayload inMemory(PrintPayload printPayload) {
+            return new SpooledPayload(null, printPayload, null, 0);
+        }
+
+        boolean isOnDisk() {
+            return file != null;
+        }
+
+        /**
+         * Reads the payload, back from its spool file if it was spooled to disk, and releases it
+         *
+         * @return the payload
+         * @throws IOException if the spool file could not be read or does not hold a payload
+         */
+        @Override
+        public PrintPayload read() throws IOException {
+            if (file == null) {
+                PrintPayload printPayload = this.printPayload;
+                release();
+                return printPayload;
+            }
+            try {
+                // the file was written in one go and is read in one go, into an array of exactly its size
+                byte[] json = new byte[(int) file.length()];
+                DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+                try {
+                    inputStream.readFully(json);
+                } finally {
+                    inputStream.close();
+                }
+                try {
+                    return PrintPayload.fromJson(new String(json, UTF_8));
+                } catch (RuntimeException e) {
+                    throw new IOException("Failed to read spool file: " + file, e);
+                }
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Gives back the memory or deletes the spool file of a payload that is no longer needed
+         */
+        @Override
+        public void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            printPayload = null;
+            if (payloadSpool == null) {
+                return;
+            }
+            if (file == null) {
+                payloadSpool.bytesInMemory.addAndGet(-sizeBytes);
+            } else {
+                if (!file.delete()) {
+                    Log.w(TAG, "Failed to delete spool file: " + file);
+                }
+                payloadSpool.bytesOnDisk.addAndGet(-sizeBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import android.util.Log;
+
+import com.aevi.print.model.PrintRequest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * An append-only, memory-mapped journal of the print jobs accepted by a {@link PrinterDriverBase}, so that print jobs that had not
+ * completed when the driver service was killed are printed once it has restarted.
+ *
+ * The journal file starts with a header holding a generation number, followed by records of the form
+ * {@code [length][crc32][generation][type][job id][data]}. A record is only read back if its checksum matches and it belongs to the
+ * current generation, so neither a torn write nor a record left over from before the journal was last emptied is ever replayed.
+ *
+ * Once every print job in the journal has completed, the journal is emptied by starting a new generation, which costs a single write
+ * to the header. Otherwise the journal is compacted by rewriting the records of the print jobs that have not completed into a new
+ * file, but only once the records of completed print jobs take more space than them, so every byte appended is copied at most once
+ * more on average.
+ *
+ * Only the position of each record of a print job that has not completed is kept in memory, its data is read back from the file
+ * when it is recovered or compacted.
+ *
+ * How often the journal is synced to disk is set by its {@link SyncPolicy} and the cost of syncing is measured by its
+ * {@link JournalMetrics}. This class is thread safe.
+ */
+public class PrintJobJournal implements Closeable {
+    private static final String TAG = PrintJobJournal.class.getSimpleName();
+
+    public enum SyncPolicy {
+        /**
+         * Syncs every write to disk before returning, so an accepted print job survives even a power loss
+         */
+        ALWAYS,
+        /**
+         * Syncs at most once per sync interval, and at the latest one sync interval after a write, which bounds the print jobs that
+         * could be lost on power loss
+         */
+        PERIODIC,
+        /**
+         * Leaves syncing to the operating system, which still survives the driver service being killed
+         */
+        NEVER
+    }
+
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+
+    private static final int MAGIC = 0x50524a4a;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int GENERATION_OFFSET = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int RECORD_BODY_HEADER_SIZE = 13;
+    private static final byte TYPE_ACCEPTED = 1;
+    private static final byte TYPE_COMPLETED = 2;
+    private static final int MIN_FILE_SIZE = 64 * 1024;
+    private static final int MIN_COMPACTION_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+    private final JournalMetrics metrics = new JournalMetrics();
+
+    // the records of the print jobs that have not completed, by job id, in the order they were accepted
+    private final Map<Long, PendingRecord> pendingRecords = new LinkedHashMap<>();
+    private List<JournaledPrintJob> recoveredPrintJobs;
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int generation;
+    private long nextJobId = 1;
+    private long liveBytes;
+    private long deadBytes;
+    private long lastSyncNanos;
+    private boolean dirty;
+    private Disposable scheduledSync;
+
+    private PrintJobJournal(File file, SyncPolicy syncPolicy, long syncIntervalMs) {
+        this.file = file;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+    }
+
+    /**
+     * Opens the journal, creating it if it does not exist, and recovers the print jobs that had not completed
+     *
+     * @param file       the journal file
+     * @param syncPolicy how often the journal is synced to disk
+     * @return the journal
+     * @throws IOException if the journal cannot be opened
+     */
+    public static PrintJobJournal open(File file, SyncPolicy syncPolicy) throws IOException {
+        return open(file, syncPolicy, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * @param file           the journal file
+     * @param syncPolicy     how often the journal is synced to disk
+     * @param syncIntervalMs the minimum time between syncs for {@link SyncPolicy#PERIODIC}
+     * @return the journal
+     * @throws IOException if the journal cannot be opened
+     */
+    public static PrintJobJournal open(File file, SyncPolicy syncPolicy, long syncIntervalMs) throws IOException {
+        PrintJobJournal journal = new PrintJobJournal(file, syncPolicy, syncIntervalMs);
+        journal.recover();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        if (randomAccessFile.length() < HEADER_SIZE) {
+            map(MIN_FILE_SIZE);
+            writeHeader(1);
+            sync();
+        } else {
+            map(Math.max(MIN_FILE_SIZE, randomAccessFile.length()));
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a print job journal: " + file);
+            }
+            generation = buffer.getInt(GENERATION_OFFSET);
+            readRecords();
+        }
+
+        List<JournaledPrintJob> printJobs = new ArrayList<>();
+        for (Map.Entry<Long, PendingRecord> entry : pendingRecords.entrySet()) {
+            printJobs.add(new JournaledPrintJob(entry.getKey(), decode(readData(entry.getValue()))));
+        }
+        recoveredPrintJobs = printJobs;
+        if (!printJobs.isEmpty()) {
+            Log.i(TAG, "Recovered " + printJobs.size() + " print job(s) from " + file);
+        }
+    }
+
+    private void readRecords() {
+        buffer.position(HEADER_SIZE);
+        CRC32 crc32 = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < RECORD_BODY_HEADER_SIZE || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            crc32.reset();
+            crc32.update(body, 0, body.length);
+            ByteBuffer record = ByteBuffer.wrap(body);
+            if ((int) crc32.getValue() != checksum || record.getInt() != generation) {
+                // a torn write or a record of an earlier generation marks the end of the journal
+                buffer.position(start);
+                break;
+            }
+            byte type = record.get();
+            long jobId = record.getLong();
+            nextJobId = Math.max(nextJobId, jobId + 1);
+            int recordSize = RECORD_HEADER_SIZE + length;
+            if (type == TYPE_ACCEPTED) {
+                pendingRecords.put(jobId, new PendingRecord(start + RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE, record.remaining()));
+                liveBytes += recordSize;
+            } else {
+                PendingRecord pendingRecord = pendingRecords.remove(jobId);
+                if (pendingRecord != null) {
+                    long acceptedSize = pendingRecord.getRecordSize();
+                    liveBytes -= acceptedSize;
+                    deadBytes += acceptedSize;
+                }
+                deadBytes += recordSize;
+            }
+        }
+    }
+
+    /**
+     * Returns the print jobs that had not completed when the journal was opened. They are returned only once, so that they are
+     * replayed only once.
+     *
+     * @return the recovered print jobs, in the order they were accepted
+     */
+    public synchronized List<JournaledPrintJob> takeRecoveredPrintJobs() {
+        List<JournaledPrintJob> printJobs = recoveredPrintJobs;
+        recoveredPrintJobs = Collections.emptyList();
+        return printJobs;
+    }
+
+    /**
+     * Records that a print job has been accepted
+     *
+     * @param printRequest the print request of the print job
+     * @return the id of the print job in the journal
+     * @throws IOException if the print job cannot be written
+     */
+    public synchronized long append(PrintRequest printRequest) throws IOException {
+        long jobId = nextJobId++;
+        byte[] data = encode(printRequest);
+        PendingRecord pendingRecord = new PendingRecord(writeRecord(TYPE_ACCEPTED, jobId, data), data.length);
+        pendingRecords.put(jobId, pendingRecord);
+        int recordSize = pendingRecord.getRecordSize();
+        liveBytes += recordSize;
+        metrics.onAppended(recordSize);
+        syncIfRequired();
+        return jobId;
+    }
+
+    /**
+     * Records that a print job has completed, so that it is not replayed
+     *
+     * @param jobId the id of the print job in the journal
+     * @throws IOException if the completion cannot be written
+     */
+    public synchronized void complete(long jobId) throws IOException {
+        PendingRecord pendingRecord = pendingRecords.remove(jobId);
+        if (pendingRecord == null) {
+            return;
+        }
+        long acceptedSize = pendingRecord.getRecordSize();
+        liveBytes -= acceptedSize;
+        deadBytes += acceptedSize;
+
+        if (pendingRecords.isEmpty()) {
+            // nothing left to replay, so start again from the beginning of the file
+            writeHeader(generation + 1);
+            liveBytes = 0;
+            deadBytes = 0;
+        } else {
+            writeRecord(TYPE_COMPLETED, jobId, new byte[0]);
+            int recordSize = RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE;
+            deadBytes += recordSize;
+            metrics.onAppended(recordSize);
+            if (deadBytes > liveBytes && deadBytes + liveBytes > MIN_COMPACTION_SIZE) {
+                compact();
+            }
+        }
+        syncIfRequired();
+    }
+
+    /**
+     * @return the position in the file of the data of the record
+     */
+    private int writeRecord(byte type, long jobId, byte[] data) throws IOException {
+        int length = RECORD_BODY_HEADER_SIZE + data.length;
+        int recordSize = RECORD_HEADER_SIZE + length;
+        ensureCapacity(recordSize);
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.putInt(generation).put(type).putLong(jobId).put(data);
+        CRC32 crc32 = new CRC32();
+        crc32.update(body.array(), 0, length);
+
+        int dataOffset = buffer.position() + RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE;
+        buffer.putInt(length).putInt((int) crc32.getValue()).put(body.array());
+        dirty = true;
+        return dataOffset;
+    }
+
+    private byte[] readData(PendingRecord pendingRecord) {
+        byte[] data = new byte[pendingRecord.dataLength];
+        ByteBuffer record = buffer.duplicate();
+        record.position(pendingRecord.dataOffset);
+        record.get(data);
+        return data;
+    }
+
+    private void ensureCapacity(int recordSize) throws IOException {
+        if (buffer.remaining() < recordSize) {
+            int position = buffer.position();
+            long size = Math.max((long) buffer.capacity() * 2, (long) position + recordSize);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Print job journal is full: " + file);
+            }
+            map(size);
+            buffer.position(position);
+        }
+    }
+
+    /**
+     * Rewrites the records of the print jobs that have not completed into a new file, which then replaces the journal
+     */
+    private void compact() throws IOException {
+        long startNanos = System.nanoTime();
+        long bytesBefore = liveBytes + deadBytes;
+        File compactedFile = new File(file.getPath() + ".compact");
+        PrintJobJournal compacted = new PrintJobJournal(compactedFile, SyncPolicy.NEVER, 0);
+        compacted.randomAccessFile = new RandomAccessFile(compactedFile, "rw");
+        compacted.randomAccessFile.setLength(0);
+        compacted.map(Math.max(MIN_FILE_SIZE, liveBytes * 2 + HEADER_SIZE));
+        compacted.writeHeader(generation + 1);
+        Map<Long, PendingRecord> compactedRecords = new LinkedHashMap<>();
+        for (Map.Entry<Long, PendingRecord> entry : pendingRecords.entrySet()) {
+            PendingRecord pendingRecord = entry.getValue();
+            int dataOffset = compacted.writeRecord(TYPE_ACCEPTED, entry.getKey(), readData(pendingRecord));
+            compactedRecords.put(entry.getKey(), new PendingRecord(dataOffset, pendingRecord.dataLength));
+        }
+        compacted.sync();
+        int position = compacted.buffer.position();
+        compacted.randomAccessFile.close();
+
+        randomAccessFile.close();
+        if (!compactedFile.renameTo(file)) {
+            throw new IOException("Failed to replace the print job journal: " + file);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        map(randomAccessFile.length());
+        buffer.position(position);
+        pendingRecords.clear();
+        pendingRecords.putAll(compactedRecords);
+        generation = generation + 1;
+        deadBytes = 0;
+        metrics.onCompacted(liveBytes, System.nanoTime() - startNanos);
+        Log.d(TAG, "Compacted print job journal from " + bytesBefore + " to " + liveBytes + " bytes");
+    }
+
+    private void writeHeader(int generation) {
+        this.generation = generation;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(GENERATION_OFFSET, generation);
+        buffer.position(HEADER_SIZE);
+        dirty = true;
+    }
+
+    private void map(long size) throws IOException {
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void syncIfRequired() {
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            sync();
+        } else if (syncPolicy == SyncPolicy.PERIODIC) {
+            long sinceSyncNanos = System.nanoTime() - lastSyncNanos;
+            if (sinceSyncNanos >= syncIntervalNanos) {
+                sync();
+            } else if (dirty && scheduledSync == null) {
+                // otherwise the write would stay unsynced until the next one, however long that takes
+                scheduledSync = Schedulers.io().scheduleDirect(new Runnable() {
+                    @Override
+                    public void run() {
+                        onScheduledSync();
+                    }
+                }, syncIntervalNanos - sinceSyncNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private synchronized void onScheduledSync() {
+        scheduledSync = null;
+        if (randomAccessFile != null) {
+            sync();
+        }
+    }
+
+    private void sync() {
+        if (!dirty) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        buffer.force();
+        lastSyncNanos = System.nanoTime();
+        dirty = false;
+        metrics.onSynced(lastSyncNanos - startNanos);
+    }
+
+    /**
+     * @return the number of print jobs in the journal that have not completed
+     */
+    public synchronized int getPendingCount() {
+        return pendingRecords.size();
+    }
+
+    public JournalMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduledSync != null) {
+            scheduledSync.dispose();
+            scheduledSync = null;
+        }
+        if (randomAccessFile != null) {
+            sync();
+            randomAccessFile.close();
+            randomAccessFile = null;
+        }
+    }
+
+    private static byte[] encode(PrintRequest printRequest) {
+        // the calling package is not part of the JSON of a print request, so it is stored alongside it
+        String callingPackageName = printRequest.getCallingPackageName();
+        byte[] packageBytes = callingPackageName != null ? callingPackageName.getBytes(UTF_8) : new byte[0];
+        byte[] json = printRequest.toJson().getBytes(UTF_8);
+        return ByteBuffer.allocate(4 + packageBytes.length + json.length).putInt(packageBytes.length).put(packageBytes).put(json).array();
+    }
+
+    private static PrintRequest decode(byte[] data) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        byte[] packageBytes = new byte[byteBuffer.getInt()];
+        byteBuffer.get(packageBytes);
+        PrintRequest printRequest = PrintRequest.fromJson(new String(data, byteBuffer.position(), byteBuffer.remaining(), UTF_8));
+        if (packageBytes.length > 0) {
+            printRequest.setCallingPackageName(new String(packageBytes, UTF_8));
+        }
+        return printRequest;
+    }
+
+    private static class PendingRecord {
+        private final int dataOffset;
+        private final int dataLength;
+
+        PendingRecord(int dataOffset, int dataLength) {
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        int getRecordSize() {
+            return RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE + dataLength;
+        }
+    }
+
+    /**
+     * A print job recovered from the journal
+     */
+    public static class JournaledPrintJob {
+        private final long jobId;
+        private final PrintRequest printRequest;
+
+        JournaledPrintJob(long jobId, PrintRequest printRequest) {
+            this.jobId = jobId;
+            this.printRequest = printRequest;
+        }
+
+        public long getJobId() {
+            return jobId;
+        }
+
+        public PrintRequest getPrintRequest() {
+            return printRequest;
+        }
+    }
+
+    /**
+     * Write and sync metrics of a {@link PrintJobJournal}
+     */
+    public static class JournalMetrics {
+        private long recordsAppended;
+        private long bytesAppended;
+        private long bytesCompacted;
+        private long compactions;
+        private long compactionNanos;
+        private long syncs;
+        private long syncNanos;
+        private long maxSyncNanos;
+
+        synchronized void onAppended(int bytes) {
+            recordsAppended++;
+            bytesAppended += bytes;
+        }
+
+        synchronized void onCompacted(long bytes, long nanos) {
+            compactions++;
+            bytesCompacted += bytes;
+            compactionNanos += nanos;
+        }
+
+        synchronized void onSynced(long nanos) {
+            syncs++;
+            syncNanos += nanos;
+            maxSyncNanos = Math.max(maxSyncNanos, nanos);
+        }
+
+        public synchronized long getRecordsAppended() {
+            return recordsAppended;
+        }
+
+        public synchronized long getBytesAppended() {
+            return bytesAppended;
+        }
+
+        /**
+         * @return the bytes copied by compactions
+         */
+        public synchronized long getBytesCompacted() {
+            return bytesCompacted;
+        }
+
+        public synchronized long getCompactions() {
+            return compactions;
+        }
+
+        public synchronized long getCompactionNanos() {
+            return compactionNanos;
+        }
+
+        public synchronized long getSyncs() {
+            return syncs;
+        }
+
+        /**
+         * @return the total time spent syncing the journal to disk
+         */
+        public synchronized long getSyncNanos() {
+            return syncNanos;
+        }
+
+        public synchronized long getMaxSyncNanos() {
+            return maxSyncNanos;
+        }
+
+        /**
+         * @return the bytes written to the journal, including those copied by compactions, per byte appended
+         */
+        public synchronized double getWriteAmplification() {
+            return bytesAppended == 0 ? 1 : (double) (bytesAppended + bytesCompacted) / bytesAppended;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "JournalMetrics{" +
+                    "recordsAppended=" + recordsAppended +
+                    ", bytesAppended=" + bytesAppended +
+                    ", bytesCompacted=" + bytesCompacted +
+                    ", compactions=" + compactions +
+                    ", syncs=" + syncs +
+                    ", syncNanos=" + syncNanos +
+                    ", maxSyncNanos=" + maxSyncNanos +
+                    '}';
+        }
+    }
+}
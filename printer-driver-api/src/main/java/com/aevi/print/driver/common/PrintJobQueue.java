@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A queue of print jobs waiting for the printer, ordered by priority class and then fairly across the packages of the calling clients,
+ * with each package's deadlines deciding which of its own jobs takes its turn.
+ *
+ * Jobs of a higher priority class (a lower number) are always taken first. The caller is expected to cap the priority class that each
+ * package may use, as any package could otherwise claim the highest class for all of its jobs.
+ *
+ * Within a priority class the printer is shared in weighted fair order. Each package has its own queue. Every job is given a virtual
+ * finish time of one unit of work divided by the weight of its package, counted from the later of the current virtual time and the
+ * finish time of the previous job of the same package. The package with the earliest finish time is served next, so a package with
+ * weight 2 gets twice the share of the printer of a package with weight 1, and a package that floods the queue cannot hold back the
+ * jobs of any other package. The turn of a package goes to its job with the earliest deadline, ahead of its jobs without one, and
+ * otherwise to its oldest job, so a deadline can never take the turn of another package.
+ *
+ * This class is not thread safe.
+ *
+ * @param <E> the type of the queued print jobs
+ */
+final class PrintJobQueue<E> {
+
+    private final Map<String, PackageQueue<E>> packageQueues = new HashMap<>();
+    private double virtualTime;
+    private long sequence;
+    private int size;
+
+    /**
+     * @param callingPackageName the package of the client that submitted the print job
+     * @param weight             the share of the printer given to the package, must be at least 1
+     * @param element            the print job
+     */
+    void offer(String callingPackageName, int weight, E element) {
+        offer(callingPackageName, weight, 0, false, 0, element);
+    }
+
+    /**
+     * @param callingPackageName the package of the client that submitted the print job
+     * @param weight             the share of the printer given to the package, must be at least 1
+     * @param priority           the priority class of the print job, lower numbers are taken first
+     * @param hasDeadline        true if the print job has a deadline
+     * @param deadlineNanos      the deadline of the print job in {@link System#nanoTime()} terms
+     * @param element            the print job
+     */
+    void offer(String callingPackageName, int weight, int priority, boolean hasDeadline, long deadlineNanos, E element) {
+        PackageQueue<E> packageQueue = packageQueues.get(callingPackageName);
+        if (packageQueue == null) {
+            packageQueue = new PackageQueue<>();
+            packageQueues.put(callingPackageName, packageQueue);
+        }
+        double startTag = Math.max(virtualTime, packageQueue.lastFinishTag);
+        double finishTag = startTag + 1.0 / Math.max(1, weight);
+        packageQueue.lastFinishTag = finishTag;
+        long entrySequence = sequence++;
+        packageQueue.turns.add(new Turn(startTag, finishTag, entrySequence));
+        packageQueue.entries.add(new Entry<>(element, priority, hasDeadline, deadlineNanos, entrySequence));
+        size++;
+    }
+
+    /**
+     * @return the print job that is to be printed next, or null if the queue is empty
+     */
+    E poll() {
+        if (size == 0) {
+            return null;
+        }
+        int priority = Integer.MAX_VALUE;
+        Iterator<PackageQueue<E>> packageQueueIterator = packageQueues.values().iterator();
+        while (packageQueueIterator.hasNext()) {
+            PackageQueue<E> packageQueue = packageQueueIterator.next();
+            if (packageQueue.isIdle(virtualTime)) {
+                packageQueueIterator.remove();
+                continue;
+            }
+            for (Entry<E> entry : packageQueue.entries) {
+                priority = Math.min(priority, entry.priority);
+            }
+        }
+        PackageQueue<E> nextQueue = null;
+        Entry<E> next = null;
+        for (PackageQueue<E> packageQueue : packageQueues.values()) {
+            Entry<E> candidate = packageQueue.getNext(priority);
+            if (candidate != null && (nextQueue == null || packageQueue.turns.peekFirst().isBefore(nextQueue.turns.peekFirst()))) {
+                nextQueue = packageQueue;
+                next = candidate;
+            }
+        }
+        nextQueue.entries.remove(next);
+        // the job takes the next turn of its package, whichever of its jobs was given that turn
+        Turn turn = nextQueue.turns.removeFirst();
+        virtualTime = Math.max(virtualTime, turn.startTag);
+        size--;
+        return next.element;
+    }
+
+    /**
+     * Removes a print job that will not be printed. Its package gives up its last turn, and the finish time of that turn, so that the
+     * package is not charged for a job that was never printed.
+     *
+     * @param element the print job
+     * @return true if the print job was queued
+     */
+    boolean remove(E element) {
+        Iterator<PackageQueue<E>> packageQueueIterator = packageQueues.values().iterator();
+        while (packageQueueIterator.hasNext()) {
+            PackageQueue<E> packageQueue = packageQueueIterator.next();
+            Iterator<Entry<E>> iterator = packageQueue.entries.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().element == element) {
+                    iterator.remove();
+                    Turn turn = packageQueue.turns.removeLast();
+                    packageQueue.lastFinishTag = turn.startTag;
+                    if (packageQueue.isIdle(virtualTime)) {
+                        packageQueueIterator.remove();
+                    }
+                    size--;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of packages that the queue keeps track of
+     */
+    int getPackageCount() {
+        return packageQueues.size();
+    }
+
+    /**
+     * Removes all print jobs, in the order in which they would have been printed
+     *
+     * @return the removed print jobs
+     */
+    List<E> clear() {
+        List<E> elements = new ArrayList<>(size);
+        E element;
+        while ((element = poll()) != null) {
+            elements.add(element);
+        }
+        return elements;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static class PackageQueue<E> {
+        private final ArrayDeque<Entry<E>> entries = new ArrayDeque<>();
+        private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+        private double lastFinishTag;
+
+        /**
+         * A package without jobs is dropped once the virtual time has caught up with the finish time of its last turn, from when it
+         * would start its next job at the virtual time as if it had never been queued
+         */
+        boolean isIdle(double virtualTime) {
+            return entries.isEmpty() && lastFinishTag <= virtualTime;
+        }
+
+        /**
+         * @return the job of the priority class that is to take the next turn of this package, or null if it has none
+         */
+        Entry<E> getNext(int priority) {
+            Entry<E> next = null;
+            for (Entry<E> entry : entries) {
+                if (entry.priority == priority && (next == null || entry.isBefore(next))) {
+                    next = entry;
+                }
+            }
+            return next;
+        }
+    }
+
+    private static class Turn {
+        private final double startTag;
+        private final double finishTag;
+        private final long sequence;
+
+        Turn(double startTag, double finishTag, long sequence) {
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+
+        boolean isBefore(Turn other) {
+            if (finishTag != other.finishTag) {
+                return finishTag < other.finishTag;
+            }
+            return sequence < other.sequence;
+        }
+    }
+
+    private static class Entry<E> {
+        private final E element;
+        private final int priority;
+        private final boolean hasDeadline;
+        private final long deadlineNanos;
+        private final long sequence;
+
+        Entry(E element, int priority, boolean hasDeadline, long deadlineNanos, long sequence) {
+            this.element = element;
+            this.priority = priority;
+            this.hasDeadline = hasDeadline;
+            this.deadlineNanos = deadlineNanos;
+            this.sequence = sequence;
+        }
+
+        boolean isBefore(Entry<E> other) {
+            if (hasDeadline != other.hasDeadline) {
+                return hasDeadline;
+            }
+            if (hasDeadline && deadlineNanos != other.deadlineNanos) {
+                // compared by difference, as nanoTime may overflow
+                return deadlineNanos - other.deadlineNanos < 0;
+            }
+            return sequence < other.sequence;
+        }
+    }
+}
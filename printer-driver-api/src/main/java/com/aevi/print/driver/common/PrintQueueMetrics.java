@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue metrics of the print jobs of a {@link PrinterDriverBase}, per calling package
+ */
+public class PrintQueueMetrics {
+
+    private final ConcurrentHashMap<String, PackageMetrics> packageMetrics = new ConcurrentHashMap<>();
+
+    void onPrintJobQueued(String callingPackageName) {
+        getOrCreate(callingPackageName).queueDepth.incrementAndGet();
+    }
+
+    void onPrintJobRemoved(String callingPackageName) {
+        getOrCreate(callingPackageName).queueDepth.decrementAndGet();
+    }
+
+    void onPrintJobStarted(String callingPackageName, boolean wasQueued, long waitNanos) {
+        PackageMetrics metrics = getOrCreate(callingPackageName);
+        if (wasQueued) {
+            metrics.queueDepth.decrementAndGet();
+        }
+        metrics.printJobsStarted.incrementAndGet();
+        metrics.waitNanos.addAndGet(waitNanos);
+        long max;
+        do {
+            max = metrics.maxWaitNanos.get();
+        } while (waitNanos > max && !metrics.maxWaitNanos.compareAndSet(max, waitNanos));
+    }
+
+    void onDeadlineMissed(String callingPackageName, long lateByNanos) {
+        PackageMetrics metrics = getOrCreate(callingPackageName);
+        metrics.deadlinesMissed.incrementAndGet();
+        metrics.deadlineMissedByNanos.addAndGet(lateByNanos);
+    }
+
+    private PackageMetrics getOrCreate(String callingPackageName) {
+        PackageMetrics metrics = packageMetrics.get(callingPackageName);
+        if (metrics == null) {
+            PackageMetrics created = new PackageMetrics();
+            metrics = packageMetrics.putIfAbsent(callingPackageName, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @param callingPackageName the package of the client
+     * @return the metrics of the package, or null if the package has not submitted any print job
+     */
+    public PackageMetrics getPackageMetrics(String callingPackageName) {
+        return packageMetrics.get(callingPackageName);
+    }
+
+    /**
+     * @return the metrics of every package that has submitted a print job
+     */
+    public Map<String, PackageMetrics> getAllPackageMetrics() {
+        return Collections.unmodifiableMap(packageMetrics);
+    }
+
+    @Override
+    public String toString() {
+        return "PrintQueueMetrics" + packageMetrics;
+    }
+
+    /**
+     * The queue metrics of a single calling package
+     */
+    public static class PackageMetrics {
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicLong printJobsStarted = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong deadlinesMissed = new AtomicLong();
+        private final AtomicLong deadlineMissedByNanos = new AtomicLong();
+
+        /**
+         * @return the number of print jobs of the package currently waiting for the printer
+         */
+        public int getQueueDepth() {
+            return queueDepth.get();
+        }
+
+        /**
+         * @return the number of print jobs of the package that have been given to the printer
+         */
+        public long getPrintJobsStarted() {
+            return printJobsStarted.get();
+        }
+
+        /**
+         * @return the total time print jobs of the package spent waiting for the printer
+         */
+        public long getWaitNanos() {
+            return waitNanos.get();
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos.get();
+        }
+
+        public long getAverageWaitNanos() {
+            long started = printJobsStarted.get();
+            return started == 0 ? 0 : waitNanos.get() / started;
+        }
+
+        /**
+         * @return the number of print jobs of the package that completed after their deadline
+         */
+        public long getDeadlinesMissed() {
+            return deadlinesMissed.get();
+        }
+
+        /**
+         * @return the total time by which print jobs of the package missed their deadline
+         */
+        public long getDeadlineMissedByNanos() {
+            return deadlineMissedByNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return "PackageMetrics{" +
+                    "queueDepth=" + getQueueDepth() +
+                    ", printJobsStarted=" + getPrintJobsStarted() +
+                    ", waitNanos=" + getWaitNanos() +
+                    ", maxWaitNanos=" + getMaxWaitNanos() +
+                    ", deadlinesMissed=" + getDeadlinesMissed() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.model.PrintPayload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A receipt layout that is sent to the driver once and then printed many times with different values in its slots, such as the
+ * line items and the total. Slots are <code>{{name}}</code> placeholders in the text of the rows of the payload of the template.
+ *
+ * Drivers that encode payloads themselves can encode the rows without slots once, see {@link #hasSlots}, and only encode the rows
+ * with slots for each print. Other drivers print the payload from {@link #expand}.
+ *
+ * This class is immutable and so thread safe.
+ */
+public class PrintTemplate {
+
+    private static final String SLOT_START = "{{";
+    private static final String SLOT_END = "}}";
+
+    private final String templateId;
+    private final PrintPayload printPayload;
+    private final Set<String> slotNames = new LinkedHashSet<>();
+    // the JSON of the payload split at the slots, with the literal parts at even indexes and the slot names at odd indexes
+    private final List<String> jsonParts = new ArrayList<>();
+
+    /**
+     * @param templateId   the id of the template
+     * @param printPayload the payload of the template, which must not be changed afterwards
+     */
+    public PrintTemplate(@NonNull String templateId, @NonNull PrintPayload printPayload) {
+        this.templateId = templateId;
+        this.printPayload = printPayload;
+        String json = printPayload.toJson();
+        int literalStart = 0;
+        int slotStart = json.indexOf(SLOT_START);
+        while (slotStart >= 0) {
+            int slotEnd = json.indexOf(SLOT_END, slotStart + SLOT_START.length());
+            if (slotEnd < 0) {
+                break;
+            }
+            String name = json.substring(slotStart + SLOT_START.length(), slotEnd);
+            jsonParts.add(json.substring(literalStart, slotStart));
+            jsonParts.add(name);
+            slotNames.add(name);
+            literalStart = slotEnd + SLOT_END.length();
+            slotStart = json.indexOf(SLOT_START, literalStart);
+        }
+        jsonParts.add(json.substring(literalStart));
+    }
+
+    @NonNull
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    /**
+     * @return the payload of the template, with the placeholders of its slots
+     */
+    @NonNull
+    public PrintPayload getPrintPayload() {
+        return printPayload;
+    }
+
+    @NonNull
+    public Set<String> getSlotNames() {
+        return Collections.unmodifiableSet(slotNames);
+    }
+
+    /**
+     * @param slotValues the values of the slots, slots without a value are left empty
+     * @return a payload with the values in place of the slots
+     */
+    @NonNull
+    public PrintPayload expand(@NonNull Map<String, String> slotValues) {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < jsonParts.size(); i++) {
+            if (i % 2 == 0) {
+                json.append(jsonParts.get(i));
+            } else {
+                appendJsonEscaped(json, slotValues.get(jsonParts.get(i)));
+            }
+        }
+        return PrintPayload.fromJson(json.toString());
+    }
+
+    /**
+     * @param text the text of a row
+     * @return true if the text has slots
+     */
+    public static boolean hasSlots(String text) {
+        if (text == null) {
+            return false;
+        }
+        int slotStart = text.indexOf(SLOT_START);
+        return slotStart >= 0 && text.indexOf(SLOT_END, slotStart + SLOT_START.length()) >= 0;
+    }
+
+    /**
+     * @param text       the text of a row
+     * @param slotValues the values of the slots, slots without a value are left empty
+     * @return the text with the values in place of the slots
+     */
+    @NonNull
+    public static String fill(@NonNull String text, @NonNull Map<String, String> slotValues) {
+        StringBuilder filled = new StringBuilder(text.length() + 32);
+        int literalStart = 0;
+        int slotStart = text.indexOf(SLOT_START);
+        while (slotStart >= 0) {
+            int slotEnd = text.indexOf(SLOT_END, slotStart + SLOT_START.length());
+            if (slotEnd < 0) {
+                break;
+            }
+            filled.append(text, literalStart, slotStart);
+            String value = slotValues.get(text.substring(slotStart + SLOT_START.length(), slotEnd));
+            if (value != null) {
+                filled.append(value);
+            }
+            literalStart = slotEnd + SLOT_END.length();
+            slotStart = text.indexOf(SLOT_START, literalStart);
+        }
+        return filled.append(text, literalStart, text.length()).toString();
+    }
+
+    private static void appendJsonEscaped(StringBuilder json, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import com.aevi.print.model.PrinterSettings;
+
+/**
+ * Checks whether a print job laid out for one printer can be printed on another without losing content
+ */
+public final class PrinterCompatibility {
+
+    private PrinterCompatibility() {
+    }
+
+    /**
+     * A backup printer is compatible if it can print at least as wide as the original printer and supports every code page the
+     * original printer supports. If the settings of either printer are unknown then the printers are assumed to be compatible.
+     *
+     * @param original the settings of the printer the print job was sent to
+     * @param backup   the settings of the printer that would print the job instead
+     * @return true if the backup printer can print the job
+     */
+    public static boolean isCompatible(PrinterSettings original, PrinterSettings backup) {
+        if (original == null || backup == null) {
+            return true;
+        }
+        if (backup.getPrintableWidth() < original.getPrintableWidth()) {
+            return false;
+        }
+        if (original.doesSupportCodepages() && original.getCodepages() != null) {
+            if (!backup.doesSupportCodepages()) {
+                return false;
+            }
+            for (int codepage : original.getCodepages()) {
+                if (!contains(backup.getCodepages(), codepage)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] codepages, int codepage) {
+        if (codepages != null) {
+            for (int supported : codepages) {
+                if (supported == codepage) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
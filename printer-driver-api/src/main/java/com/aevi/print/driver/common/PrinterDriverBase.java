@@ -13,39 +13,98 @@
  */
 package com.aevi.print.driver.common;
 
+import android.content.Context;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
 import com.aevi.print.driver.PrinterStatusStream;
 import com.aevi.print.model.BasePrinterInfo;
 import com.aevi.print.model.PrintJob;
+import com.aevi.print.model.PrintJobMessages;
 import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
 import com.aevi.print.model.PrinterMessages;
+import com.aevi.print.model.SharedRegion;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
-
-import static com.aevi.print.model.PrintJob.State.IN_PROGRESS;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
 
 /**
  * This class provides a common framework to simplify the implementation of a printer printer driver.
  * It works with a manufactures POS receipt printer SDK that either uses blocking API calls
  * or non-blocking API and callbacks.
+ * For SDKs with blocking API calls consider {@link BlockingPrinterDriverBase}, which makes those calls on a dedicated thread,
+ * and for non-blocking SDKs {@link ReactivePrinterDriverBase}, which makes the callbacks for you.
  * All methods called in this class are thread safe and so can be called from different threads.
  *
+ * Only one print job is printed at a time. By default a print job is rejected as busy whilst another one is printing, but a driver can
+ * allow print jobs to wait (see {@link #getMaxQueuedPrintJobs}). Waiting print jobs are taken by priority class, up to the highest
+ * class each package may use (see {@link #getMaxPriority}), and then in a weighted fair order across the packages of the calling
+ * clients (see {@link #getPackageWeight}). The deadlines of a package only decide which of its own print jobs takes its turn.
+ * Printer actions are interactive and so are carried out before any waiting print job, as soon as the current task has completed.
+ *
+ * If a {@link PrintJobJournal} has been set, every accepted print job is written to it before it is reported as in progress, so that
+ * the print jobs that had not completed when the driver service was killed are printed again once it has restarted.
+ * If a {@link PayloadSpool} has been set, the payloads of waiting print jobs are kept within its memory budget.
+ * Print requests for a receipt template (see {@link PrintRequest#setTemplateId}) are printed by {@link #executeTemplatePrintTask}.
+ * The copies of a print request with several copies (see {@link PrintRequest#setCopies}) are printed one after the other by
+ * {@link #executePrintCopyTask}, on the same connection, and each printed copy is reported on the stream of the print job.
+ *
  * @param <T> The class that has been derived from {@link BasePrinterInfo}
  */
 public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
     private static final String TAG = PrinterDriverBase.class.getSimpleName();
 
+    public static final int DEFAULT_RECENT_PRINT_JOB_CAPACITY = 32;
+    public static final int DEFAULT_MAX_QUEUED_PRINT_JOBS = 0;
+    public static final int DEFAULT_PACKAGE_WEIGHT = 1;
+    public static final PrintRequest.Priority DEFAULT_MAX_PRIORITY = PrintRequest.Priority.CUSTOMER_RECEIPT;
+    public static final String UNKNOWN_PACKAGE = "unknown";
+    public static final int DEFAULT_MAX_PRINT_TEMPLATES = 16;
+    public static final long DEFAULT_COPY_PAUSE_MS = 3000;
+
     private final AtomicBoolean printerInUse = new AtomicBoolean();
     private final AtomicBoolean connectedToPrinter = new AtomicBoolean();
     private final AtomicReference<PrintJobTask> printJobTask = new AtomicReference<>();
     private final AtomicReference<String> printActionTask = new AtomicReference<>();
+    // an action may run between the copies of a print job, and its completion must not complete the print job
+    private final AtomicBoolean printActionInFlight = new AtomicBoolean();
+    private final AtomicInteger pendingDispatches = new AtomicInteger();
+    private final PrintJobQueue<PrintJobTask> printJobQueue = new PrintJobQueue<>();
+    private final PrintQueueMetrics printQueueMetrics = new PrintQueueMetrics();
+    private final PrinterHealth printerHealth = new PrinterHealth();
+    private volatile long printPayloadStartedNanos;
+    private volatile PrintJobJournal printJobJournal;
+    private volatile PayloadSpool payloadSpool;
+    private final Map<String, Observable<PrintJob>> recentPrintJobs = new LinkedHashMap<String, Observable<PrintJob>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Observable<PrintJob>> eldest) {
+            return size() > getRecentPrintJobCapacity();
+        }
+    };
+
+    private final Map<String, PrintTemplate> printTemplates = new LinkedHashMap<String, PrintTemplate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PrintTemplate> eldest) {
+            return size() > getMaxPrintTemplates();
+        }
+    };
 
     private final @NonNull BasePrinterInfo printerInfo;
 
@@ -92,6 +151,47 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
      */
     protected abstract void executePrintPayloadTask(@NonNull PrintPayload printPayload);
 
+    /**
+     * This method is called instead of {@link #executePrintPayloadTask} for a print request that fills the slots of a receipt
+     * template (see {@link PrintRequest#setTemplateId}). It is called and must complete in the same way.
+     *
+     * By default the template is expanded into a payload and printed by {@link #executePrintPayloadTask}. Drivers that encode
+     * payloads themselves can override this to encode the rows without slots of each template once and reuse them.
+     *
+     * @param printTemplate the template to print
+     * @param slotValues    the values of the slots of the template
+     */
+    protected void executeTemplatePrintTask(@NonNull PrintTemplate printTemplate, @NonNull Map<String, String> slotValues) {
+        executePrintPayloadTask(printTemplate.expand(slotValues));
+    }
+
+    /**
+     * This method is called instead of {@link #executePrintPayloadTask} for each copy of a print request with several copies
+     * (see {@link PrintRequest#setCopies}). It is called and must complete in the same way. The next copy is only started once
+     * this one has completed, after the pause between copies if the request asks for one.
+     *
+     * By default each copy is printed by {@link #executePrintPayloadTask}, and so is encoded again and separated from the next copy
+     * as any other payload is. Drivers that encode payloads themselves can override this to encode the payload for the first copy
+     * only and send the same bytes for every copy, cutting between copies only if asked to.
+     *
+     * @param printPayload   the payload, which is the same for every copy
+     * @param copyIndex      the index of the copy, from 0
+     * @param copyCount      the number of copies
+     * @param copySeparation what the printer does after this copy, if it is not the last one
+     */
+    protected void executePrintCopyTask(@NonNull PrintPayload printPayload, int copyIndex, int copyCount,
+                                        @NonNull PrintRequest.CopySeparation copySeparation) {
+        executePrintPayloadTask(printPayload);
+    }
+
+    /**
+     * @return the time in milliseconds to wait between copies that are separated by a pause, see
+     * {@link PrintRequest.CopySeparation#PAUSE}
+     */
+    protected long getCopyPauseMs() {
+        return DEFAULT_COPY_PAUSE_MS;
+    }
+
     /**
      * This method is called is called after the printer connection has been made and when there is
      * a printer action to be carried by the printer.
@@ -137,45 +237,157 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
         printActionTask.set(null);
     }
 
+    /**
+     * Requests that the next task is started. Every request results in exactly one dispatch.
+     *
+     * Drivers often call back (e.g. {@link #onTaskCompletedSuccessfully}) from within the task that was dispatched, which would
+     * otherwise start the next task further down the same call stack. Instead, only the first caller runs the dispatch loop and
+     * any request made while it is running is counted and then served by the same loop, so any number of back-to-back tasks runs
+     * in constant stack space.
+     */
     private void executePrinterTasks() {
+        if (pendingDispatches.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            try {
+                dispatchNextPrinterTask();
+            } catch (RuntimeException e) {
+                // must not escape the loop, otherwise no further task would ever be dispatched
+                Log.e(TAG, "Printer task failed with an exception", e);
+                onDriverError(PrinterMessages.UNRECOVERABLE_ERROR, e.getMessage());
+            }
+        } while (pendingDispatches.decrementAndGet() != 0);
+    }
+
+    private void dispatchNextPrinterTask() {
+        if (!connectedToPrinter.get()) {
+            Log.w(TAG, "Ignoring tasks when not connected to printer" + printerInfo.getPrinterId());
+            return;
+        }
+
+        // actions are interactive, so are carried out before any print job that is waiting
+        String printActionJob = this.printActionTask.getAndSet(null);
+        if (printActionJob != null) {
+            Log.d(TAG, "starting print action task: " + printActionJob);
+            printActionInFlight.set(true);
+            executePrintActionTask(printActionJob);
+            return;
+        }
 
-        if (connectedToPrinter.get()) {
-            PrintPayload printPayload = getAndClearPrintPayload();
-            if (printPayload != null) {
-                Log.d(TAG, "starting print payload task:  " + printPayload.getPrinterId());
-                executePrintPayloadTask(printPayload);
+        PrintJobTask currentPrintJobTask = this.printJobTask.get();
+        if (currentPrintJobTask != null && currentPrintJobTask.hasCopiesToPrint()) {
+            if (printActionInFlight.get()) {
+                // the action was started between copies and dispatches the next copy when it completes
+                return;
+            }
+            if (currentPrintJobTask.getNextCopyNanos() - System.nanoTime() > 0) {
+                // still pausing between copies, the next copy is dispatched once the pause is over
                 return;
             }
+            startNextPrintCopy(currentPrintJobTask);
+            return;
+        }
 
-            String printActionJob = this.printActionTask.getAndSet(null);
-            if (printActionJob != null) {
-                Log.d(TAG, "starting print action task: " + printActionJob);
-                executePrintActionTask(printActionJob);
+        PrintPayload printPayload;
+        try {
+            printPayload = getAndClearPrintPayload();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read spooled payload for: " + printerInfo.getPrinterId(), e);
+            onPrintingFailed(PrinterMessages.ERROR_PRINT_FAILED, "Failed to read spooled payload: " + e.getMessage());
+            return;
+        }
+        if (printPayload != null) {
+            PrintJobTask printJobTask = this.printJobTask.get();
+            PrintRequest printRequest = printJobTask != null ? printJobTask.getPrintRequest() : null;
+            if (printRequest != null && printRequest.isTemplateRequest()) {
+                startTemplatePrintTask(printJobTask, printPayload);
                 return;
             }
+            if (printRequest != null && printRequest.getCopies() > 1) {
+                startPrintCopies(printJobTask, printPayload);
+                return;
+            }
+            Log.d(TAG, "starting print payload task:  " + printPayload.getPrinterId());
+            printPayloadStartedNanos = System.nanoTime();
+            executePrintPayloadTask(printPayload);
+            return;
+        }
 
-            Log.d(TAG, "disconnecting from printer " + printerInfo.getPrinterId());
-            disconnectFromPrinter();
+        Log.d(TAG, "disconnecting from printer " + printerInfo.getPrinterId());
+        disconnectFromPrinter();
+    }
+
+    private void startTemplatePrintTask(PrintJobTask printJobTask, PrintPayload printPayload) {
+        PrintRequest printRequest = printJobTask.getPrintRequest();
+        String templateId = printRequest.getTemplateId();
+        PrintTemplate printTemplate;
+        if (printPayload.getRows().length > 0) {
+            // a request that carries rows (re)defines the template
+            printTemplate = new PrintTemplate(templateId, printPayload);
+            registerPrintTemplate(printRequest.getCallingPackageName(), printTemplate);
         } else {
-            Log.w(TAG, "Ignoring tasks when not connected to printer" + printerInfo.getPrinterId());
+            printTemplate = getPrintTemplate(printRequest.getCallingPackageName(), templateId);
         }
+        if (printTemplate == null) {
+            Log.w(TAG, "Unknown print template: " + templateId);
+            onPrintingFailed(PrinterMessages.ERROR_PRINT_FAILED, "Unknown print template: " + templateId);
+            return;
+        }
+        if (printRequest.getCopies() > 1) {
+            // every copy is the same, so the template is only expanded once
+            startPrintCopies(printJobTask, printTemplate.expand(printRequest.getSlotValues()));
+            return;
+        }
+        Log.d(TAG, "starting print template task: " + templateId);
+        printPayloadStartedNanos = System.nanoTime();
+        executeTemplatePrintTask(printTemplate, printRequest.getSlotValues());
     }
 
-    private PrintPayload getAndClearPrintPayload() {
-        PrintJobTask printJobTask = this.printJobTask.get();
-        if (printJobTask == null) {
-            return null;
-        } else {
-            return printJobTask.getAndClearPrintPayload();
+    private void startPrintCopies(PrintJobTask printJobTask, PrintPayload printPayload) {
+        printJobTask.setCopyPayload(printPayload);
+        printPayloadStartedNanos = System.nanoTime();
+        startNextPrintCopy(printJobTask);
+    }
+
+    private void startNextPrintCopy(PrintJobTask printJobTask) {
+        PrintRequest printRequest = printJobTask.getPrintRequest();
+        int copyIndex = printJobTask.startCopy();
+        Log.d(TAG, "starting print copy task: " + (copyIndex + 1) + " of " + printRequest.getCopies());
+        executePrintCopyTask(printJobTask.getCopyPayload(), copyIndex, printRequest.getCopies(), printRequest.getCopySeparation());
+    }
+
+    /**
+     * Reports the copy that has just been printed and, unless it was the last one, lets the next copy be dispatched
+     *
+     * @return true if there are more copies to print
+     */
+    private boolean onPrintCopyCompleted(PrintJobTask printJobTask) {
+        PrintRequest printRequest = printJobTask.getPrintRequest();
+        int copiesPrinted = printJobTask.onCopyPrinted();
+        printJobTask.getPrintJobEmitter().onNext(PrintJobMessages.copyPrinted(copiesPrinted, printRequest.getCopies()));
+        if (copiesPrinted >= printRequest.getCopies()) {
+            return false;
         }
+        if (printRequest.getCopySeparation() == PrintRequest.CopySeparation.PAUSE) {
+            long copyPauseMs = getCopyPauseMs();
+            printJobTask.setNextCopyNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(copyPauseMs));
+            printJobTask.setCopyPauseTimer(Completable.timer(copyPauseMs, TimeUnit.MILLISECONDS).subscribe(new Action() {
+                @Override
+                public void run() {
+                    executePrinterTasks();
+                }
+            }));
+        }
+        return true;
     }
 
-    private boolean hasPrintJobTaskCompleted() {
+    private PrintPayload getAndClearPrintPayload() throws IOException {
         PrintJobTask printJobTask = this.printJobTask.get();
         if (printJobTask == null) {
-            return true;
+            return null;
         } else {
-            return printJobTask.hasPrintJobTaskCompleted();
+            return printJobTask.getAndClearPrintPayload();
         }
     }
 
@@ -187,18 +399,161 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
      * @return An observable stream of PrintJob data which indicates the status of the printout
      */
     public Observable<PrintJob> print(@NonNull final PrintPayload printPayload) {
+        return print(new PrintRequest(printPayload));
+    }
+
+    /**
+     * It is intended that this method is only called from the {@link  com.aevi.print.driver.common.service.CommonPrinterDriverService} class.
+     * and so it should not be necessary to call this method directly.
+     *
+     * If a recent print request was submitted by the same client with the same idempotency key then the stream of that print job is
+     * returned instead and the payload is not printed again.
+     *
+     * If the print job fails before it is printed whilst its payload is spooled to disk, the payload is handed back to the print
+     * request still on disk. The caller should call {@link PrintRequest#restorePrintPayload()} before resubmitting the request, or
+     * {@link PrintRequest#releaseSpooledPrintPayload()} once it will not.
+     *
+     * @param printRequest The print request containing the payload to print
+     * @return An observable stream of PrintJob data which indicates the status of the printout
+     */
+    public Observable<PrintJob> print(@NonNull final PrintRequest printRequest) {
         Log.d(TAG, "Received print request from: " + printerInfo.getPrinterId());
+        return submitPrintJob(printRequest, null);
+    }
+
+    private Observable<PrintJob> submitPrintJob(@NonNull final PrintRequest printRequest, final PrintJobJournal.JournaledPrintJob journaledPrintJob) {
+        final String idempotencyKey = printRequest.getIdempotencyKey();
+        if (idempotencyKey == null) {
+            return createPrintJob(printRequest, journaledPrintJob);
+        }
 
+        // idempotency keys are chosen by each client, so a key only identifies a print job together with its package
+        final String recentPrintJobKey = printRequest.getCallingPackageName() + "/" + idempotencyKey;
+        synchronized (recentPrintJobs) {
+            Observable<PrintJob> printJob = recentPrintJobs.get(recentPrintJobKey);
+            if (printJob != null) {
+                Log.d(TAG, "Attaching to the print job already submitted with key: " + idempotencyKey);
+                return printJob;
+            }
+            // Shared by every submission with the same key, and only cancelled once every one of them has been disposed
+            printJob = createPrintJob(printRequest, journaledPrintJob)
+                    .doOnNext(new Consumer<PrintJob>() {
+                        @Override
+                        public void accept(PrintJob printJob) {
+                            if (PrintJobMessages.isFinalState(printJob)) {
+                                onRecentPrintJobFinished(recentPrintJobKey, printJob);
+                            }
+                        }
+                    })
+                    .doOnDispose(new Action() {
+                        @Override
+                        public void run() {
+                            // cancelled, so a retry must be able to submit it again
+                            forgetRecentPrintJob(recentPrintJobKey);
+                        }
+                    })
+                    .replay(1)
+                    .refCount();
+            recentPrintJobs.put(recentPrintJobKey, printJob);
+            return printJob;
+        }
+    }
+
+    /**
+     * Registers a receipt template that the driver ships with, so that print requests from any client can fill its slots without
+     * first sending its payload. A shared template with the same id is replaced.
+     *
+     * @param printTemplate the template
+     */
+    public void registerPrintTemplate(@NonNull PrintTemplate printTemplate) {
+        registerPrintTemplate(null, printTemplate);
+    }
+
+    /**
+     * Registers a receipt template of a client. Template ids are scoped to the calling package, so a client can only replace or
+     * print its own templates and those the driver ships with.
+     *
+     * @param callingPackageName the package of the client, or null for a template that every client can print
+     * @param printTemplate      the template
+     */
+    public void registerPrintTemplate(String callingPackageName, @NonNull PrintTemplate printTemplate) {
+        synchronized (printTemplates) {
+            printTemplates.put(getPrintTemplateKey(callingPackageName, printTemplate.getTemplateId()), printTemplate);
+        }
+    }
+
+    /**
+     * @param callingPackageName the package of the client, or null for the templates the driver ships with
+     * @param templateId         the id of the template
+     * @return the template of the client, or else the shared template, or null if neither has been registered or has since been
+     * dropped
+     */
+    public PrintTemplate getPrintTemplate(String callingPackageName, @NonNull String templateId) {
+        synchronized (printTemplates) {
+            PrintTemplate printTemplate = callingPackageName != null
+                    ? printTemplates.get(getPrintTemplateKey(callingPackageName, templateId)) : null;
+            return printTemplate != null ? printTemplate : printTemplates.get(getPrintTemplateKey(null, templateId));
+        }
+    }
+
+    private static String getPrintTemplateKey(String callingPackageName, String templateId) {
+        // package names can not be empty, so shared templates can not clash with the templates of a client
+        return (callingPackageName != null ? callingPackageName : "") + "/" + templateId;
+    }
+
+    /**
+     * @return the number of receipt templates that are kept, the least recently used templates are dropped beyond it
+     */
+    protected int getMaxPrintTemplates() {
+        return DEFAULT_MAX_PRINT_TEMPLATES;
+    }
+
+    /**
+     * @return the number of recently submitted print jobs that are remembered by their idempotency key
+     */
+    protected int getRecentPrintJobCapacity() {
+        return DEFAULT_RECENT_PRINT_JOB_CAPACITY;
+    }
+
+    /**
+     * A printed job is remembered by its final state alone, so that a retry is told it has been printed without holding on to the
+     * print job. Any other final state means the payload may not have been printed, so a retry must be able to submit it again.
+     */
+    private void onRecentPrintJobFinished(String recentPrintJobKey, PrintJob printJob) {
+        synchronized (recentPrintJobs) {
+            if (printJob.getPrintJobState() == PrintJob.State.PRINTED) {
+                recentPrintJobs.put(recentPrintJobKey, Observable.just(printJob));
+            } else {
+                recentPrintJobs.remove(recentPrintJobKey);
+            }
+        }
+    }
+
+    private void forgetRecentPrintJob(String recentPrintJobKey) {
+        synchronized (recentPrintJobs) {
+            recentPrintJobs.remove(recentPrintJobKey);
+        }
+    }
+
+    private Observable<PrintJob> createPrintJob(@NonNull final PrintRequest printRequest,
+                                                final PrintJobJournal.JournaledPrintJob journaledPrintJob) {
         return Observable.create(new ObservableOnSubscribe<PrintJob>() {
 
             @Override
             public void subscribe(@NonNull ObservableEmitter<PrintJob> emitter) throws Exception {
-                PrintJobTask printJobTask = new PrintJobTask(emitter, printPayload);
+                PrintJobTask printJobTask = new PrintJobTask(emitter, printRequest, journaledPrintJob != null);
+                if (journaledPrintJob != null) {
+                    printJobTask.setJournalId(journaledPrintJob.getJobId());
+                } else {
+                    // written before the job is accepted, outside of the queue lock as the journal may be synced to disk
+                    journalPrintJob(printJobTask);
+                }
 
-                if (PrinterDriverBase.this.printJobTask.compareAndSet(null, printJobTask)) {
-                    emitter.onNext(new PrintJob(IN_PROGRESS));
+                if (acceptPrintJob(printJobTask)) {
+                    spoolPrintPayload(printJobTask);
                     connectToPrinterIfRequired();
                 } else {
+                    forgetJournaledPrintJob(printJobTask);
                     emitter.onNext(new PrintJob(PrintJob.State.FAILED, PrinterMessages.ERROR_BUSY));
                     emitter.onComplete();
                 }
@@ -206,6 +561,271 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
         });
     }
 
+    /**
+     * Makes the print job the current one if the printer is free, otherwise queues it if there is room in the queue.
+     * The job is only reported as in progress once it has been accepted and before it can be started by another thread.
+     */
+    private boolean acceptPrintJob(final PrintJobTask printJobTask) {
+        String callingPackageName = printJobTask.getCallingPackageName();
+        synchronized (printJobQueue) {
+            if (printJobQueue.isEmpty() && this.printJobTask.compareAndSet(null, printJobTask)) {
+                printQueueMetrics.onPrintJobStarted(callingPackageName, false, 0);
+            } else if (printJobQueue.size() < getMaxQueuedPrintJobs() || printJobTask.isReplayed()) {
+                // a print job replayed from the journal was accepted before the restart, so it is never rejected
+                PrintRequest printRequest = printJobTask.getPrintRequest();
+                int priority = Math.max(printRequest.getPriority().ordinal(), getMaxPriority(callingPackageName).ordinal());
+                printJobQueue.offer(callingPackageName, getPackageWeight(callingPackageName), priority,
+                                    printRequest.hasDeadline(), printJobTask.getDeadlineNanos(), printJobTask);
+                printQueueMetrics.onPrintJobQueued(callingPackageName);
+                Log.d(TAG, "Queued print job from " + callingPackageName + ", " + printJobQueue.size() + " job(s) waiting");
+            } else {
+                return false;
+            }
+            ObservableEmitter<PrintJob> emitter = printJobTask.getPrintJobEmitter();
+            emitter.setCancellable(new Cancellable() {
+                @Override
+                public void cancel() {
+                    cancelPrintJob(printJobTask);
+                }
+            });
+            emitter.onNext(PrintJobMessages.IN_PROGRESS);
+            return true;
+        }
+    }
+
+    private void journalPrintJob(PrintJobTask printJobTask) {
+        PrintJobJournal printJobJournal = this.printJobJournal;
+        if (printJobJournal != null && !printJobTask.isJournaled()) {
+            try {
+                printJobTask.setJournalId(printJobJournal.append(printJobTask.getPrintRequest()));
+            } catch (IOException e) {
+                // the print job is still printed, it just will not survive a restart
+                Log.e(TAG, "Failed to write print job to the journal of: " + printerInfo.getPrinterId(), e);
+            }
+        }
+    }
+
+    /**
+     * Moves the payload of a waiting print job into the spool, outside of the queue lock as it may be written to disk.
+     * A print job that is printed at once is not spooled, as its payload would only be read straight back.
+     */
+    private void spoolPrintPayload(PrintJobTask printJobTask) {
+        PayloadSpool payloadSpool = this.payloadSpool;
+        if (payloadSpool != null && this.printJobTask.get() != printJobTask) {
+            try {
+                printJobTask.spoolPrintPayload(payloadSpool);
+            } catch (IOException e) {
+                // the payload simply stays in memory
+                Log.e(TAG, "Failed to spool payload for: " + printerInfo.getPrinterId(), e);
+            }
+        }
+    }
+
+    /**
+     * Sets the spool that keeps the payloads of waiting print jobs within a memory budget. The same spool can be set on every
+     * driver, so that the budget is shared by all printers.
+     *
+     * @param payloadSpool the spool
+     */
+    public void setPayloadSpool(@NonNull PayloadSpool payloadSpool) {
+        this.payloadSpool = payloadSpool;
+    }
+
+    /**
+     * @return the spool of the payloads of waiting print jobs, or null if payloads are always kept in memory
+     */
+    public PayloadSpool getPayloadSpool() {
+        return payloadSpool;
+    }
+
+    private void forgetJournaledPrintJob(PrintJobTask printJobTask) {
+        PrintJobJournal printJobJournal = this.printJobJournal;
+        if (printJobJournal != null && printJobTask.isJournaled()) {
+            try {
+                printJobJournal.complete(printJobTask.getJournalId());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to complete print job in the journal of: " + printerInfo.getPrinterId(), e);
+            }
+        }
+    }
+
+    /**
+     * Sets the journal that accepted print jobs are written to and prints the print jobs recovered from it,
+     * i.e. those that had not completed when the driver service was last stopped.
+     * Recovered print jobs are printed in the order they were originally accepted and are not rejected if the queue is full.
+     * A client that resubmits one of them with the same idempotency key is attached to it instead of printing it twice.
+     *
+     * @param printJobJournal the journal of this printer
+     */
+    public void setPrintJobJournal(@NonNull PrintJobJournal printJobJournal) {
+        this.printJobJournal = printJobJournal;
+        for (PrintJobJournal.JournaledPrintJob journaledPrintJob : printJobJournal.takeRecoveredPrintJobs()) {
+            Log.i(TAG, "Replaying print job from the journal of: " + printerInfo.getPrinterId());
+            submitPrintJob(journaledPrintJob.getPrintRequest(), journaledPrintJob).subscribe(new Consumer<PrintJob>() {
+                @Override
+                public void accept(PrintJob printJob) {
+                    if (printJob.getPrintJobState() != PrintJob.State.IN_PROGRESS) {
+                        Log.i(TAG, "Replayed print job finished: " + printJob.getPrintJobState() + " " + printJob.getFailedReason());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the journal that accepted print jobs are written to, or null if print jobs are not journaled
+     */
+    public PrintJobJournal getPrintJobJournal() {
+        return printJobJournal;
+    }
+
+    /**
+     * Makes the next queued print job the current one, if there is no current print job
+     */
+    private void startNextQueuedPrintJob() {
+        synchronized (printJobQueue) {
+            if (printJobTask.get() != null) {
+                return;
+            }
+            PrintJobTask next = printJobQueue.poll();
+            if (next != null) {
+                printJobTask.set(next);
+                printQueueMetrics.onPrintJobStarted(next.getCallingPackageName(), true, System.nanoTime() - next.getSubmittedNanos());
+            }
+        }
+    }
+
+    private List<PrintJobTask> clearPrintJobQueue() {
+        synchronized (printJobQueue) {
+            List<PrintJobTask> printJobTasks = printJobQueue.clear();
+            for (PrintJobTask printJobTask : printJobTasks) {
+                printQueueMetrics.onPrintJobRemoved(printJobTask.getCallingPackageName());
+            }
+            return printJobTasks;
+        }
+    }
+
+    /**
+     * @return the number of print jobs that may wait for the printer whilst another print job is printing.
+     * If the queue is full then further print jobs are rejected with {@link PrinterMessages#ERROR_BUSY}.
+     */
+    protected int getMaxQueuedPrintJobs() {
+        return DEFAULT_MAX_QUEUED_PRINT_JOBS;
+    }
+
+    /**
+     * Waiting print jobs are taken by priority class (see {@link PrintRequest#setPriority}) and otherwise in a weighted fair order
+     * across the packages of the calling clients, so that a client with weight 2 gets twice the share of the printer of a client with
+     * weight 1. The deadlines of a client (see {@link PrintRequest#setDeadlineMs}) only decide which of its print jobs takes its turn.
+     *
+     * @param callingPackageName the package of the client, or {@link #UNKNOWN_PACKAGE}
+     * @return the weight of the client, at least 1
+     */
+    protected int getPackageWeight(@NonNull String callingPackageName) {
+        return DEFAULT_PACKAGE_WEIGHT;
+    }
+
+    /**
+     * Caps the priority class of the waiting print jobs of a client, so that a client cannot take the printer from every other client
+     * by claiming a higher priority for all of its print jobs. A print job of a higher class is queued as this class instead.
+     *
+     * @param callingPackageName the package of the client, or {@link #UNKNOWN_PACKAGE}
+     * @return the highest priority class the client may use, by default {@link #DEFAULT_MAX_PRIORITY}
+     */
+    @NonNull
+    protected PrintRequest.Priority getMaxPriority(@NonNull String callingPackageName) {
+        return DEFAULT_MAX_PRIORITY;
+    }
+
+    /**
+     * @return the queue depth and wait time of the print jobs of each calling package
+     */
+    @NonNull
+    public PrintQueueMetrics getPrintQueueMetrics() {
+        return printQueueMetrics;
+    }
+
+    /**
+     * @return the health of the printer, as tracked from the outcome of its print jobs
+     */
+    @NonNull
+    public PrinterHealth getPrinterHealth() {
+        return printerHealth;
+    }
+
+    /**
+     * @return true if the printer should be given print jobs, see {@link PrinterHealth#isHealthy()}
+     */
+    public boolean isHealthy() {
+        return printerHealth.isHealthy();
+    }
+
+    /**
+     * @return the number of print jobs that are printing or waiting to be printed
+     */
+    public int getPrintJobCount() {
+        synchronized (printJobQueue) {
+            return (printJobTask.get() != null ? 1 : 0) + printJobQueue.size();
+        }
+    }
+
+    /**
+     * @return an estimate of the time a new print job would take to be printed, from the jobs already accepted and the average
+     * time taken to print a payload
+     */
+    public long getExpectedCompletionNanos() {
+        return (getPrintJobCount() + 1) * printerHealth.getAveragePrintNanos();
+    }
+
+    /**
+     * Called when the client disposes of a print job, or disconnects, after the job has been accepted.
+     * This is also called once the job has completed, in which case there is nothing left to cancel.
+     */
+    private void cancelPrintJob(PrintJobTask printJobTask) {
+        synchronized (printJobQueue) {
+            if (printJobQueue.remove(printJobTask)) {
+                printQueueMetrics.onPrintJobRemoved(printJobTask.getCallingPackageName());
+                Log.d(TAG, "Removed cancelled print job from the queue of: " + printerInfo.getPrinterId());
+                printJobTask.releasePrintPayload();
+                forgetJournaledPrintJob(printJobTask);
+                return;
+            }
+        }
+        if (this.printJobTask.get() != printJobTask) {
+            return;
+        }
+        if (printJobTask.releasePrintPayload()) {
+            // not yet started, so the payload will now never reach the driver
+            if (this.printJobTask.compareAndSet(printJobTask, null)) {
+                Log.d(TAG, "Removed cancelled print job before printing on: " + printerInfo.getPrinterId());
+                forgetJournaledPrintJob(printJobTask);
+                startNextQueuedPrintJob();
+            }
+        } else if (this.printJobTask.compareAndSet(printJobTask, null)) {
+            Log.d(TAG, "Cancelled print job whilst printing on: " + printerInfo.getPrinterId());
+            boolean pausingBetweenCopies = printJobTask.cancelCopyPause();
+            forgetJournaledPrintJob(printJobTask);
+            startNextQueuedPrintJob();
+            onPrintJobCancelled();
+            if (pausingBetweenCopies && !printActionInFlight.get()) {
+                // no task is running that would hand the printer on when it completes
+                executePrinterTasks();
+            }
+        }
+    }
+
+    /**
+     * This method is called when the client cancels the print job that is currently being printed by {@link #executePrintPayloadTask}.
+     * The print job is removed at once so that the next print job can be accepted, but the printer is only given the next task
+     * when the driver calls back as usual (e.g. {@link #onTaskCompletedSuccessfully} or {@link #onPrintingFailed}).
+     *
+     * Override this method to abort the printout, if the printer SDK allows it, and then call {@link #onPrintTaskAborted} instead.
+     * It may be called from any thread.
+     */
+    protected void onPrintJobCancelled() {
+
+    }
+
     /**
      * It is intended that this method is only called from the {@link  com.aevi.print.driver.common.service.CommonPrinterActionService} class.
      * and so it should not be necessary to call this method directly.
@@ -232,10 +852,31 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
      * If there is error then call {@link #onDriverError} {@link #onPrintingFailed} or {@link #onActionFailed} instead.
      */
     public void onTaskCompletedSuccessfully() {
+        if (printActionInFlight.getAndSet(false)) {
+            // the print job, if any, is still between copies and is only completed by its own tasks
+            Log.d(TAG, "Action task completed successfully for printer : " + printerInfo.getPrinterId());
+            executePrinterTasks();
+            return;
+        }
         Log.d(TAG, "Printing task completed successfully for printer : " + printerInfo.getPrinterId());
-        if (hasPrintJobTaskCompleted()) {
-            completePrintJob(new PrintJob(PrintJob.State.PRINTED));
+        PrintJobTask printJobTask = this.printJobTask.get();
+        if (printJobTask != null && printJobTask.isPrintingCopy() && onPrintCopyCompleted(printJobTask)) {
+            executePrinterTasks();
+            return;
         }
+        if (completePrintingPrintJob(PrintJobMessages.PRINTED)) {
+            printerHealth.onPrintSucceeded(System.nanoTime() - printPayloadStartedNanos);
+        }
+        executePrinterTasks();
+    }
+
+    /**
+     * This method must be called instead of any other callback when the task of a cancelled print job has been aborted
+     * (see {@link #onPrintJobCancelled}). The printer is given the next task, and the printer health is not affected because
+     * the printer did not fail.
+     */
+    public void onPrintTaskAborted() {
+        Log.d(TAG, "Print task aborted for printer : " + printerInfo.getPrinterId());
         executePrinterTasks();
     }
 
@@ -249,12 +890,27 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
      */
     public void onDriverError(@NonNull String failedReason, String diagnosticMessage) {
         Log.w(TAG, "Printer driver error : " + failedReason + " - " + diagnosticMessage);
-        if (!completePrintJob(new PrintJob(PrintJob.State.FAILED, failedReason, diagnosticMessage))) {
+        printerHealth.onFailure(failedReason);
+        List<PrintJobTask> queuedPrintJobTasks;
+        PrintJobTask failedPrintJobTask;
+        // the printer is released together with its print jobs, so that any print job accepted afterwards connects again
+        synchronized (printJobQueue) {
+            queuedPrintJobTasks = clearPrintJobQueue();
+            failedPrintJobTask = printJobTask.get();
+            clearAllDriverTasks();
+            printActionInFlight.set(false);
+            connectedToPrinter.set(false);
+            printerInUse.set(false);
+        }
+        PrintJob failedPrintJob = new PrintJob(PrintJob.State.FAILED, failedReason, diagnosticMessage);
+        for (PrintJobTask queuedPrintJobTask : queuedPrintJobTasks) {
+            finishPrintJob(queuedPrintJobTask, failedPrintJob);
+        }
+        if (failedPrintJobTask != null) {
+            finishPrintJob(failedPrintJobTask, failedPrintJob);
+        } else {
             emitPrinterStatus(failedReason);
         }
-        clearAllDriverTasks();
-        connectedToPrinter.set(false);
-        printerInUse.set(false);
     }
 
     /**
@@ -267,7 +923,8 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
      */
     public void onPrintingFailed(@NonNull String failedReason, String diagnosticMessage) {
         Log.w(TAG, "Printing failed : " + failedReason + " - " + diagnosticMessage);
-        completePrintJob(new PrintJob(PrintJob.State.FAILED, failedReason, diagnosticMessage));
+        printerHealth.onFailure(failedReason);
+        completePrintingPrintJob(new PrintJob(PrintJob.State.FAILED, failedReason, diagnosticMessage));
         executePrinterTasks();
     }
 
@@ -280,22 +937,73 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
      */
     public void onActionFailed(@NonNull String failedReason, String diagnosticMessage) {
         Log.d(TAG, "Print action failed : " + failedReason + " - " + diagnosticMessage);
+        printActionInFlight.set(false);
         emitPrinterStatus(failedReason);
         executePrinterTasks();
     }
 
-    private boolean completePrintJob(PrintJob printJob) {
-        PrintJobTask printJobTask = this.printJobTask.getAndSet(null);
-        if (printJobTask != null) {
-            ObservableEmitter<PrintJob> emitter = printJobTask.getPrintJobEmitter();
-            emitter.onNext(printJob);
-            emitter.onComplete();
+    /**
+     * Completes the print job only if it is the one being printed. If that job has been cancelled, a job that
+     * has been accepted since is still waiting for its payload to be printed and so must not be completed yet.
+     */
+    private boolean completePrintingPrintJob(PrintJob printJob) {
+        PrintJobTask printJobTask = this.printJobTask.get();
+        if (printJobTask != null && printJobTask.hasPrintJobTaskCompleted() && this.printJobTask.compareAndSet(printJobTask, null)) {
+            finishPrintJob(printJobTask, printJob);
+            startNextQueuedPrintJob();
             return true;
         } else {
             return false;
         }
     }
 
+    private void finishPrintJob(PrintJobTask printJobTask, PrintJob printJob) {
+        // the client must hear the outcome of its print job whatever goes wrong with the bookkeeping, as it would otherwise hang
+        try {
+            PrintRequest printRequest = printJobTask.getPrintRequest();
+            if (printRequest.hasDeadline()) {
+                long lateByNanos = System.nanoTime() - printJobTask.getDeadlineNanos();
+                if (lateByNanos > 0) {
+                    Log.w(TAG, "Print job from " + printJobTask.getCallingPackageName() + " missed its deadline by "
+                            + TimeUnit.NANOSECONDS.toMillis(lateByNanos) + "ms");
+                    printQueueMetrics.onDeadlineMissed(printJobTask.getCallingPackageName(), lateByNanos);
+                }
+            }
+            printJobTask.cancelCopyPause();
+            forgetJournaledPrintJob(printJobTask);
+            // a print job that fails before it is printed may be resubmitted elsewhere, e.g. to a backup printer
+            printJobTask.handBackPrintPayload();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to clean up after print job", e);
+        } finally {
+            ObservableEmitter<PrintJob> emitter = printJobTask.getPrintJobEmitter();
+            emitter.onNext(printJob);
+            emitter.onComplete();
+        }
+    }
+
+    /**
+     * Maps a large image or blob that the client has passed out-of-band with the print job currently being printed.
+     * The returned buffer reads the shared data in place, without copying it onto the heap.
+     * This method is intended to be called from {@link #executePrintPayloadTask}.
+     *
+     * Only regions served by a content provider of the client that sent the print job are mapped.
+     *
+     * @param context  the context of the driver, used to open the content uri of the region
+     * @param regionId the id of the shared region as referenced by the payload
+     * @return a read-only buffer over the shared region, or null if the current print job has no region with this id
+     * @throws IOException if the shared region cannot be mapped
+     */
+    protected ByteBuffer mapSharedRegion(@NonNull Context context, @NonNull String regionId) throws IOException {
+        PrintJobTask printJobTask = this.printJobTask.get();
+        if (printJobTask == null) {
+            return null;
+        }
+        PrintRequest printRequest = printJobTask.getPrintRequest();
+        SharedRegion sharedRegion = printRequest.getSharedRegion(regionId);
+        return sharedRegion != null ? sharedRegion.map(context, printRequest.getCallingPackageName()) : null;
+    }
+
     /**
      * Sends a printer status message to any registered observers.
      *
@@ -306,14 +1014,53 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
     }
 
     private class PrintJobTask {
+        private static final long NOT_JOURNALED = -1;
+
         @NonNull
         private final ObservableEmitter<PrintJob> printJobEmitter;
 
-        private final AtomicReference<PrintPayload> printPayload = new AtomicReference<>();
+        @NonNull
+        private final PrintRequest printRequest;
+
+        private final AtomicReference<PayloadSpool.SpooledPayload> printPayload = new AtomicReference<>();
 
-        PrintJobTask(@NonNull ObservableEmitter<PrintJob> printJobEmitter, @NonNull PrintPayload printPayload) {
+        private final long submittedNanos = System.nanoTime();
+
+        private volatile long journalId = NOT_JOURNALED;
+
+        private final boolean replayed;
+
+        // the copies of a print request with several copies, which are only touched by the task dispatch and driver callbacks
+        private volatile PrintPayload copyPayload;
+        private volatile int copiesPrinted;
+        private volatile boolean printingCopy;
+        private volatile long nextCopyNanos;
+        private volatile Disposable copyPauseTimer;
+
+        PrintJobTask(@NonNull ObservableEmitter<PrintJob> printJobEmitter, @NonNull PrintRequest printRequest, boolean replayed) {
             this.printJobEmitter = printJobEmitter;
-            this.printPayload.set(printPayload);
+            this.printRequest = printRequest;
+            this.replayed = replayed;
+            this.printPayload.set(PayloadSpool.SpooledPayload.inMemory(printRequest.getPrintPayload()));
+        }
+
+        @NonNull
+        public String getCallingPackageName() {
+            String callingPackageName = printRequest.getCallingPackageName();
+            return callingPackageName != null ? callingPackageName : UNKNOWN_PACKAGE;
+        }
+
+        public long getSubmittedNanos() {
+            return submittedNanos;
+        }
+
+        public long getDeadlineNanos() {
+            return submittedNanos + TimeUnit.MILLISECONDS.toNanos(printRequest.getDeadlineMs());
+        }
+
+        @NonNull
+        public PrintRequest getPrintRequest() {
+            return printRequest;
         }
 
         @NonNull
@@ -321,12 +1068,150 @@ public abstract class PrinterDriverBase<T extends BasePrinterInfo> {
             return printJobEmitter;
         }
 
-        public PrintPayload getAndClearPrintPayload() {
-            return printPayload.getAndSet(null);
+        /**
+         * Takes the payload to be printed, reading it back from the spool if it was spooled to disk
+         */
+        public PrintPayload getAndClearPrintPayload() throws IOException {
+            PayloadSpool.SpooledPayload spooledPayload = printPayload.getAndSet(null);
+            if (spooledPayload == null) {
+                return null;
+            }
+            PrintPayload payload = spooledPayload.read();
+            printRequest.setPrintPayload(payload);
+            return payload;
+        }
+
+        /**
+         * Releases the payload of a print job that will never be printed
+         *
+         * @return true if the payload had not yet been taken
+         */
+        public boolean releasePrintPayload() {
+            PayloadSpool.SpooledPayload spooledPayload = printPayload.getAndSet(null);
+            if (spooledPayload == null) {
+                return false;
+            }
+            spooledPayload.release();
+            return true;
+        }
+
+        /**
+         * Hands a payload that was never printed back to the print request. A payload spooled to disk is left there, as it is only
+         * needed should the print request be resubmitted.
+         */
+        public void handBackPrintPayload() {
+            PayloadSpool.SpooledPayload spooledPayload = printPayload.getAndSet(null);
+            if (spooledPayload != null && spooledPayload.isOnDisk()) {
+                printRequest.setSpooledPrintPayload(spooledPayload);
+            } else if (spooledPayload != null) {
+                spooledPayload.release();
+            }
+        }
+
+        /**
+         * Swaps the payload for a spooled one. The print request only drops its own reference once the payload is on disk and,
+         * should the payload have been taken in the meantime, the spooled copy is released again.
+         */
+        public void spoolPrintPayload(PayloadSpool payloadSpool) throws IOException {
+            PayloadSpool.SpooledPayload original = printPayload.get();
+            if (original == null || original.isOnDisk()) {
+                return;
+            }
+            PrintPayload payload = printRequest.getPrintPayload();
+            if (payload == null) {
+                return;
+            }
+            PayloadSpool.SpooledPayload spooledPayload = payloadSpool.spool(payload);
+            if (spooledPayload.isOnDisk()) {
+                printRequest.setPrintPayload(null);
+            }
+            if (!printPayload.compareAndSet(original, spooledPayload)) {
+                printRequest.setPrintPayload(payload);
+                spooledPayload.release();
+            }
         }
 
         public boolean hasPrintJobTaskCompleted() {
             return printPayload.get() == null;
         }
+
+        public long getJournalId() {
+            return journalId;
+        }
+
+        public void setJournalId(long journalId) {
+            this.journalId = journalId;
+        }
+
+        public boolean isJournaled() {
+            return journalId != NOT_JOURNALED;
+        }
+
+        public boolean isReplayed() {
+            return replayed;
+        }
+
+        public PrintPayload getCopyPayload() {
+            return copyPayload;
+        }
+
+        public void setCopyPayload(PrintPayload copyPayload) {
+            this.copyPayload = copyPayload;
+            this.nextCopyNanos = System.nanoTime();
+        }
+
+        /**
+         * @return true if a copy is waiting to be printed, i.e. none is printing and not all have been printed
+         */
+        public boolean hasCopiesToPrint() {
+            return copyPayload != null && !printingCopy && copiesPrinted < printRequest.getCopies();
+        }
+
+        /**
+         * @return the index of the copy that is started
+         */
+        public int startCopy() {
+            printingCopy = true;
+            return copiesPrinted;
+        }
+
+        public boolean isPrintingCopy() {
+            return printingCopy;
+        }
+
+        /**
+         * @return the number of copies printed so far
+         */
+        public int onCopyPrinted() {
+            printingCopy = false;
+            return ++copiesPrinted;
+        }
+
+        public long getNextCopyNanos() {
+            return nextCopyNanos;
+        }
+
+        public void setNextCopyNanos(long nextCopyNanos) {
+            this.nextCopyNanos = nextCopyNanos;
+        }
+
+        public void setCopyPauseTimer(Disposable copyPauseTimer) {
+            this.copyPauseTimer = copyPauseTimer;
+        }
+
+        /**
+         * Stops the pause before the next copy, once the print job has finished or been cancelled
+         *
+         * @return true if the print job was pausing between copies
+         */
+        public boolean cancelCopyPause() {
+            Disposable copyPauseTimer = this.copyPauseTimer;
+            this.copyPauseTimer = null;
+            if (copyPauseTimer == null || copyPauseTimer.isDisposed()) {
+                return false;
+            }
+            copyPauseTimer.dispose();
+            return true;
+        }
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An exception that a driver can use to report a failure with a specific reason (see {@link com.aevi.print.model.PrinterMessages})
+ * from {@link ReactivePrinterDriverBase} and {@link BlockingPrinterDriverBase} implementations.
+ */
+public class PrinterDriverException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final String failedReason;
+    private final boolean driverError;
+
+    /**
+     * Reports a failure of the current task only, other tasks will continue
+     *
+     * @param failedReason      The reason giving the cause of any failure
+     * @param diagnosticMessage A diagnostic message to include with the failedReason
+     */
+    public PrinterDriverException(@NonNull String failedReason, String diagnosticMessage) {
+        this(failedReason, diagnosticMessage, false);
+    }
+
+    /**
+     * @param failedReason      The reason giving the cause of any failure
+     * @param diagnosticMessage A diagnostic message to include with the failedReason
+     * @param driverError       true if no other task can continue (e.g. the printer is offline)
+     */
+    public PrinterDriverException(@NonNull String failedReason, String diagnosticMessage, boolean driverError) {
+        super(diagnosticMessage);
+        this.failedReason = failedReason;
+        this.driverError = driverError;
+    }
+
+    @NonNull
+    public String getFailedReason() {
+        return failedReason;
+    }
+
+    public boolean isDriverError() {
+        return driverError;
+    }
+}
@@ -14,10 +14,15 @@
 package com.aevi.print.driver.common;
 
 import androidx.annotation.NonNull;
+import android.util.Log;
 
 import com.aevi.print.model.BasePrinterInfo;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,8 +34,14 @@ import java.util.Map;
  * @see com.aevi.print.driver.common.service.CommonPrinterStatusService
  */
 public abstract class PrinterDriverFactory {
+    private static final String TAG = PrinterDriverFactory.class.getSimpleName();
 
     private final Map<String, PrinterDriverBase> printerDrivers = new HashMap<>();
+    private final Map<String, List<String>> printerGroups = new HashMap<>();
+    private final Map<String, List<String>> failoverChains = new HashMap<>();
+    private final Map<String, PrintJobJournal> printJobJournals = new HashMap<>();
+    private PayloadSpool payloadSpool;
+    private boolean payloadSpoolCreated;
 
     /**
      * Returns either an existing instance  or creates a new of instance the printer driver.
@@ -40,15 +51,39 @@ public abstract class PrinterDriverFactory {
      */
     public PrinterDriverBase getPrinterDriver(@NonNull final BasePrinterInfo printerInfo) {
         String printerId = printerInfo.getPrinterId();
+        PrinterDriverBase printerDriver;
         synchronized (printerDrivers) {
-            PrinterDriverBase printerDriver = printerDrivers.get(printerId);
-
-            if (printerDriver == null || !printerDriver.getPrinterInfo().sameAddressAndPrinter(printerInfo)) {
-                printerDriver = createPrinterDriver(printerInfo);
-                printerDrivers.put(printerId, printerDriver);
+            printerDriver = printerDrivers.get(printerId);
+            if (printerDriver != null && printerDriver.getPrinterInfo().sameAddressAndPrinter(printerInfo)) {
+                return printerDriver;
+            }
+            printerDriver = createPrinterDriver(printerInfo);
+            printerDrivers.put(printerId, printerDriver);
+            PayloadSpool payloadSpool = getPayloadSpool();
+            if (payloadSpool != null) {
+                printerDriver.setPayloadSpool(payloadSpool);
             }
+        }
 
-            return printerDriver;
+        // opening and replaying the journal reads it from disk, so other printers are not held up meanwhile
+        PrintJobJournal printJobJournal = getPrintJobJournal(printerInfo);
+        if (printJobJournal != null) {
+            printerDriver.setPrintJobJournal(printJobJournal);
+        }
+        return printerDriver;
+    }
+
+    /**
+     * Creates the printer drivers of the given printers, so that the print jobs in their journals that had not completed when the
+     * driver service was killed are printed straight away, rather than once the next print job for the printer is received.
+     *
+     * @param printerInfos the details of the printers
+     */
+    public void replayPrintJobJournals(@NonNull List<? extends BasePrinterInfo> printerInfos) {
+        for (BasePrinterInfo printerInfo : printerInfos) {
+            if (getPrintJobJournalFile(printerInfo) != null) {
+                getPrinterDriver(printerInfo);
+            }
         }
     }
 
@@ -62,6 +97,154 @@ public abstract class PrinterDriverFactory {
         }
     }
 
+    /**
+     * Opens the journal of the printer the first time it is needed and keeps it open for the lifetime of the factory,
+     * so that a replacement driver for the same printer carries on with the same journal.
+     */
+    private PrintJobJournal getPrintJobJournal(BasePrinterInfo printerInfo) {
+        String printerId = printerInfo.getPrinterId();
+        synchronized (printJobJournals) {
+            PrintJobJournal printJobJournal = printJobJournals.get(printerId);
+            if (printJobJournal == null) {
+                File journalFile = getPrintJobJournalFile(printerInfo);
+                if (journalFile != null) {
+                    try {
+                        printJobJournal = PrintJobJournal.open(journalFile, getPrintJobJournalSyncPolicy());
+                        printJobJournals.put(printerId, printJobJournal);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to open the print job journal of: " + printerId, e);
+                    }
+                }
+            }
+            return printJobJournal;
+        }
+    }
+
+    /**
+     * Override this method to keep the accepted print jobs of a printer in a journal, so that they are printed even if the driver
+     * service is killed before they complete. The journal is replayed when the printer driver is first created, see
+     * {@link #replayPrintJobJournals}.
+     *
+     * @param printerInfo the details of the printer
+     * @return the journal file of the printer, e.g. in the files directory of the service, or null to not journal print jobs
+     */
+    protected File getPrintJobJournalFile(@NonNull BasePrinterInfo printerInfo) {
+        return null;
+    }
+
+    /**
+     * @return how often print job journals are synced to disk, trading the durability of accepted print jobs for the cost of syncing
+     */
+    @NonNull
+    protected PrintJobJournal.SyncPolicy getPrintJobJournalSyncPolicy() {
+        return PrintJobJournal.SyncPolicy.ALWAYS;
+    }
+
+    private PayloadSpool getPayloadSpool() {
+        if (!payloadSpoolCreated) {
+            payloadSpool = createPayloadSpool();
+            payloadSpoolCreated = true;
+        }
+        return payloadSpool;
+    }
+
+    /**
+     * Override this method to keep the payloads of waiting print jobs within a memory budget, by spooling them to disk.
+     * It is called once and the spool is then shared by every printer driver created by this factory.
+     *
+     * @return the payload spool, e.g. in the cache directory of the service, or null to always keep payloads in memory
+     */
+    protected PayloadSpool createPayloadSpool() {
+        return null;
+    }
+
+    /**
+     * Sets up a logical printer group, so that print jobs sent to the group id are printed by one of its member printers.
+     * This is intended for sites with several identical printers, such as a kitchen.
+     *
+     * @param groupId          the printer id that clients use to print to the group
+     * @param memberPrinterIds the ids of the printers in the group
+     */
+    public void setPrinterGroup(@NonNull String groupId, @NonNull List<String> memberPrinterIds) {
+        synchronized (printerGroups) {
+            printerGroups.put(groupId, new ArrayList<>(memberPrinterIds));
+        }
+    }
+
+    public void removePrinterGroup(@NonNull String groupId) {
+        synchronized (printerGroups) {
+            printerGroups.remove(groupId);
+        }
+    }
+
+    /**
+     * @param printerId the printer id used by the client
+     * @return the ids of the member printers if the printer id is a printer group, otherwise null
+     */
+    public List<String> getPrinterGroupMembers(String printerId) {
+        synchronized (printerGroups) {
+            List<String> members = printerGroups.get(printerId);
+            return members != null ? new ArrayList<>(members) : null;
+        }
+    }
+
+    /**
+     * Sets the printers that take over the print jobs of a printer that fails with a driver error, such as being offline.
+     * The backup printers are tried in order, skipping any that are unhealthy or cannot print the job.
+     *
+     * @param printerId        the id of the printer
+     * @param backupPrinterIds the ids of the backup printers, in the order in which they are tried
+     */
+    public void setFailoverChain(@NonNull String printerId, @NonNull List<String> backupPrinterIds) {
+        synchronized (failoverChains) {
+            failoverChains.put(printerId, new ArrayList<>(backupPrinterIds));
+        }
+    }
+
+    /**
+     * @param printerId the id of the printer
+     * @return the ids of the backup printers of the printer, empty if it has none
+     */
+    @NonNull
+    public List<String> getFailoverChain(String printerId) {
+        synchronized (failoverChains) {
+            List<String> backupPrinterIds = failoverChains.get(printerId);
+            return backupPrinterIds != null ? new ArrayList<>(backupPrinterIds) : new ArrayList<String>();
+        }
+    }
+
+    /**
+     * Selects the printer of a group that should print the next print job. Healthy printers are preferred to unhealthy ones,
+     * then the printer expected to complete the print job soonest and then the one with the fewest print jobs.
+     *
+     * @param memberPrinterInfos the details of the member printers of the group
+     * @return the instance of the printer driver of the selected member, or null if there are no members
+     */
+    public PrinterDriverBase<?> getLeastLoadedPrinterDriver(@NonNull List<? extends BasePrinterInfo> memberPrinterInfos) {
+        PrinterDriverBase<?> selected = null;
+        boolean selectedHealthy = false;
+        long selectedCompletionNanos = 0;
+        int selectedPrintJobCount = 0;
+
+        for (BasePrinterInfo memberPrinterInfo : memberPrinterInfos) {
+            PrinterDriverBase<?> printerDriver = getPrinterDriver(memberPrinterInfo);
+            boolean healthy = printerDriver.isHealthy();
+            long completionNanos = printerDriver.getExpectedCompletionNanos();
+            int printJobCount = printerDriver.getPrintJobCount();
+
+            if (selected == null
+                    || (healthy && !selectedHealthy)
+                    || (healthy == selectedHealthy && completionNanos < selectedCompletionNanos)
+                    || (healthy == selectedHealthy && completionNanos == selectedCompletionNanos && printJobCount < selectedPrintJobCount)) {
+                selected = printerDriver;
+                selectedHealthy = healthy;
+                selectedCompletionNanos = completionNanos;
+                selectedPrintJobCount = printJobCount;
+            }
+        }
+        return selected;
+    }
+
     /**
      * The implementation class must create a new instance of the printer driver
      *
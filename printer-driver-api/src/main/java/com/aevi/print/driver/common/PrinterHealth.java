@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the health of the printer of a {@link PrinterDriverBase} from the outcome of its print jobs.
+ *
+ * A printer becomes unhealthy after a number of failures in a row. Once some time has passed since the last failure, it is
+ * considered healthy again so that it is given another print job, which then either clears or renews the failures.
+ */
+public class PrinterHealth {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_RETRY_AFTER_MS = 30000;
+
+    // weight of the latest print time in the moving average
+    private static final double PRINT_TIME_SMOOTHING = 0.2;
+
+    private final int failureThreshold;
+    private final long retryAfterNanos;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong printsSucceeded = new AtomicLong();
+    private final AtomicLong printsFailed = new AtomicLong();
+    private volatile long lastFailureNanos;
+    private volatile String lastFailedReason;
+    private volatile long averagePrintNanos;
+
+    public PrinterHealth() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_RETRY_AFTER_MS);
+    }
+
+    /**
+     * @param failureThreshold the number of failures in a row after which the printer is unhealthy
+     * @param retryAfterMs     the time after the last failure after which an unhealthy printer is tried again
+     */
+    public PrinterHealth(int failureThreshold, long retryAfterMs) {
+        this.failureThreshold = failureThreshold;
+        this.retryAfterNanos = TimeUnit.MILLISECONDS.toNanos(retryAfterMs);
+    }
+
+    void onPrintSucceeded(long printNanos) {
+        consecutiveFailures.set(0);
+        printsSucceeded.incrementAndGet();
+        synchronized (this) {
+            long average = averagePrintNanos;
+            averagePrintNanos = average == 0 ? printNanos : (long) (average + PRINT_TIME_SMOOTHING * (printNanos - average));
+        }
+    }
+
+    void onFailure(String failedReason) {
+        lastFailedReason = failedReason;
+        lastFailureNanos = System.nanoTime();
+        printsFailed.incrementAndGet();
+        consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * @return true if the printer should be given print jobs
+     */
+    public boolean isHealthy() {
+        return consecutiveFailures.get() < failureThreshold || System.nanoTime() - lastFailureNanos >= retryAfterNanos;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long getPrintsSucceeded() {
+        return printsSucceeded.get();
+    }
+
+    public long getPrintsFailed() {
+        return printsFailed.get();
+    }
+
+    /**
+     * @return the reason of the last failure, or null if there has been none
+     */
+    public String getLastFailedReason() {
+        return lastFailedReason;
+    }
+
+    /**
+     * @return the moving average of the time taken to print a payload, or 0 if no payload has been printed yet
+     */
+    public long getAveragePrintNanos() {
+        return averagePrintNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PrinterHealth{" +
+                "healthy=" + isHealthy() +
+                ", consecutiveFailures=" + getConsecutiveFailures() +
+                ", printsSucceeded=" + getPrintsSucceeded() +
+                ", printsFailed=" + getPrintsFailed() +
+                ", lastFailedReason=" + getLastFailedReason() +
+                ", averagePrintNanos=" + getAveragePrintNanos() +
+                '}';
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import com.aevi.print.model.BasePrinterInfo;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrinterMessages;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableObserver;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * An alternative to {@link PrinterDriverBase} for printer SDKs with a non-blocking API.
+ *
+ * Instead of calling back {@link #onPrinterConnected}, {@link #onTaskCompletedSuccessfully}, {@link #onPrintingFailed},
+ * {@link #onActionFailed} or {@link #onDriverError}, the implementation returns a {@link Completable} for each step and this class
+ * makes the correct callback when it terminates. Every step is subject to a timeout, so a step that never completes cannot leave the
+ * printer in use forever.
+ *
+ * A step that fails with a {@link PrinterDriverException} is reported with the reason of the exception, any other error is reported
+ * with a default reason. When the client cancels the print job being printed, the completable printing it is disposed.
+ *
+ * @param <T> The class that has been derived from {@link BasePrinterInfo}
+ */
+public abstract class ReactivePrinterDriverBase<T extends BasePrinterInfo> extends PrinterDriverBase<T> {
+    private static final String TAG = ReactivePrinterDriverBase.class.getSimpleName();
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 30000;
+    public static final long DEFAULT_TASK_TIMEOUT_MS = 120000;
+
+    private final AtomicReference<StepObserver> printStep = new AtomicReference<>();
+
+    /**
+     * The constructor for ReactivePrinterDriverBase
+     *
+     * @param printerInfo The class providing the details of the printer
+     */
+    public ReactivePrinterDriverBase(@NonNull BasePrinterInfo printerInfo) {
+        super(printerInfo);
+    }
+
+    /**
+     * @return a completable that opens a connection to the printer
+     */
+    @NonNull
+    protected abstract Completable connect();
+
+    /**
+     * @return a completable that closes the connection to the printer
+     */
+    @NonNull
+    protected abstract Completable disconnect();
+
+    /**
+     * @param printPayload the printer payload that is be printed.
+     * @return a completable that converts the payload to a form the printer will accept and then sends it to the printer
+     */
+    @NonNull
+    protected abstract Completable printPayload(@NonNull PrintPayload printPayload);
+
+    /**
+     * @param printAction The print action command to be carried out by the printer (e.g. open the cash drawer)
+     * @return a completable that carries out the printer action
+     */
+    @NonNull
+    protected abstract Completable performAction(@NonNull String printAction);
+
+    /**
+     * @return the time in milliseconds allowed for connecting to or disconnecting from the printer
+     */
+    protected long getConnectTimeoutMs() {
+        return DEFAULT_CONNECT_TIMEOUT_MS;
+    }
+
+    /**
+     * @return the time in milliseconds allowed for printing a payload or carrying out a printer action
+     */
+    protected long getTaskTimeoutMs() {
+        return DEFAULT_TASK_TIMEOUT_MS;
+    }
+
+    /**
+     * Called when a step has not completed in time, after the step has been disposed of.
+     *
+     * @return true if the connection to the printer is left in an unknown state, in which case the timeout is reported as an
+     * {@link PrinterMessages#UNRECOVERABLE_ERROR} driver error so that the connection is torn down
+     */
+    protected boolean onStepTimedOut() {
+        return false;
+    }
+
+    @Override
+    protected final void connectToPrinter() {
+        subscribe(connect(), getConnectTimeoutMs(), new StepObserver() {
+            @Override
+            void onStepComplete() {
+                onPrinterConnected();
+            }
+
+            @Override
+            void onStepError(Throwable throwable) {
+                reportDriverError(throwable, PrinterMessages.PRINTER_OFFLINE);
+            }
+        });
+    }
+
+    @Override
+    protected final void disconnectFromPrinter() {
+        subscribe(disconnect(), getConnectTimeoutMs(), new StepObserver() {
+            @Override
+            void onStepComplete() {
+                onPrinterDisconnected();
+            }
+
+            @Override
+            void onStepError(Throwable throwable) {
+                reportDriverError(throwable, PrinterMessages.PRINTER_OFFLINE);
+            }
+        });
+    }
+
+    @Override
+    protected final void executePrintPayloadTask(@NonNull PrintPayload printPayload) {
+        StepObserver printStep = new StepObserver() {
+            @Override
+            void onStepComplete() {
+                onTaskCompletedSuccessfully();
+            }
+
+            @Override
+            void onStepError(Throwable throwable) {
+                if (isDriverError(throwable)) {
+                    reportDriverError(throwable, PrinterMessages.ERROR_PRINT_FAILED);
+                } else {
+                    onPrintingFailed(getFailedReason(throwable, PrinterMessages.ERROR_PRINT_FAILED), getDiagnosticMessage(throwable));
+                }
+            }
+        };
+        this.printStep.set(printStep);
+        subscribe(printPayload(printPayload), getTaskTimeoutMs(), printStep);
+    }
+
+    /**
+     * Disposes of the completable printing the cancelled print job and moves straight on to the next task.
+     * The completable returned by {@link #printPayload} can abort the printout when it is disposed.
+     */
+    @Override
+    protected void onPrintJobCancelled() {
+        StepObserver printStep = this.printStep.getAndSet(null);
+        if (printStep != null && printStep.cancel()) {
+            onPrintTaskAborted();
+        }
+    }
+
+    @Override
+    protected final void executePrintActionTask(@NonNull String printAction) {
+        subscribe(performAction(printAction), getTaskTimeoutMs(), new StepObserver() {
+            @Override
+            void onStepComplete() {
+                onTaskCompletedSuccessfully();
+            }
+
+            @Override
+            void onStepError(Throwable throwable) {
+                if (isDriverError(throwable)) {
+                    reportDriverError(throwable, PrinterMessages.ERROR_SERVICE_NOT_AVAILABLE);
+                } else {
+                    onActionFailed(getFailedReason(throwable, PrinterMessages.ERROR_SERVICE_NOT_AVAILABLE), getDiagnosticMessage(throwable));
+                }
+            }
+        });
+    }
+
+    private void subscribe(Completable step, long timeoutMs, StepObserver stepObserver) {
+        if (step == null) {
+            step = Completable.error(new IllegalStateException("The driver returned no completable"));
+        }
+        step.timeout(timeoutMs, TimeUnit.MILLISECONDS, Schedulers.computation())
+                .onErrorResumeNext(new Function<Throwable, Completable>() {
+                    @Override
+                    public Completable apply(Throwable throwable) {
+                        if (throwable instanceof TimeoutException && onStepTimedOut()) {
+                            return Completable.error(new PrinterDriverException(PrinterMessages.UNRECOVERABLE_ERROR,
+                                    getDiagnosticMessage(throwable), true));
+                        }
+                        return Completable.error(throwable);
+                    }
+                })
+                .subscribe(stepObserver);
+    }
+
+    private void reportDriverError(Throwable throwable, String defaultReason) {
+        Log.e(TAG, "Printer driver step failed", throwable);
+        onDriverError(getFailedReason(throwable, defaultReason), getDiagnosticMessage(throwable));
+    }
+
+    private static boolean isDriverError(Throwable throwable) {
+        return throwable instanceof PrinterDriverException && ((PrinterDriverException) throwable).isDriverError();
+    }
+
+    private static String getFailedReason(Throwable throwable, String defaultReason) {
+        if (throwable instanceof PrinterDriverException) {
+            return ((PrinterDriverException) throwable).getFailedReason();
+        }
+        return defaultReason;
+    }
+
+    private static String getDiagnosticMessage(Throwable throwable) {
+        if (throwable instanceof TimeoutException) {
+            return "Timed out waiting for the printer";
+        }
+        return throwable.getMessage() != null ? throwable.getMessage() : throwable.getClass().getSimpleName();
+    }
+
+    /**
+     * Reports the termination of a step at most once, so that a step that is cancelled no longer calls back.
+     */
+    private abstract static class StepObserver implements CompletableObserver {
+        private final AtomicBoolean terminated = new AtomicBoolean();
+        private final AtomicReference<Disposable> disposable = new AtomicReference<>();
+
+        abstract void onStepComplete();
+
+        abstract void onStepError(Throwable throwable);
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            disposable.set(d);
+        }
+
+        @Override
+        public void onComplete() {
+            if (terminated.compareAndSet(false, true)) {
+                onStepComplete();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (terminated.compareAndSet(false, true)) {
+                onStepError(throwable);
+            }
+        }
+
+        boolean cancel() {
+            if (!terminated.compareAndSet(false, true)) {
+                return false;
+            }
+            Disposable d = disposable.get();
+            if (d != null) {
+                d.dispose();
+            }
+            return true;
+        }
+    }
+}
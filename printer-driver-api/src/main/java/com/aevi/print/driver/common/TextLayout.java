@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.model.Alignment;
+import com.aevi.print.model.PrinterFont;
+import com.aevi.print.model.PrinterSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lays text out into the columns of a fixed width printer font: wrapping it at word boundaries, aligning or justifying it and
+ * padding the two columns of receipt lines such as "Flat white      2.80".
+ *
+ * Receipts repeat the same lines from one print to the next, so the lines of each layout are cached, up to a total number of
+ * characters. Each layout has its own cache, so use one layout per font.
+ *
+ * Lines are not padded with trailing spaces, as the printer does not need them. Words longer than a line are broken.
+ *
+ * This class is thread safe.
+ */
+public class TextLayout {
+
+    public static final int DEFAULT_MAX_CACHED_CHARACTERS = 64 * 1024;
+
+    private static final int WRAP = 0;
+    private static final int JUSTIFY = 1;
+    private static final int COLUMNS = 2;
+
+    private final int columns;
+    private final BoundedLruCache<LayoutKey, List<String>> cache;
+
+    /**
+     * @param printerFont     the font
+     * @param printerSettings the settings of the printer, which give the columns of a font that does not declare them, or null
+     */
+    public TextLayout(@NonNull PrinterFont printerFont, PrinterSettings printerSettings) {
+        this(getColumns(printerFont, printerSettings));
+    }
+
+    public TextLayout(int columns) {
+        this(columns, DEFAULT_MAX_CACHED_CHARACTERS);
+    }
+
+    /**
+     * @param columns             the number of characters in a line
+     * @param maxCachedCharacters the maximum total number of characters of the cached lines, or 0 not to cache
+     */
+    public TextLayout(int columns, long maxCachedCharacters) {
+        if (columns <= 0) {
+            throw new IllegalArgumentException("A line must have at least one column");
+        }
+        this.columns = columns;
+        this.cache = new BoundedLruCache<>(maxCachedCharacters, new BoundedLruCache.Weigher<LayoutKey, List<String>>() {
+            @Override
+            public int weigh(LayoutKey key, List<String> lines) {
+                int characters = 0;
+                for (String line : lines) {
+                    characters += line.length();
+                }
+                return characters;
+            }
+        });
+    }
+
+    /**
+     * @param printerFont     the font
+     * @param printerSettings the settings of the printer, or null
+     * @return the number of columns of the font, from the font or else from its width and the printable width of the printer
+     */
+    public static int getColumns(@NonNull PrinterFont printerFont, PrinterSettings printerSettings) {
+        if (printerFont.getNumColumns() > 0) {
+            return printerFont.getNumColumns();
+        }
+        if (printerSettings != null && printerFont.getWidth() > 0) {
+            return (int) (printerSettings.getPrintableWidth() * printerSettings.getPaperDotsPmm() / printerFont.getWidth());
+        }
+        throw new IllegalArgumentException("The font " + printerFont.getName() + " has neither columns nor a width");
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Wraps the text into lines and aligns each line. New lines in the text start a new line.
+     *
+     * @param text      the text
+     * @param alignment the alignment of the lines
+     * @return the lines, which must not be changed
+     */
+    @NonNull
+    public List<String> wrap(@NonNull String text, @NonNull Alignment alignment) {
+        LayoutKey key = new LayoutKey(WRAP, alignment, text, null);
+        List<String> lines = cache.get(key);
+        if (lines == null) {
+            lines = new ArrayList<>();
+            wrapInto(text, columns, alignment, false, lines);
+            lines = cache(key, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Wraps the text into lines and widens the spaces between words so that each line but the last of a paragraph fills the width
+     *
+     * @param text the text
+     * @return the lines, which must not be changed
+     */
+    @NonNull
+    public List<String> justify(@NonNull String text) {
+        LayoutKey key = new LayoutKey(JUSTIFY, null, text, null);
+        List<String> lines = cache.get(key);
+        if (lines == null) {
+            lines = new ArrayList<>();
+            wrapInto(text, columns, Alignment.LEFT, true, lines);
+            lines = cache(key, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Lays out a line with text on the left and a value, such as a price, on the right. Left text that does not fit beside the
+     * value is wrapped, with the value on its last line.
+     *
+     * @param left  the text on the left
+     * @param right the text on the right
+     * @return the lines, which must not be changed
+     */
+    @NonNull
+    public List<String> columns(@NonNull String left, @NonNull String right) {
+        LayoutKey key = new LayoutKey(COLUMNS, null, left, right);
+        List<String> lines = cache.get(key);
+        if (lines == null) {
+            lines = new ArrayList<>();
+            int leftWidth = columns - right.length() - 1;
+            if (leftWidth <= 0) {
+                // no room for both, so the value goes on a line of its own
+                wrapInto(left, columns, Alignment.LEFT, false, lines);
+                wrapInto(right, columns, Alignment.RIGHT, false, lines);
+            } else {
+                wrapInto(left, leftWidth, Alignment.LEFT, false, lines);
+                // wrapping always gives at least one line, even for empty text
+                int last = lines.size() - 1;
+                StringBuilder line = new StringBuilder(columns).append(lines.get(last));
+                pad(line, columns - right.length() - line.length());
+                lines.set(last, line.append(right).toString());
+            }
+            lines = cache(key, lines);
+        }
+        return lines;
+    }
+
+    public double getCacheHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    private List<String> cache(LayoutKey key, List<String> lines) {
+        List<String> unmodifiable = Collections.unmodifiableList(lines);
+        cache.put(key, unmodifiable);
+        return unmodifiable;
+    }
+
+    private static void wrapInto(String text, int width, Alignment alignment, boolean justify, List<String> lines) {
+        StringBuilder line = new StringBuilder(width);
+        int paragraphStart = 0;
+        int length = text.length();
+        while (paragraphStart <= length) {
+            int paragraphEnd = text.indexOf('\n', paragraphStart);
+            if (paragraphEnd < 0) {
+                paragraphEnd = length;
+            }
+            wrapParagraph(text, paragraphStart, paragraphEnd, width, alignment, justify, line, lines);
+            paragraphStart = paragraphEnd + 1;
+        }
+    }
+
+    private static void wrapParagraph(String text, int start, int end, int width, Alignment alignment, boolean justify,
+                                      StringBuilder line, List<String> lines) {
+        int position = start;
+        do {
+            int lineEnd;
+            int next;
+            if (end - position <= width) {
+                lineEnd = end;
+                next = end;
+            } else {
+                int space = text.lastIndexOf(' ', position + width);
+                if (space > position) {
+                    lineEnd = space;
+                    next = space;
+                } else {
+                    // a word longer than the line is broken
+                    lineEnd = position + width;
+                    next = lineEnd;
+                }
+            }
+            while (lineEnd > position && text.charAt(lineEnd - 1) == ' ') {
+                lineEnd--;
+            }
+            while (next < end && text.charAt(next) == ' ') {
+                next++;
+            }
+
+            line.setLength(0);
+            if (justify && next < end) {
+                appendJustified(text, position, lineEnd, width, line);
+            } else {
+                int lineLength = lineEnd - position;
+                if (alignment == Alignment.CENTER) {
+                    pad(line, (width - lineLength) / 2);
+                } else if (alignment == Alignment.RIGHT) {
+                    pad(line, width - lineLength);
+                }
+                line.append(text, position, lineEnd);
+            }
+            lines.add(line.toString());
+            position = next;
+        } while (position < end);
+    }
+
+    private static void appendJustified(String text, int start, int end, int width, StringBuilder line) {
+        int words = 0;
+        int letters = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) != ' ') {
+                letters++;
+                if (i == start || text.charAt(i - 1) == ' ') {
+                    words++;
+                }
+            }
+        }
+        int gaps = words - 1;
+        if (gaps <= 0) {
+            line.append(text, start, end);
+            return;
+        }
+        int spaces = width - letters;
+        int gap = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != ' ') {
+                line.append(c);
+            } else if (text.charAt(i - 1) != ' ') {
+                // the first gaps get the spaces that do not share out evenly
+                pad(line, spaces / gaps + (gap < spaces % gaps ? 1 : 0));
+                gap++;
+            }
+        }
+    }
+
+    private static void pad(StringBuilder line, int spaces) {
+        for (int i = 0; i < spaces; i++) {
+            line.append(' ');
+        }
+    }
+
+    private static final class LayoutKey {
+        private final int kind;
+        private final Alignment alignment;
+        private final String text;
+        private final String right;
+
+        LayoutKey(int kind, Alignment alignment, String text, String right) {
+            this.kind = kind;
+            this.alignment = alignment;
+            this.text = text;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            LayoutKey that = (LayoutKey) o;
+            return kind == that.kind && alignment == that.alignment && text.equals(that.text) &&
+                    (right != null ? right.equals(that.right) : that.right == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = kind;
+            result = 31 * result + (alignment != null ? alignment.hashCode() : 0);
+            result = 31 * result + text.hashCode();
+            result = 31 * result + (right != null ? right.hashCode() : 0);
+            return result;
+        }
+    }
+}
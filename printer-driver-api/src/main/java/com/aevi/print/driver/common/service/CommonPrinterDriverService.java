@@ -16,17 +16,35 @@ package com.aevi.print.driver.common.service;
 import android.util.Log;
 
 import com.aevi.print.driver.BasePrinterDriverService;
+import com.aevi.print.driver.common.PrinterCompatibility;
 import com.aevi.print.driver.common.PrinterDriverBase;
 import com.aevi.print.driver.common.PrinterDriverFactory;
 import com.aevi.print.model.BasePrinterInfo;
+import com.aevi.print.model.DevicePrintJob;
 import com.aevi.print.model.PrintJob;
+import com.aevi.print.model.PrintJobMessages;
 import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
 import com.aevi.print.model.PrinterMessages;
+import com.aevi.print.model.PrinterSettings;
 import com.aevi.print.model.PrintingContext;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
 import io.reactivex.Observer;
 import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
 
 import static com.aevi.print.model.PrintJob.State.FAILED;
@@ -40,6 +58,7 @@ import static com.aevi.print.util.Preconditions.checkNotNull;
 public abstract class CommonPrinterDriverService extends BasePrinterDriverService {
     private static final String TAG = CommonPrinterDriverService.class.getSimpleName();
     private PrinterDriverFactory printerDriverFactory;
+    private final Map<PrintingContext, CompositeDisposable> clientPrintJobs = new HashMap<>();
 
     /**
      * The custom PrinterDriverFactory should be set before any other methods in this class are called
@@ -49,6 +68,39 @@ public abstract class CommonPrinterDriverService extends BasePrinterDriverServic
     protected void setPrinterDriverFactory(PrinterDriverFactory printerDriverFactory) {
         checkNotNull(printerDriverFactory, "PrinterDriverFactory must not be null");
         this.printerDriverFactory = printerDriverFactory;
+        replayPrintJobJournals(printerDriverFactory);
+    }
+
+    /**
+     * Override this method to list the printers of the driver, so that the print jobs in their journals (see
+     * {@link PrinterDriverFactory#getPrintJobJournalFile}) are printed as soon as the service is created.
+     *
+     * @return the ids of the printers, by default none, in which case a journal is only replayed when its printer is next printed to
+     */
+    @NonNull
+    protected List<String> getPrinterIds() {
+        return new ArrayList<>();
+    }
+
+    private void replayPrintJobJournals(final PrinterDriverFactory printerDriverFactory) {
+        final List<String> printerIds = getPrinterIds();
+        if (printerIds.isEmpty()) {
+            return;
+        }
+        // the journals are read from disk, so not on the thread that is creating the service
+        Schedulers.io().scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                List<BasePrinterInfo> printerInfos = new ArrayList<>();
+                for (String printerId : printerIds) {
+                    BasePrinterInfo printerInfo = getDeviceInfo(printerId);
+                    if (printerInfo != null) {
+                        printerInfos.add(printerInfo);
+                    }
+                }
+                printerDriverFactory.replayPrintJobJournals(printerInfos);
+            }
+        });
     }
 
     /**
@@ -67,49 +119,266 @@ public abstract class CommonPrinterDriverService extends BasePrinterDriverServic
      */
     @Override
     protected void print(final PrintingContext printingContext, PrintPayload payload) {
+        print(printingContext, payload != null ? new PrintRequest(payload) : null);
+    }
+
+    /**
+     * The implementation method that prints the payload of a print request
+     *
+     * @param printingContext the printing context
+     * @param printRequest    the print request containing the payload to be sent to the printer
+     */
+    @Override
+    protected void print(final PrintingContext printingContext, PrintRequest printRequest) {
         checkNotNull(printerDriverFactory, "setPrinterDriverFactory must be set before the print method is called");
-        if (payload == null) {
+        if (printRequest == null || printRequest.getPrintPayload() == null) {
             printingContext.sendError(PrinterMessages.ERROR_PRINT_FAILED, "print payload cannot be null");
             return;
         }
 
         Log.d(TAG, "Got print request: " + printingContext);
-        String printerId = payload.getPrinterId();
+        String printerId = printRequest.getPrinterId();
 
-        final BasePrinterInfo printerInfo = getDeviceInfo(printerId);
-        if (printerInfo == null) {
-            printerDriverFactory.deletePrinterDriver(printerId);
+        PrinterDriverBase<?> printerDriverBase = getPrinterDriver(printerId);
+        if (printerDriverBase == null) {
             printingContext.send(new PrintJob(FAILED, PrinterMessages.ERROR_PRINTER_NOT_FOUND, "Unknown printer").toJson());
             return;
         }
 
-        PrinterDriverBase printerDriverBase = printerDriverFactory.getPrinterDriver(printerInfo);
-
-        printerDriverBase.print(payload)
+        new FailoverPrintJob(printRequest, printerDriverBase).print()
                 .subscribeOn(Schedulers.newThread())
                 .subscribe(new Observer<PrintJob>() {
+                    private String finalMessage;
+                    private Disposable disposable;
 
                     @Override
                     public void onSubscribe(@NonNull Disposable d) {
-
+                        disposable = d;
+                        getClientPrintJobs(printingContext).add(d);
                     }
 
                     @Override
                     public void onNext(@NonNull PrintJob printJob) {
-                        printingContext.send(printJob.toJson());
+                        String message = PrintJobMessages.toJson(printJob);
+                        if (PrintJobMessages.isFinalState(printJob)) {
+                            // held back until the stream completes, so that it is always followed by the end of stream
+                            finalMessage = message;
+                        } else if (!printingContext.send(message)) {
+                            // the client has gone, so cancel the print job
+                            disposable.dispose();
+                            removeClientPrintJob(printingContext, disposable);
+                        }
                     }
 
                     @Override
                     public void onError(@NonNull Throwable throwable) {
                         Log.e(TAG, "Print failed", throwable);
+                        removeClientPrintJob(printingContext, disposable);
                         printingContext.sendError(PrinterMessages.ERROR_PRINT_FAILED, "Failed to print: " + throwable.getMessage());
                     }
 
                     @Override
                     public void onComplete() {
-                        printingContext.sendEndStream();
+                        removeClientPrintJob(printingContext, disposable);
+                        if (finalMessage != null) {
+                            printingContext.sendAndEndStream(finalMessage);
+                        } else {
+                            printingContext.sendEndStream();
+                        }
                     }
                 });
     }
 
+    /**
+     * Provides the settings of a printer, so that a print job is only failed over to a backup printer that can print it
+     * (see {@link PrinterCompatibility}). By default the settings are unknown and every backup printer is assumed to be compatible.
+     *
+     * @param printerId the printer id
+     * @return the settings of the printer, or null if they are unknown
+     */
+    protected PrinterSettings getPrinterSettings(String printerId) {
+        return null;
+    }
+
+    /**
+     * @param failedReason the reason a print job failed
+     * @return true if the print job should be resubmitted to a backup printer, see {@link PrinterDriverFactory#setFailoverChain}
+     */
+    protected boolean isFailoverReason(String failedReason) {
+        return PrinterMessages.PRINTER_OFFLINE.equals(failedReason)
+                || PrinterMessages.ERROR_PRINTER_NOT_FOUND.equals(failedReason)
+                || PrinterMessages.UNRECOVERABLE_ERROR.equals(failedReason);
+    }
+
+    /**
+     * Gets the printer driver for a printer id. If the id is that of a printer group
+     * (see {@link PrinterDriverFactory#setPrinterGroup}) then the least loaded of its member printers is used.
+     *
+     * @param printerId the printer id given in the print payload
+     * @return the printer driver, or null if the printer is unknown
+     */
+    private PrinterDriverBase<?> getPrinterDriver(String printerId) {
+        List<String> memberPrinterIds = printerDriverFactory.getPrinterGroupMembers(printerId);
+        if (memberPrinterIds == null) {
+            BasePrinterInfo printerInfo = getDeviceInfo(printerId);
+            if (printerInfo == null) {
+                printerDriverFactory.deletePrinterDriver(printerId);
+                return null;
+            }
+            return printerDriverFactory.getPrinterDriver(printerInfo);
+        }
+
+        List<BasePrinterInfo> memberPrinterInfos = new ArrayList<>();
+        for (String memberPrinterId : memberPrinterIds) {
+            BasePrinterInfo printerInfo = getDeviceInfo(memberPrinterId);
+            if (printerInfo != null) {
+                memberPrinterInfos.add(printerInfo);
+            } else {
+                printerDriverFactory.deletePrinterDriver(memberPrinterId);
+            }
+        }
+        PrinterDriverBase<?> printerDriverBase = printerDriverFactory.getLeastLoadedPrinterDriver(memberPrinterInfos);
+        if (printerDriverBase != null) {
+            Log.d(TAG, "Printing to " + printerDriverBase.getPrinterInfo().getPrinterId() + " of printer group " + printerId);
+        }
+        return printerDriverBase;
+    }
+
+    /**
+     * Cancels any print job that is still running for the client, so that a queued job is not printed
+     * and the printer is free at once for the next client.
+     *
+     * @param printingContext the printing context of the client
+     */
+    @Override
+    protected void onClientDisconnected(PrintingContext printingContext) {
+        CompositeDisposable printJobs;
+        synchronized (clientPrintJobs) {
+            printJobs = clientPrintJobs.remove(printingContext);
+        }
+        if (printJobs != null) {
+            Log.d(TAG, "Client disconnected, cancelling " + printJobs.size() + " print job(s)");
+            printJobs.dispose();
+        }
+    }
+
+    private CompositeDisposable getClientPrintJobs(PrintingContext printingContext) {
+        synchronized (clientPrintJobs) {
+            CompositeDisposable printJobs = clientPrintJobs.get(printingContext);
+            if (printJobs == null) {
+                printJobs = new CompositeDisposable();
+                clientPrintJobs.put(printingContext, printJobs);
+            }
+            return printJobs;
+        }
+    }
+
+    private void removeClientPrintJob(PrintingContext printingContext, Disposable printJob) {
+        synchronized (clientPrintJobs) {
+            CompositeDisposable printJobs = clientPrintJobs.get(printingContext);
+            if (printJobs != null) {
+                printJobs.delete(printJob);
+                if (printJobs.size() == 0) {
+                    clientPrintJobs.remove(printingContext);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints a print request, resubmitting it down the failover chain of the printer whenever it fails with a failover reason.
+     * If the print job ends up being handled by another printer than the one asked for, its final state says which printer.
+     */
+    private class FailoverPrintJob {
+        private final PrintRequest printRequest;
+        private final String requestedPrinterId;
+        private final PrinterDriverBase<?> originalPrinterDriver;
+        private Iterator<String> backupPrinterIds;
+
+        FailoverPrintJob(PrintRequest printRequest, PrinterDriverBase<?> originalPrinterDriver) {
+            this.printRequest = printRequest;
+            this.requestedPrinterId = printRequest.getPrinterId();
+            this.originalPrinterDriver = originalPrinterDriver;
+        }
+
+        Observable<PrintJob> print() {
+            return printOn(originalPrinterDriver).doFinally(new Action() {
+                @Override
+                public void run() {
+                    printRequest.releaseSpooledPrintPayload();
+                }
+            });
+        }
+
+        private Observable<PrintJob> printOn(PrinterDriverBase<?> printerDriverBase) {
+            final String printerId = printerDriverBase.getPrinterInfo().getPrinterId();
+            return printerDriverBase.print(printRequest).concatMap(new Function<PrintJob, ObservableSource<PrintJob>>() {
+                @Override
+                public ObservableSource<PrintJob> apply(PrintJob printJob) {
+                    if (printJob.getPrintJobState() == FAILED && isFailoverReason(printJob.getFailedReason())) {
+                        PrinterDriverBase<?> backupPrinterDriver = getNextBackupPrinterDriver();
+                        if (backupPrinterDriver != null && restorePrintPayload()) {
+                            Log.w(TAG, "Printer " + printerId + " failed with " + printJob.getFailedReason() + ", failing over to "
+                                    + backupPrinterDriver.getPrinterInfo().getPrinterId());
+                            // the client has already been told that the print job is in progress, but not of the progress of its copies
+                            return printOn(backupPrinterDriver).filter(new Predicate<PrintJob>() {
+                                private boolean accepted;
+
+                                @Override
+                                public boolean test(PrintJob printJob) {
+                                    if (!accepted) {
+                                        accepted = true;
+                                        return printJob.getPrintJobState() != PrintJob.State.IN_PROGRESS;
+                                    }
+                                    return true;
+                                }
+                            });
+                        }
+                    }
+                    if (PrintJobMessages.isFinalState(printJob) && !printerId.equals(requestedPrinterId)) {
+                        return Observable.<PrintJob>just(new DevicePrintJob(printJob, printerId));
+                    }
+                    return Observable.just(printJob);
+                }
+            });
+        }
+
+        /**
+         * Reads the payload back if the failed print job handed it back whilst it was spooled to disk
+         */
+        private boolean restorePrintPayload() {
+            try {
+                printRequest.restorePrintPayload();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read back spooled payload, not failing over", e);
+                return false;
+            }
+        }
+
+        private PrinterDriverBase<?> getNextBackupPrinterDriver() {
+            String originalPrinterId = originalPrinterDriver.getPrinterInfo().getPrinterId();
+            if (backupPrinterIds == null) {
+                backupPrinterIds = printerDriverFactory.getFailoverChain(originalPrinterId).iterator();
+            }
+            PrinterSettings originalSettings = getPrinterSettings(originalPrinterId);
+            while (backupPrinterIds.hasNext()) {
+                String backupPrinterId = backupPrinterIds.next();
+                BasePrinterInfo backupPrinterInfo = getDeviceInfo(backupPrinterId);
+                if (backupPrinterInfo == null) {
+                    continue;
+                }
+                if (!PrinterCompatibility.isCompatible(originalSettings, getPrinterSettings(backupPrinterId))) {
+                    Log.d(TAG, "Skipping backup printer " + backupPrinterId + " as it is not compatible with " + originalPrinterId);
+                    continue;
+                }
+                PrinterDriverBase<?> backupPrinterDriver = printerDriverFactory.getPrinterDriver(backupPrinterInfo);
+                if (backupPrinterDriver.isHealthy()) {
+                    return backupPrinterDriver;
+                }
+                Log.d(TAG, "Skipping unhealthy backup printer " + backupPrinterId);
+            }
+            return null;
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import com.aevi.print.model.PrinterSettings;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A barcode or QR code to print, given by its symbology, its data and the size of its modules in printer dots.
+ *
+ * Printers that generate symbols themselves declare the symbologies they support in the {@link #OPTION_NATIVE_SYMBOLOGIES} option
+ * of their {@link PrinterSettings}, e.g. "QR_CODE,CODE_128". Other symbols are rasterised by a {@link BarcodeRasterizer}.
+ *
+ * This class is immutable and so thread safe.
+ */
+public final class Barcode {
+    private static final String TAG = Barcode.class.getSimpleName();
+
+    /**
+     * The option of the printer settings that lists the symbologies the printer generates itself, separated by commas
+     */
+    public static final String OPTION_NATIVE_SYMBOLOGIES = "nativeSymbologies";
+
+    public static final int DEFAULT_MODULE_SIZE = 3;
+
+    public enum Symbology {
+        /**
+         * A QR code, with the data encoded in UTF-8, e.g. for links and fiscal verification codes
+         */
+        QR_CODE,
+        /**
+         * A Code 128 barcode, for printable ASCII data such as references and order numbers
+         */
+        CODE_128,
+        /**
+         * An EAN-13 barcode, for 12 digits and an optional check digit
+         */
+        EAN_13
+    }
+
+    private final Symbology symbology;
+    private final String data;
+    private final int moduleSize;
+
+    /**
+     * @param symbology the symbology
+     * @param data      the data
+     */
+    public Barcode(@NonNull Symbology symbology, @NonNull String data) {
+        this(symbology, data, DEFAULT_MODULE_SIZE);
+    }
+
+    /**
+     * @param symbology  the symbology
+     * @param data       the data
+     * @param moduleSize the size in dots of a module of a QR code, or the width in dots of the narrowest bar of a barcode
+     */
+    public Barcode(@NonNull Symbology symbology, @NonNull String data, int moduleSize) {
+        if (moduleSize < 1) {
+            throw new IllegalArgumentException("Module size must be at least 1 but was " + moduleSize);
+        }
+        this.symbology = symbology;
+        this.data = data;
+        this.moduleSize = moduleSize;
+    }
+
+    @NonNull
+    public Symbology getSymbology() {
+        return symbology;
+    }
+
+    @NonNull
+    public String getData() {
+        return data;
+    }
+
+    public int getModuleSize() {
+        return moduleSize;
+    }
+
+    /**
+     * @param printerSettings the settings of the printer, or null if they are not known
+     * @return the symbologies that the printer generates itself
+     */
+    @NonNull
+    public static Set<Symbology> getNativeSymbologies(PrinterSettings printerSettings) {
+        Set<Symbology> symbologies = EnumSet.noneOf(Symbology.class);
+        Map<String, String> options = printerSettings != null ? printerSettings.getOptions() : null;
+        String names = options != null ? options.get(OPTION_NATIVE_SYMBOLOGIES) : null;
+        if (names != null) {
+            for (String name : names.split(",")) {
+                name = name.trim().toUpperCase(Locale.ENGLISH);
+                if (name.isEmpty()) {
+                    continue;
+                }
+                try {
+                    symbologies.add(Symbology.valueOf(name));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Ignoring unknown symbology: " + name);
+                }
+            }
+        }
+        return symbologies;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Barcode that = (Barcode) o;
+        return moduleSize == that.moduleSize && symbology == that.symbology && data.equals(that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = symbology.hashCode();
+        result = 31 * result + data.hashCode();
+        result = 31 * result + moduleSize;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Barcode{" +
+                "symbology=" + symbology +
+                ", data='" + data + '\'' +
+                ", moduleSize=" + moduleSize +
+                '}';
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Generates a {@link Barcode} as a {@link RasterImage} of printer dots, for printers that cannot generate the symbology themselves.
+ *
+ * Each module is drawn as a square of dots of the module size of the barcode, reduced as far as needed to fit the width the image
+ * may take. Barcodes are drawn {@link #LINEAR_HEIGHT_MODULES} modules high, and symbols keep the quiet zone their symbology
+ * requires, so that they scan next to other rows.
+ *
+ * This class is thread safe.
+ */
+public class BarcodeRasterizer {
+
+    public static final int LINEAR_HEIGHT_MODULES = 40;
+
+    private static final int QR_CODE_QUIET_ZONE = 4;
+    private static final int LINEAR_QUIET_ZONE = 10;
+
+    /**
+     * @param barcode  the barcode
+     * @param maxWidth the width in dots that the barcode must fit, or 0 for no limit
+     * @return the barcode as printer dots
+     * @throws IllegalArgumentException if the data cannot be encoded in the symbology, or the barcode does not fit the width
+     */
+    @NonNull
+    public RasterImage rasterize(@NonNull Barcode barcode, int maxWidth) {
+        BitMatrix matrix = encode(barcode);
+        int moduleSize = barcode.getModuleSize();
+        if (maxWidth > 0) {
+            while (moduleSize > 1 && matrix.getWidth() * moduleSize > maxWidth) {
+                moduleSize--;
+            }
+            if (matrix.getWidth() > maxWidth) {
+                throw new IllegalArgumentException(barcode + " is wider than " + maxWidth + " dots");
+            }
+        }
+        boolean linear = barcode.getSymbology() != Barcode.Symbology.QR_CODE;
+        int width = matrix.getWidth() * moduleSize;
+        int height = linear ? LINEAR_HEIGHT_MODULES * moduleSize : matrix.getHeight() * moduleSize;
+        int bytesPerRow = (width + 7) / 8;
+        byte[] bits = new byte[bytesPerRow * height];
+        int moduleRows = linear ? height : moduleSize;
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            int row = y * moduleRows * bytesPerRow;
+            for (int x = 0; x < width; x++) {
+                if (matrix.get(x / moduleSize, y)) {
+                    bits[row + (x >> 3)] |= 0x80 >> (x & 7);
+                }
+            }
+            // the other rows of the module are copies of the first
+            for (int i = 1; i < moduleRows; i++) {
+                System.arraycopy(bits, row, bits, row + i * bytesPerRow, bytesPerRow);
+            }
+        }
+        return new RasterImage(width, height, bits);
+    }
+
+    private static BitMatrix encode(Barcode barcode) {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        BarcodeFormat format;
+        switch (barcode.getSymbology()) {
+            case QR_CODE:
+                format = BarcodeFormat.QR_CODE;
+                hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+                hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+                hints.put(EncodeHintType.MARGIN, QR_CODE_QUIET_ZONE);
+                break;
+            case CODE_128:
+                format = BarcodeFormat.CODE_128;
+                // the margin of a barcode is split between its sides
+                hints.put(EncodeHintType.MARGIN, 2 * LINEAR_QUIET_ZONE);
+                break;
+            case EAN_13:
+                format = BarcodeFormat.EAN_13;
+                hints.put(EncodeHintType.MARGIN, 2 * LINEAR_QUIET_ZONE);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported symbology: " + barcode.getSymbology());
+        }
+        try {
+            // a size of 0 gives one element of the matrix per module, and a single row for barcodes
+            return new MultiFormatWriter().encode(barcode.getData(), format, 0, 0, hints);
+        } catch (WriterException e) {
+            throw new IllegalArgumentException("Can not encode " + barcode, e);
+        }
+    }
+}
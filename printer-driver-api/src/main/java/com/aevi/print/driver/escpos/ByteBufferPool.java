@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct byte buffers of a fixed size, so that encoding a receipt reuses the buffers of the previous receipts rather than
+ * allocating new ones. Direct buffers can be written to a channel without being copied first.
+ *
+ * This class is thread safe.
+ */
+public class ByteBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 8;
+
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final ArrayDeque<ByteBuffer> buffers;
+    private long buffersAllocated;
+
+    public ByteBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+    /**
+     * @param bufferSize       the capacity of each buffer
+     * @param maxPooledBuffers the number of released buffers kept for reuse, any further buffers are left to the garbage collector
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.buffers = new ArrayDeque<>(maxPooledBuffers);
+    }
+
+    /**
+     * @return a cleared buffer, which should be given back with {@link #release} once it is no longer used
+     */
+    public ByteBuffer acquire() {
+        synchronized (buffers) {
+            ByteBuffer buffer = buffers.pollFirst();
+            if (buffer != null) {
+                buffer.clear();
+                return buffer;
+            }
+            buffersAllocated++;
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * @param buffer a buffer taken from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+        synchronized (buffers) {
+            if (buffers.size() < maxPooledBuffers) {
+                buffers.offerFirst(buffer);
+            }
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of buffers that this pool has had to allocate
+     */
+    public long getBuffersAllocated() {
+        synchronized (buffers) {
+            return buffersAllocated;
+        }
+    }
+
+    /**
+     * @return the number of buffers waiting to be reused
+     */
+    public int getPooledBuffers() {
+        synchronized (buffers) {
+            return buffers.size();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * Renders text with the fonts of the device, which shape scripts such as Arabic and Thai, and reduces it to printer dots with a
+ * threshold, which keeps the edges of small text sharper than dithering would.
+ */
+public class CanvasTextRenderer implements TextRunCache.Renderer {
+
+    private final Typeface typeface;
+    private final MonochromeRasterizer rasterizer = new MonochromeRasterizer();
+
+    public CanvasTextRenderer() {
+        this(Typeface.DEFAULT);
+    }
+
+    /**
+     * @param typeface the typeface the text is rendered in
+     */
+    public CanvasTextRenderer(@NonNull Typeface typeface) {
+        this.typeface = typeface;
+    }
+
+    @NonNull
+    @Override
+    public RasterImage render(@NonNull String text, int textSize, boolean bold, int maxWidth) {
+        Paint paint = createPaint(textSize, bold);
+        Paint.FontMetricsInt fontMetrics = paint.getFontMetricsInt();
+        int height = Math.max(1, fontMetrics.descent - fontMetrics.ascent);
+        int width = Math.max(1, (int) Math.ceil(paint.measureText(text)));
+        if (maxWidth > 0 && width > maxWidth) {
+            width = maxWidth;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        try {
+            Canvas canvas = new Canvas(bitmap);
+            canvas.drawColor(Color.WHITE);
+            canvas.drawText(text, 0, -fontMetrics.ascent, paint);
+            return rasterizer.rasterize(bitmap, 0);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    public int measure(@NonNull String text, int textSize, boolean bold) {
+        return (int) Math.ceil(createPaint(textSize, bold).measureText(text));
+    }
+
+    private Paint createPaint(int textSize, boolean bold) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(bold ? Typeface.create(typeface, Typeface.BOLD) : typeface);
+        paint.setTextSize(textSize);
+        paint.setColor(Color.BLACK);
+        return paint;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import com.aevi.print.model.PrinterSettings;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.aevi.print.driver.escpos.EscPosCommands.ESC;
+import static com.aevi.print.driver.escpos.EscPosCommands.SELECT_CODE_TABLE;
+
+/**
+ * Encodes text into the code pages of a printer, as listed by {@link PrinterSettings#getCodepages()}, switching between them as
+ * the text needs.
+ *
+ * Code pages are given by their usual numbers, e.g. 437, 858 or 1252, and are selected with ESC t using the code table numbers of
+ * Epson printers. For each code page a lookup table from characters to bytes is built once, from the charset of the platform, and
+ * shared by all transcoders. Encoding is then a table lookup per character and does not allocate.
+ *
+ * When a character is not in the current code page, the transcoder switches to the supported code page that holds the longest run
+ * of the characters that follow, so that text in one language does not switch back and forth. Characters that are in none of the
+ * code pages are printed as '?'.
+ *
+ * A transcoder keeps track of the code page that the printer is in, so it is not thread safe.
+ */
+public class CodePageTranscoder {
+    private static final String TAG = CodePageTranscoder.class.getSimpleName();
+
+    public static final byte UNMAPPABLE_CHARACTER = '?';
+
+    private static final int SWITCH_COMMAND_SIZE = 3;
+    private static final int MAX_LOOKAHEAD = 64;
+
+    private static final Map<Integer, CodePage> CODE_PAGES = new HashMap<>();
+
+    private final CodePage[] codePages;
+    private CodePage current;
+
+    /**
+     * @param printerSettings the settings of the printer, or null if they are not known, in which case only ASCII is printed
+     */
+    public CodePageTranscoder(PrinterSettings printerSettings) {
+        this(printerSettings != null && printerSettings.doesSupportCodepages() ? printerSettings.getCodepages() : null);
+    }
+
+    /**
+     * @param codePages the numbers of the code pages of the printer, in order of preference, or null for ASCII only
+     */
+    public CodePageTranscoder(int[] codePages) {
+        List<CodePage> supported = new ArrayList<>();
+        if (codePages != null) {
+            for (int number : codePages) {
+                CodePage codePage = getCodePage(number);
+                if (codePage != null) {
+                    supported.add(codePage);
+                }
+            }
+        }
+        this.codePages = supported.toArray(new CodePage[supported.size()]);
+        reset();
+    }
+
+    /**
+     * Resets the code page to the one the printer is in after it is initialised with ESC @
+     */
+    public void reset() {
+        current = null;
+        for (CodePage codePage : codePages) {
+            if (codePage.codeTable == 0) {
+                current = codePage;
+            }
+        }
+    }
+
+    /**
+     * @return the number of the code page the printer is in, or 0 if the transcoder has not selected one
+     */
+    public int getCurrentCodePage() {
+        return current != null ? current.number : 0;
+    }
+
+    /**
+     * Sets the code page the printer is in, e.g. after commands that were encoded earlier have been sent
+     *
+     * @param number the number of the code page, or 0 if it is not known, so that the next character outside of ASCII switches
+     *               code page
+     */
+    public void setCurrentCodePage(int number) {
+        current = null;
+        for (CodePage codePage : codePages) {
+            if (codePage.number == number) {
+                current = codePage;
+            }
+        }
+    }
+
+    /**
+     * Encodes characters of the text into the buffer, with the commands to switch code page, until the text is encoded or the
+     * buffer is full.
+     *
+     * @param text   the text
+     * @param start  the index of the first character to encode
+     * @param buffer the buffer the bytes are written to
+     * @return the index of the first character that was not encoded, which is the length of the text once it is all encoded
+     */
+    public int encode(@NonNull CharSequence text, int start, @NonNull ByteBuffer buffer) {
+        int length = text.length();
+        int index = start;
+        while (index < length && buffer.hasRemaining()) {
+            char c = text.charAt(index);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+                index++;
+                continue;
+            }
+            int value = current != null ? current.lookup(c) : -1;
+            if (value < 0) {
+                CodePage codePage = chooseCodePage(text, index);
+                if (codePage == null) {
+                    buffer.put(UNMAPPABLE_CHARACTER);
+                    index++;
+                    continue;
+                }
+                if (buffer.remaining() < SWITCH_COMMAND_SIZE + 1) {
+                    break;
+                }
+                buffer.put(ESC).put(SELECT_CODE_TABLE).put((byte) codePage.codeTable);
+                current = codePage;
+                value = codePage.lookup(c);
+            }
+            buffer.put((byte) value);
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @param c the character
+     * @return true if the character can be printed in one of the code pages of the printer
+     */
+    public boolean canEncode(char c) {
+        if (c < 0x80) {
+            return true;
+        }
+        for (CodePage codePage : codePages) {
+            if (codePage.lookup(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CodePage chooseCodePage(CharSequence text, int index) {
+        char c = text.charAt(index);
+        CodePage best = null;
+        int bestRun = 0;
+        int end = Math.min(text.length(), index + MAX_LOOKAHEAD);
+        for (CodePage codePage : codePages) {
+            if (codePage.lookup(c) < 0) {
+                continue;
+            }
+            int run = 1;
+            for (int i = index + 1; i < end; i++) {
+                char next = text.charAt(i);
+                if (next >= 0x80 && codePage.lookup(next) < 0) {
+                    break;
+                }
+                run++;
+            }
+            if (run > bestRun) {
+                best = codePage;
+                bestRun = run;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param number the number of the code page
+     * @return the code page, or null if it has no ESC t code table or the platform has no charset for it
+     */
+    private static CodePage getCodePage(int number) {
+        synchronized (CODE_PAGES) {
+            if (CODE_PAGES.containsKey(number)) {
+                return CODE_PAGES.get(number);
+            }
+            CodePage codePage = createCodePage(number);
+            CODE_PAGES.put(number, codePage);
+            return codePage;
+        }
+    }
+
+    private static CodePage createCodePage(int number) {
+        int codeTable = getCodeTable(number);
+        if (codeTable < 0) {
+            Log.w(TAG, "Code page " + number + " is not supported");
+            return null;
+        }
+        Charset charset;
+        try {
+            charset = Charset.forName(getCharsetName(number));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "No charset for code page " + number);
+            return null;
+        }
+        byte[] upperHalf = new byte[128];
+        for (int i = 0; i < upperHalf.length; i++) {
+            upperHalf[i] = (byte) (0x80 + i);
+        }
+        String decoded = new String(upperHalf, charset);
+        CodePage codePage = new CodePage(number, codeTable);
+        if (decoded.length() == upperHalf.length) {
+            for (int i = 0; i < upperHalf.length; i++) {
+                char c = decoded.charAt(i);
+                if (c != '\ufffd' && c >= 0x80) {
+                    codePage.map(c, 0x80 + i);
+                }
+            }
+        }
+        return codePage;
+    }
+
+    /**
+     * @return the ESC t code table of the code page on Epson printers, or -1 if there is none
+     */
+    private static int getCodeTable(int number) {
+        switch (number) {
+            case 437:
+                return 0;
+            case 850:
+                return 2;
+            case 860:
+                return 3;
+            case 863:
+                return 4;
+            case 865:
+                return 5;
+            case 857:
+                return 13;
+            case 737:
+                return 14;
+            case 1252:
+                return 16;
+            case 866:
+                return 17;
+            case 852:
+                return 18;
+            case 858:
+                return 19;
+            case 1250:
+                return 45;
+            case 1251:
+                return 46;
+            case 1253:
+                return 47;
+            case 1254:
+                return 48;
+            case 1255:
+                return 49;
+            case 1256:
+                return 50;
+            case 1257:
+                return 51;
+            case 1258:
+                return 52;
+            default:
+                return -1;
+        }
+    }
+
+    private static String getCharsetName(int number) {
+        if (number >= 1250 && number <= 1258) {
+            return "windows-" + number;
+        } else if (number == 858) {
+            return "IBM00858";
+        } else if (number == 737) {
+            return "x-IBM737";
+        }
+        return "IBM" + number;
+    }
+
+    /**
+     * A lookup table from characters to the bytes of a code page, split into blocks of 256 characters so that only the blocks
+     * holding characters of the code page take up memory
+     */
+    private static final class CodePage {
+        private final int number;
+        private final int codeTable;
+        private final byte[][] blocks = new byte[256][];
+
+        CodePage(int number, int codeTable) {
+            this.number = number;
+            this.codeTable = codeTable;
+        }
+
+        void map(char c, int value) {
+            byte[] block = blocks[c >> 8];
+            if (block == null) {
+                block = new byte[256];
+                blocks[c >> 8] = block;
+            }
+            block[c & 0xff] = (byte) value;
+        }
+
+        /**
+         * @return the byte of the character, or -1 if it is not in the code page
+         */
+        int lookup(char c) {
+            byte[] block = blocks[c >> 8];
+            // every mapped character is in the upper half of the code page, so 0 means unmapped
+            int value = block != null ? block[c & 0xff] & 0xff : 0;
+            return value != 0 ? value : -1;
+        }
+    }
+}
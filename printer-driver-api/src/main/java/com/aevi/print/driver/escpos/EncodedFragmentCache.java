@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.driver.common.BoundedLruCache;
+import com.aevi.print.model.PrinterSettings;
+
+/**
+ * A cache of the encoded bytes of the parts of a receipt that repeat from one receipt to the next, such as the logo in the header,
+ * the address block and the footer, so that only the variable lines of a receipt need to be encoded.
+ *
+ * Fragments are addressed by a 64 bit hash of their content together with a key of the settings of the printer they were encoded
+ * for, as the same content encodes differently for different printers. Use {@link #hash} to build the content hash, starting from
+ * a seed that is specific to the kind of fragment. The cache is bounded by the total size of the fragments and evicts the least
+ * recently used fragments first.
+ *
+ * This class is thread safe and can be shared by the encoders of several printers.
+ */
+public class EncodedFragmentCache {
+
+    public static final long DEFAULT_MAX_BYTES = 512 * 1024;
+
+    /**
+     * Seeds of the content hash of each kind of fragment, so that different kinds of content never share a key
+     */
+    public static final long IMAGE_SEED = 0x6b43a9b5ee3e9c1dL;
+    public static final long TEXT_SEED = 0x2f7b6c1d8a4e3f59L;
+    public static final long BARCODE_SEED = 0x51ed27f3c9a0b84eL;
+
+    private static final long SETTINGS_SEED = 0x3c79ac492ba7b653L;
+
+    // FNV-1a, applied to whole ints rather than bytes
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final BoundedLruCache<FragmentKey, byte[]> cache;
+
+    public EncodedFragmentCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes the maximum total size of the cached fragments
+     */
+    public EncodedFragmentCache(long maxBytes) {
+        cache = new BoundedLruCache<>(maxBytes, new BoundedLruCache.Weigher<FragmentKey, byte[]>() {
+            @Override
+            public int weigh(FragmentKey key, byte[] value) {
+                return value.length;
+            }
+        });
+    }
+
+    /**
+     * @param contentHash the hash of the content of the fragment
+     * @param settingsKey the key of the settings of the printer, see {@link #settingsKey}
+     * @return the encoded fragment, or null if it is not cached
+     */
+    public byte[] get(long contentHash, long settingsKey) {
+        return cache.get(new FragmentKey(contentHash, settingsKey));
+    }
+
+    /**
+     * @param contentHash the hash of the content of the fragment
+     * @param settingsKey the key of the settings of the printer, see {@link #settingsKey}
+     * @param encoded     the encoded fragment, which must not be changed afterwards
+     */
+    public void put(long contentHash, long settingsKey, @NonNull byte[] encoded) {
+        cache.put(new FragmentKey(contentHash, settingsKey), encoded);
+    }
+
+    /**
+     * @param printerSettings the settings of the printer, or null if they are not known
+     * @return a key that is the same for printers with the same settings
+     */
+    public static long settingsKey(PrinterSettings printerSettings) {
+        return printerSettings != null ? hash(SETTINGS_SEED, printerSettings.toJson()) : 0;
+    }
+
+    public static long hash(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    public static long hash(long hash, long value) {
+        return hash(hash(hash, (int) value), (int) (value >>> 32));
+    }
+
+    public static long hash(long hash, @NonNull CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            hash = hash(hash, text.charAt(i));
+        }
+        return hash(hash, length);
+    }
+
+    public static long hash(long hash, @NonNull int[] values, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            hash = hash(hash, values[i]);
+        }
+        return hash;
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    /**
+     * @return the total size of the cached fragments
+     */
+    public long getBytes() {
+        return cache.getWeight();
+    }
+
+    public int getFragmentCount() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedFragmentCache{" +
+                "fragments=" + getFragmentCount() +
+                ", bytes=" + getBytes() +
+                ", hitRatio=" + getHitRatio() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    private static final class FragmentKey {
+        private final long contentHash;
+        private final long settingsKey;
+
+        FragmentKey(long contentHash, long settingsKey) {
+            this.contentHash = contentHash;
+            this.settingsKey = settingsKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            FragmentKey that = (FragmentKey) o;
+            return contentHash == that.contentHash && settingsKey == that.settingsKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (contentHash ^ (contentHash >>> 32) ^ settingsKey ^ (settingsKey >>> 32));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+/**
+ * The ESC/POS control codes and commands used by the encoder
+ */
+public final class EscPosCommands {
+
+    public static final byte LF = 0x0a;
+    public static final byte ESC = 0x1b;
+    public static final byte GS = 0x1d;
+
+    /**
+     * ESC @ - initialises the printer, resetting alignment, emphasis and font
+     */
+    public static final byte INITIALIZE = '@';
+
+    /**
+     * ESC a n - sets the justification, 0 left, 1 centre and 2 right
+     */
+    public static final byte SELECT_JUSTIFICATION = 'a';
+
+    /**
+     * ESC E n - turns emphasised (bold) mode on or off
+     */
+    public static final byte SELECT_EMPHASIS = 'E';
+
+    /**
+     * ESC M n - selects the character font
+     */
+    public static final byte SELECT_FONT = 'M';
+
+    /**
+     * ESC t n - selects the character code table for the upper half of the character set
+     */
+    public static final byte SELECT_CODE_TABLE = 't';
+
+    /**
+     * ESC d n - prints the buffer and feeds n lines
+     */
+    public static final byte FEED_LINES = 'd';
+
+    /**
+     * ESC J n - prints the buffer and feeds the paper by n vertical motion units, which are a dot on most printers
+     */
+    public static final byte FEED_DOTS = 'J';
+
+    /**
+     * GS V m n - feeds the paper by n dots and then cuts it, m 66 for a partial cut
+     */
+    public static final byte CUT = 'V';
+    public static final byte CUT_FEED_PARTIAL = 66;
+
+    /**
+     * GS v 0 m xL xH yL yH d1...dk - prints a raster bit image, x in bytes and y in dots
+     */
+    public static final byte RASTER_IMAGE = 'v';
+
+    /**
+     * GS h n - sets the height of barcodes in dots
+     */
+    public static final byte SELECT_BARCODE_HEIGHT = 'h';
+
+    /**
+     * GS w n - sets the width of the narrowest bar of barcodes in dots
+     */
+    public static final byte SELECT_BARCODE_WIDTH = 'w';
+
+    /**
+     * GS k m n d1...dn - prints a barcode of symbology m, 67 for EAN-13 and 73 for Code 128
+     */
+    public static final byte PRINT_BARCODE = 'k';
+    public static final byte BARCODE_EAN_13 = 67;
+    public static final byte BARCODE_CODE_128 = 73;
+
+    /**
+     * GS ( k pL pH cn fn ... - the functions of two dimensional symbols, cn 49 for QR codes
+     */
+    public static final byte SYMBOL_FUNCTION = '(';
+    public static final byte SYMBOL_QR_CODE = 49;
+    public static final byte QR_CODE_SELECT_MODEL = 65;
+    public static final byte QR_CODE_SELECT_MODULE_SIZE = 67;
+    public static final byte QR_CODE_SELECT_ERROR_CORRECTION = 69;
+    public static final byte QR_CODE_STORE = 80;
+    public static final byte QR_CODE_PRINT = 81;
+
+    public static final byte JUSTIFICATION_LEFT = 0;
+    public static final byte JUSTIFICATION_CENTER = 1;
+    public static final byte JUSTIFICATION_RIGHT = 2;
+
+    private EscPosCommands() {
+    }
+}
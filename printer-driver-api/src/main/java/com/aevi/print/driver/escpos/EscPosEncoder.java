@@ -0,0 +1,935 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.aevi.print.driver.common.PrintTemplate;
+import com.aevi.print.model.Alignment;
+import com.aevi.print.model.FontStyle;
+import com.aevi.print.model.ImageRow;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRow;
+import com.aevi.print.model.PrinterFont;
+import com.aevi.print.model.PrinterSettings;
+import com.aevi.print.model.TextRow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.aevi.print.driver.escpos.EscPosCommands.BARCODE_CODE_128;
+import static com.aevi.print.driver.escpos.EscPosCommands.BARCODE_EAN_13;
+import static com.aevi.print.driver.escpos.EscPosCommands.CUT;
+import static com.aevi.print.driver.escpos.EscPosCommands.CUT_FEED_PARTIAL;
+import static com.aevi.print.driver.escpos.EscPosCommands.ESC;
+import static com.aevi.print.driver.escpos.EscPosCommands.FEED_DOTS;
+import static com.aevi.print.driver.escpos.EscPosCommands.FEED_LINES;
+import static com.aevi.print.driver.escpos.EscPosCommands.GS;
+import static com.aevi.print.driver.escpos.EscPosCommands.INITIALIZE;
+import static com.aevi.print.driver.escpos.EscPosCommands.JUSTIFICATION_CENTER;
+import static com.aevi.print.driver.escpos.EscPosCommands.JUSTIFICATION_LEFT;
+import static com.aevi.print.driver.escpos.EscPosCommands.JUSTIFICATION_RIGHT;
+import static com.aevi.print.driver.escpos.EscPosCommands.LF;
+import static com.aevi.print.driver.escpos.EscPosCommands.PRINT_BARCODE;
+import static com.aevi.print.driver.escpos.EscPosCommands.QR_CODE_PRINT;
+import static com.aevi.print.driver.escpos.EscPosCommands.QR_CODE_SELECT_ERROR_CORRECTION;
+import static com.aevi.print.driver.escpos.EscPosCommands.QR_CODE_SELECT_MODEL;
+import static com.aevi.print.driver.escpos.EscPosCommands.QR_CODE_SELECT_MODULE_SIZE;
+import static com.aevi.print.driver.escpos.EscPosCommands.QR_CODE_STORE;
+import static com.aevi.print.driver.escpos.EscPosCommands.RASTER_IMAGE;
+import static com.aevi.print.driver.escpos.EscPosCommands.SELECT_BARCODE_HEIGHT;
+import static com.aevi.print.driver.escpos.EscPosCommands.SELECT_BARCODE_WIDTH;
+import static com.aevi.print.driver.escpos.EscPosCommands.SELECT_EMPHASIS;
+import static com.aevi.print.driver.escpos.EscPosCommands.SELECT_FONT;
+import static com.aevi.print.driver.escpos.EscPosCommands.SELECT_JUSTIFICATION;
+import static com.aevi.print.driver.escpos.EscPosCommands.SYMBOL_FUNCTION;
+import static com.aevi.print.driver.escpos.EscPosCommands.SYMBOL_QR_CODE;
+
+/**
+ * Encodes a {@link PrintPayload} into ESC/POS commands, for drivers of printers that accept ESC/POS.
+ *
+ * The commands are written into a pooled direct buffer, which is written to the channel each time it is full, so encoding a receipt
+ * of any size does not allocate once the pool has warmed up. Alignment, emphasis and font commands are only sent when they change
+ * from one row to the next.
+ *
+ * The printer font id of a text row is sent as the ESC/POS font number, so drivers should declare their {@link PrinterFont}s with the
+ * font numbers of the printer (0 for font A, 1 for font B). Images are scaled down to the printable width of the printer by a
+ * {@link MonochromeRasterizer} and printed as raster bit images. Runs of blank rows in an image are fed rather than sent, and
+ * for printers that accept PackBits compressed raster bands (see {@link #setCompressedRasterCommand}) each band is sent
+ * compressed when that is shorter. {@link #getRasterBytes()} and {@link #getRasterBytesSent()} report how many bytes this saved.
+ *
+ * Characters outside of ASCII are printed in the code pages of the printer by a {@link CodePageTranscoder}, or as '?' if the
+ * printer does not support code pages. Text in scripts that the printer can not print itself is printed as an image instead if
+ * a {@link TextRunCache} is set, wrapped to the width of the paper.
+ *
+ * Barcodes and QR codes are generated by the printer if it declares their symbology as native, see {@link Barcode}, and are
+ * otherwise rasterised by a {@link BarcodeRasterizer} and printed as images. Like other images, rasterised symbols are kept in the
+ * {@link EncodedFragmentCache} if one is set, so that a symbol that comes back on every receipt, such as the link to an app, is
+ * only generated once.
+ *
+ * A {@link PrintTemplate} can be compiled into an {@link EscPosTemplate}, so that only its rows with slots are encoded each time it
+ * is printed.
+ *
+ * An encoder is not thread safe. As a driver prints one payload at a time, each driver should have its own encoder.
+ */
+public class EscPosEncoder {
+    private static final String TAG = EscPosEncoder.class.getSimpleName();
+
+    public static final int DEFAULT_FEED_LINES_BEFORE_CUT = 3;
+
+    /**
+     * The height in dots of text that is printed as an image, when the font of the row does not give its height
+     */
+    public static final int DEFAULT_TEXT_RUN_SIZE = 24;
+
+    private static final ByteBufferPool DEFAULT_BUFFER_POOL = new ByteBufferPool();
+
+    // the largest command that is written in one go, the buffer must have room for it
+    private static final int MAX_COMMAND_SIZE = 9;
+    private static final int RASTER_BAND_HEIGHT = 128;
+    private static final int RASTER_HEADER_SIZE = 8;
+    private static final int FEED_COMMAND_SIZE = 3;
+    private static final int MAX_FEED_DOTS = 255;
+    private static final int MAX_QR_CODE_MODULE_SIZE = 16;
+    private static final int MIN_BARCODE_WIDTH = 2;
+    private static final int MAX_BARCODE_WIDTH = 6;
+    private static final int MAX_BARCODE_DATA = 255;
+    private static final int MAX_COMPILED_TEMPLATES = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final PrinterSettings printerSettings;
+    private final ByteBufferPool bufferPool;
+    private final int maxImageWidthDots;
+    private final CodePageTranscoder transcoder;
+    private final NativeScripts nativeScripts;
+    private final Set<Barcode.Symbology> nativeSymbologies;
+    private final BarcodeRasterizer barcodeRasterizer = new BarcodeRasterizer();
+    private TextRunCache textRunCache;
+    // keyed by the template itself, as template ids are only unique per client, the least recently printed templates are dropped
+    // beyond the maximum
+    private final Map<PrintTemplate, EscPosTemplate> compiledTemplates = new LinkedHashMap<PrintTemplate, EscPosTemplate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PrintTemplate, EscPosTemplate> eldest) {
+            return size() > MAX_COMPILED_TEMPLATES;
+        }
+    };
+    private boolean cutAfterPayload = true;
+    private boolean feedBlankRows = true;
+    private byte[] compressedRasterHeader;
+    private int feedLinesBeforeCut = DEFAULT_FEED_LINES_BEFORE_CUT;
+
+    // state of the payload being encoded
+    private ByteBuffer buffer;
+    private WritableByteChannel channel;
+    private long bytesWritten;
+    private byte justification;
+    // -1 when the state of the printer is not known
+    private int emphasis;
+    private int font;
+    private long rasterBytes;
+    private long rasterBytesSent;
+    private int[] pixels = new int[0];
+    private byte[] packedBand = new byte[0];
+    private byte[] fragmentBuffer = new byte[0];
+    private final byte[] rasterHeader = {GS, RASTER_IMAGE, '0', 0, 0, 0, 0, 0};
+    private final byte[] feedCommand = {ESC, FEED_DOTS, 0};
+    private EncodedFragmentCache fragmentCache;
+    private long settingsKey;
+    private MonochromeRasterizer rasterizer = new MonochromeRasterizer();
+
+    public EscPosEncoder(PrinterSettings printerSettings) {
+        this(printerSettings, DEFAULT_BUFFER_POOL);
+    }
+
+    /**
+     * @param printerSettings the settings of the printer, or null if they are not known
+     * @param bufferPool      the pool of the buffers that the commands are written into
+     */
+    public EscPosEncoder(PrinterSettings printerSettings, @NonNull ByteBufferPool bufferPool) {
+        if (bufferPool.getBufferSize() < MAX_COMMAND_SIZE) {
+            throw new IllegalArgumentException("Buffers must hold at least " + MAX_COMMAND_SIZE + " bytes");
+        }
+        this.printerSettings = printerSettings;
+        this.bufferPool = bufferPool;
+        this.maxImageWidthDots = printerSettings != null ? (int) (printerSettings.getPrintableWidth() * printerSettings.getPaperDotsPmm()) : 0;
+        this.transcoder = new CodePageTranscoder(printerSettings);
+        this.nativeScripts = new NativeScripts(transcoder, printerSettings != null ? printerSettings.getSupportedLanguages() : null);
+        this.nativeSymbologies = Barcode.getNativeSymbologies(printerSettings);
+    }
+
+    /**
+     * @param cutAfterPayload true to feed and cut the paper after each payload, the default
+     */
+    public void setCutAfterPayload(boolean cutAfterPayload) {
+        this.cutAfterPayload = cutAfterPayload;
+    }
+
+    /**
+     * Sets the cache of encoded fragments, so that images that repeat from one receipt to the next, such as a logo,
+     * are only rasterised once. The cache may be shared with the encoders of other printers.
+     *
+     * @param fragmentCache the cache, or null to encode every image
+     */
+    public void setFragmentCache(EncodedFragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+        updateSettingsKey();
+    }
+
+    /**
+     * @param feedBlankRows true to feed the paper past runs of blank rows in images rather than send them, the default. This
+     *                      assumes that the vertical motion unit of the printer is one dot, as it is by default on most printers.
+     */
+    public void setFeedBlankRows(boolean feedBlankRows) {
+        this.feedBlankRows = feedBlankRows;
+        updateSettingsKey();
+        compiledTemplates.clear();
+    }
+
+    /**
+     * Sets the command that prints a band of raster image compressed with PackBits, for printers that support one. The command is
+     * model specific, so it is given by the driver. Each compressed band is sent as the command followed by the width in bytes and
+     * the height in dots as xL xH yL yH and the length of the compressed data as n1 n2 n3 n4, all little endian, and then the
+     * compressed data. Bands that would not be shorter compressed are sent as plain raster bit images.
+     *
+     * @param command the command, or null to always send plain raster bit images, the default
+     */
+    public void setCompressedRasterCommand(byte[] command) {
+        if (command == null) {
+            compressedRasterHeader = null;
+        } else {
+            compressedRasterHeader = Arrays.copyOf(command, command.length + 8);
+        }
+        updateSettingsKey();
+        compiledTemplates.clear();
+    }
+
+    private void updateSettingsKey() {
+        // the options change the encoding of images, so images encoded with other options must not be found in the cache
+        long key = EncodedFragmentCache.hash(EncodedFragmentCache.settingsKey(printerSettings), feedBlankRows ? 1 : 0);
+        settingsKey = EncodedFragmentCache.hash(key, compressedRasterHeader != null ? Arrays.hashCode(compressedRasterHeader) : 0);
+    }
+
+    /**
+     * @return the bytes that the images of the last payload would have taken as plain raster bit images
+     */
+    public long getRasterBytes() {
+        return rasterBytes;
+    }
+
+    /**
+     * @return the bytes that were sent for the images of the last payload, after feeding blank rows and compressing bands
+     */
+    public long getRasterBytesSent() {
+        return rasterBytesSent;
+    }
+
+    /**
+     * Sets the cache of rendered text, so that text in scripts that the printer cannot print itself is printed as an image
+     * rather than as '?'. The cache may be shared with the encoders of other printers.
+     *
+     * @param textRunCache the cache, or null to print only what the printer can print itself, the default
+     */
+    public void setTextRunCache(TextRunCache textRunCache) {
+        this.textRunCache = textRunCache;
+        compiledTemplates.clear();
+    }
+
+    /**
+     * @param rasterizer the rasterizer that reduces images to printer dots, by default one that applies a plain threshold
+     */
+    public void setRasterizer(@NonNull MonochromeRasterizer rasterizer) {
+        this.rasterizer = rasterizer;
+        compiledTemplates.clear();
+    }
+
+    /**
+     * @param feedLinesBeforeCut the lines fed before the paper is cut, so that the last row clears the cutter
+     */
+    public void setFeedLinesBeforeCut(int feedLinesBeforeCut) {
+        this.feedLinesBeforeCut = feedLinesBeforeCut;
+    }
+
+    /**
+     * Encodes the payload and writes it to the channel
+     *
+     * @param printPayload the payload to print
+     * @param channel      the channel to the printer
+     * @return the number of bytes written
+     * @throws IOException if the channel could not be written to
+     */
+    public long encode(@NonNull PrintPayload printPayload, @NonNull WritableByteChannel channel) throws IOException {
+        begin(channel, true);
+        try {
+            for (PrintRow printRow : printPayload.getRows()) {
+                writeRow(printRow);
+            }
+            return finish();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Encodes the payload into memory, without a cut, for a driver that prints several copies of it (see
+     * {@link com.aevi.print.driver.common.PrinterDriverBase#executePrintCopyTask}). The same bytes are sent for every copy, each
+     * followed by {@link #encodeCut} where the copies are cut apart. As the bytes start by initialising the printer, every copy
+     * prints the same.
+     *
+     * @param printPayload the payload to print
+     * @return the encoded payload
+     * @throws IOException never, as the payload is encoded into memory
+     */
+    @NonNull
+    public byte[] encodeCopy(@NonNull PrintPayload printPayload) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        begin(Channels.newChannel(outputStream), true);
+        try {
+            for (PrintRow printRow : printPayload.getRows()) {
+                writeRow(printRow);
+            }
+            flush();
+            return outputStream.toByteArray();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Encodes the rows without slots of the template, see {@link EscPosTemplate}. The template is encoded with the options that
+     * are set on the encoder at the time.
+     *
+     * @param printTemplate the template
+     * @return the compiled template
+     * @throws IOException never, as the rows are encoded into memory
+     */
+    @NonNull
+    public EscPosTemplate compile(@NonNull PrintTemplate printTemplate) throws IOException {
+        List<EscPosTemplate.Segment> segments = new ArrayList<>();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        begin(Channels.newChannel(segment), false);
+        try {
+            boolean inSegment = false;
+            for (PrintRow printRow : printTemplate.getPrintPayload().getRows()) {
+                if (printRow instanceof TextRow && PrintTemplate.hasSlots(((TextRow) printRow).getText())) {
+                    if (inSegment) {
+                        segments.add(closeSegment(segment));
+                        inSegment = false;
+                    }
+                    segments.add(EscPosTemplate.Segment.slotRow((TextRow) printRow));
+                } else {
+                    if (!inSegment) {
+                        if (!segments.isEmpty()) {
+                            // a segment must not depend on the state that the rows with slots before it leave the printer in
+                            forgetPrinterState();
+                        }
+                        inSegment = true;
+                    }
+                    writeRow(printRow);
+                }
+            }
+            if (inSegment) {
+                segments.add(closeSegment(segment));
+            }
+            return new EscPosTemplate(printTemplate, segments);
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Encodes the template with the values of its slots and writes it to the channel, compiling the template the first time. The
+     * compiled template is kept until the options of the encoder change or it is one of the least recently printed. Templates are
+     * told apart by instance rather than by id, so that the templates of different clients with the same id do not evict each
+     * other.
+     *
+     * @param printTemplate the template
+     * @param slotValues    the values of the slots of the template
+     * @param channel       the channel to the printer
+     * @return the number of bytes written
+     * @throws IOException if the channel could not be written to
+     */
+    public long encode(@NonNull PrintTemplate printTemplate, @NonNull Map<String, String> slotValues,
+                       @NonNull WritableByteChannel channel) throws IOException {
+        // a template that was redefined under the same id is a new template, so is compiled again
+        EscPosTemplate escPosTemplate = compiledTemplates.get(printTemplate);
+        if (escPosTemplate == null) {
+            escPosTemplate = compile(printTemplate);
+            compiledTemplates.put(printTemplate, escPosTemplate);
+        }
+        return encode(escPosTemplate, slotValues, channel);
+    }
+
+    /**
+     * Writes the pre-encoded segments of the template to the channel, with the rows with slots encoded from the values of the slots
+     *
+     * @param escPosTemplate the compiled template
+     * @param slotValues     the values of the slots of the template
+     * @param channel        the channel to the printer
+     * @return the number of bytes written
+     * @throws IOException if the channel could not be written to
+     */
+    public long encode(@NonNull EscPosTemplate escPosTemplate, @NonNull Map<String, String> slotValues,
+                       @NonNull WritableByteChannel channel) throws IOException {
+        begin(channel, true);
+        try {
+            for (EscPosTemplate.Segment segment : escPosTemplate.getSegments()) {
+                if (segment.isPreEncoded()) {
+                    writeBytes(segment.bytes, 0, segment.bytes.length);
+                    justification = segment.justification;
+                    emphasis = segment.emphasis;
+                    font = segment.font;
+                    transcoder.setCurrentCodePage(segment.codePage);
+                } else {
+                    writeTextRow(segment.slotRow, PrintTemplate.fill(segment.slotRow.getText(), slotValues));
+                }
+            }
+            return finish();
+        } finally {
+            end();
+        }
+    }
+
+    private EscPosTemplate.Segment closeSegment(ByteArrayOutputStream segment) throws IOException {
+        flush();
+        byte[] bytes = segment.toByteArray();
+        segment.reset();
+        return EscPosTemplate.Segment.preEncoded(bytes, justification, emphasis, font, transcoder.getCurrentCodePage());
+    }
+
+    private void writeRow(PrintRow printRow) throws IOException {
+        if (printRow instanceof TextRow) {
+            writeTextRow((TextRow) printRow, ((TextRow) printRow).getText());
+        } else if (printRow instanceof ImageRow) {
+            writeImageRow((ImageRow) printRow);
+        } else if (printRow != null) {
+            Log.w(TAG, "Ignoring unsupported row: " + printRow.getClass().getSimpleName());
+        }
+    }
+
+    private long finish() throws IOException {
+        if (cutAfterPayload) {
+            writeCut();
+        }
+        flush();
+        if (rasterBytes > 0) {
+            Log.d(TAG, "Sent " + rasterBytesSent + " bytes for " + rasterBytes + " bytes of raster images");
+        }
+        return bytesWritten;
+    }
+
+    /**
+     * Writes just an image that has already been rasterised, e.g. a logo that is printed on its own
+     *
+     * @param rasterImage the image
+     * @param channel     the channel to the printer
+     * @return the number of bytes written
+     * @throws IOException if the channel could not be written to
+     */
+    public long encodeImage(@NonNull RasterImage rasterImage, @NonNull WritableByteChannel channel) throws IOException {
+        begin(channel, true);
+        try {
+            rasterBytes = getPlainRasterSize(rasterImage.getBytesPerRow(), rasterImage.getHeight());
+            rasterBytesSent = writeRaster(rasterImage, false);
+            flush();
+            return bytesWritten;
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Writes just a barcode or QR code, e.g. a loyalty link or a fiscal verification code after the rows of a receipt
+     *
+     * @param barcode   the barcode
+     * @param alignment the alignment of the barcode
+     * @param channel   the channel to the printer
+     * @return the number of bytes written
+     * @throws IOException              if the channel could not be written to
+     * @throws IllegalArgumentException if the data cannot be encoded in the symbology of the barcode
+     */
+    public long encodeBarcode(@NonNull Barcode barcode, @NonNull Alignment alignment, @NonNull WritableByteChannel channel)
+            throws IOException {
+        begin(channel, true);
+        try {
+            writeBarcode(barcode, alignment);
+            flush();
+            return bytesWritten;
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Writes just a cut, e.g. for a print action
+     *
+     * @param channel the channel to the printer
+     * @return the number of bytes written
+     * @throws IOException if the channel could not be written to
+     */
+    public long encodeCut(@NonNull WritableByteChannel channel) throws IOException {
+        begin(channel, true);
+        try {
+            writeCut();
+            flush();
+            return bytesWritten;
+        } finally {
+            end();
+        }
+    }
+
+    private void begin(WritableByteChannel channel, boolean initialize) {
+        this.channel = channel;
+        this.buffer = bufferPool.acquire();
+        this.bytesWritten = 0;
+        this.rasterBytes = 0;
+        this.rasterBytesSent = 0;
+        // the printer is in this state after ESC @
+        this.justification = JUSTIFICATION_LEFT;
+        this.emphasis = 0;
+        this.font = 0;
+        transcoder.reset();
+        if (initialize) {
+            buffer.put(ESC).put(INITIALIZE);
+        }
+    }
+
+    private void forgetPrinterState() {
+        this.justification = -1;
+        this.emphasis = -1;
+        this.font = -1;
+        transcoder.setCurrentCodePage(0);
+    }
+
+    private void end() {
+        bufferPool.release(buffer);
+        buffer = null;
+        channel = null;
+    }
+
+    private void writeTextRow(TextRow textRow, String text) throws IOException {
+        writeJustification(textRow.getAlignment());
+        if (textRunCache != null && text != null && !nativeScripts.canPrint(text)) {
+            writeTextRun(textRow, text);
+            return;
+        }
+        writeEmphasis(textRow.getFontStyle() == FontStyle.BOLD);
+        writeFont(textRow.getPrinterFontId());
+
+        if (text != null) {
+            int index = 0;
+            while ((index = transcoder.encode(text, index, buffer)) < text.length()) {
+                flush();
+            }
+        }
+        ensureRemaining(1);
+        buffer.put(LF);
+    }
+
+    private void writeJustification(Alignment alignment) throws IOException {
+        byte justification = toJustification(alignment);
+        if (justification != this.justification) {
+            ensureRemaining(3);
+            buffer.put(ESC).put(SELECT_JUSTIFICATION).put(justification);
+            this.justification = justification;
+        }
+    }
+
+    private void writeEmphasis(boolean bold) throws IOException {
+        int emphasis = bold ? 1 : 0;
+        if (emphasis != this.emphasis) {
+            ensureRemaining(3);
+            buffer.put(ESC).put(SELECT_EMPHASIS).put((byte) emphasis);
+            this.emphasis = emphasis;
+        }
+    }
+
+    private void writeFont(int printerFontId) throws IOException {
+        int font = isPrinterFont(printerFontId) ? printerFontId : 0;
+        if (font != this.font) {
+            ensureRemaining(3);
+            buffer.put(ESC).put(SELECT_FONT).put((byte) font);
+            this.font = font;
+        }
+    }
+
+    private boolean isPrinterFont(int printerFontId) {
+        return getPrinterFont(printerFontId) != null;
+    }
+
+    private PrinterFont getPrinterFont(int printerFontId) {
+        PrinterFont[] printerFonts = printerSettings != null ? printerSettings.getPrinterFonts() : null;
+        if (printerFonts != null) {
+            for (PrinterFont printerFont : printerFonts) {
+                if (printerFont.getId() == printerFontId) {
+                    return printerFont;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prints text that the printer cannot print itself as an image, at the height of the font of the row, a line at a time so that
+     * long text wraps to the width of the paper
+     */
+    private void writeTextRun(TextRow textRow, String text) throws IOException {
+        PrinterFont printerFont = getPrinterFont(textRow.getPrinterFontId());
+        int textSize = printerFont != null && printerFont.getHeight() > 0 ? printerFont.getHeight() : DEFAULT_TEXT_RUN_SIZE;
+        boolean bold = textRow.getFontStyle() == FontStyle.BOLD;
+        for (String line : textRunCache.wrap(text, textSize, bold, maxImageWidthDots)) {
+            RasterImage rasterImage = textRunCache.get(line, textSize, bold, maxImageWidthDots);
+            rasterBytes += getPlainRasterSize(rasterImage.getBytesPerRow(), rasterImage.getHeight());
+            rasterBytesSent += writeRaster(rasterImage, false);
+        }
+    }
+
+    private void writeImageRow(ImageRow imageRow) throws IOException {
+        Bitmap image = imageRow.getImage();
+        if (image == null) {
+            return;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        image.getPixels(pixels, 0, width, 0, 0, width, height);
+        int scaledWidth = MonochromeRasterizer.getScaledWidth(width, maxImageWidthDots);
+        rasterBytes += getPlainRasterSize((scaledWidth + 7) / 8, MonochromeRasterizer.getScaledHeight(width, height, maxImageWidthDots));
+
+        writeJustification(imageRow.getAlignment());
+        if (fragmentCache == null) {
+            rasterBytesSent += writeRaster(rasterizer.rasterize(pixels, width, height, maxImageWidthDots), false);
+            return;
+        }
+        long contentHash = hashImage(width, height);
+        byte[] fragment = fragmentCache.get(contentHash, settingsKey);
+        if (fragment == null) {
+            RasterImage rasterImage = rasterizer.rasterize(pixels, width, height, maxImageWidthDots);
+            fragment = captureRaster(rasterImage);
+            fragmentCache.put(contentHash, settingsKey, fragment);
+        }
+        writeBytes(fragment, 0, fragment.length);
+        rasterBytesSent += fragment.length;
+    }
+
+    private void writeBarcode(Barcode barcode, Alignment alignment) throws IOException {
+        writeJustification(alignment);
+        if (nativeSymbologies.contains(barcode.getSymbology()) && writeNativeBarcode(barcode)) {
+            return;
+        }
+        if (fragmentCache == null) {
+            RasterImage rasterImage = barcodeRasterizer.rasterize(barcode, maxImageWidthDots);
+            rasterBytes += getPlainRasterSize(rasterImage.getBytesPerRow(), rasterImage.getHeight());
+            rasterBytesSent += writeRaster(rasterImage, false);
+            return;
+        }
+        long contentHash = hashBarcode(barcode);
+        byte[] fragment = fragmentCache.get(contentHash, settingsKey);
+        if (fragment == null) {
+            RasterImage rasterImage = barcodeRasterizer.rasterize(barcode, maxImageWidthDots);
+            fragment = captureRaster(rasterImage);
+            fragmentCache.put(contentHash, settingsKey, fragment);
+        }
+        writeBytes(fragment, 0, fragment.length);
+        rasterBytesSent += fragment.length;
+    }
+
+    /**
+     * Writes the commands for the printer to generate the barcode, unless its data or module size are out of the range of the
+     * commands
+     *
+     * @return true if the commands were written
+     */
+    private boolean writeNativeBarcode(Barcode barcode) throws IOException {
+        String data = barcode.getData();
+        int moduleSize = barcode.getModuleSize();
+        if (barcode.getSymbology() == Barcode.Symbology.QR_CODE) {
+            byte[] bytes = data.getBytes(UTF_8);
+            if (moduleSize > MAX_QR_CODE_MODULE_SIZE || bytes.length > 0xffff - 3) {
+                return false;
+            }
+            writeQrCodeFunction(4, QR_CODE_SELECT_MODEL).put((byte) 50).put((byte) 0);
+            writeQrCodeFunction(3, QR_CODE_SELECT_MODULE_SIZE).put((byte) moduleSize);
+            // M recovers from 15% of the symbol being damaged, which allows for creased receipts
+            writeQrCodeFunction(3, QR_CODE_SELECT_ERROR_CORRECTION).put((byte) 49);
+            writeQrCodeFunction(bytes.length + 3, QR_CODE_STORE).put((byte) 48);
+            writeBytes(bytes, 0, bytes.length);
+            writeQrCodeFunction(3, QR_CODE_PRINT).put((byte) 48);
+            return true;
+        }
+        if (moduleSize < MIN_BARCODE_WIDTH || moduleSize > MAX_BARCODE_WIDTH) {
+            return false;
+        }
+        byte symbology;
+        int length;
+        if (barcode.getSymbology() == Barcode.Symbology.EAN_13) {
+            if (!isEan13(data)) {
+                return false;
+            }
+            symbology = BARCODE_EAN_13;
+            length = data.length();
+        } else {
+            // the data of a Code 128 barcode starts with {B to select code set B, in which a { is sent as {{
+            length = getCode128Length(data);
+            if (length < 0 || length > MAX_BARCODE_DATA) {
+                return false;
+            }
+            symbology = BARCODE_CODE_128;
+        }
+        ensureRemaining(MAX_COMMAND_SIZE);
+        buffer.put(GS).put(SELECT_BARCODE_HEIGHT).put((byte) (BarcodeRasterizer.LINEAR_HEIGHT_MODULES * moduleSize));
+        buffer.put(GS).put(SELECT_BARCODE_WIDTH).put((byte) moduleSize);
+        ensureRemaining(MAX_COMMAND_SIZE);
+        buffer.put(GS).put(PRINT_BARCODE).put(symbology).put((byte) length);
+        if (symbology == BARCODE_CODE_128) {
+            ensureRemaining(2);
+            buffer.put((byte) '{').put((byte) 'B');
+        }
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            ensureRemaining(2);
+            if (c == '{' && symbology == BARCODE_CODE_128) {
+                buffer.put((byte) '{');
+            }
+            buffer.put((byte) c);
+        }
+        return true;
+    }
+
+    private ByteBuffer writeQrCodeFunction(int length, byte function) throws IOException {
+        ensureRemaining(MAX_COMMAND_SIZE);
+        return buffer.put(GS).put(SYMBOL_FUNCTION).put(PRINT_BARCODE).put((byte) length).put((byte) (length >> 8))
+                .put(SYMBOL_QR_CODE).put(function);
+    }
+
+    private static boolean isEan13(String data) {
+        if (data.length() != 12 && data.length() != 13) {
+            return false;
+        }
+        for (int i = 0; i < data.length(); i++) {
+            if (data.charAt(i) < '0' || data.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the length of the data of the GS k command for the Code 128 barcode, or -1 if it has characters outside of code set B
+     */
+    private static int getCode128Length(String data) {
+        int length = 2;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c < 0x20 || c > 0x7e) {
+                return -1;
+            }
+            length += c == '{' ? 2 : 1;
+        }
+        return length;
+    }
+
+    private byte[] captureRaster(RasterImage rasterImage) throws IOException {
+        // the fragment buffer may be replaced by a larger one while the image is written, so it is only read afterwards
+        int length = writeRaster(rasterImage, true);
+        return Arrays.copyOf(fragmentBuffer, length);
+    }
+
+    /**
+     * Writes the image as raster bit images, either to the buffer or, if captured, into the fragment buffer. Runs of blank rows
+     * are fed when that is shorter than sending them, which it is unless the image is very narrow.
+     *
+     * @return the number of bytes written
+     */
+    private int writeRaster(RasterImage rasterImage, boolean capture) throws IOException {
+        int widthBytes = rasterImage.getBytesPerRow();
+        int height = rasterImage.getHeight();
+        byte[] bits = rasterImage.getBits();
+        // feeding a run of blank rows in the middle of an image also costs the header of the band after it
+        int minBlankRows = feedBlankRows ? (FEED_COMMAND_SIZE + RASTER_HEADER_SIZE) / widthBytes + 1 : Integer.MAX_VALUE;
+        int position = 0;
+        int bandStart = 0;
+        while (bandStart < height) {
+            int blankRows = countBlankRows(bits, widthBytes, bandStart, height);
+            if (isFedRun(blankRows, minBlankRows, bandStart, height)) {
+                position = writeFeed(blankRows, capture, position);
+                bandStart += blankRows;
+                continue;
+            }
+            int bandEnd = bandStart + Math.max(1, blankRows);
+            while (bandEnd < height && bandEnd - bandStart < RASTER_BAND_HEIGHT) {
+                blankRows = countBlankRows(bits, widthBytes, bandEnd, height);
+                if (isFedRun(blankRows, minBlankRows, bandEnd, height)) {
+                    break;
+                }
+                bandEnd += Math.max(1, blankRows);
+            }
+            bandEnd = Math.min(bandEnd, bandStart + RASTER_BAND_HEIGHT);
+            position = writeBand(bits, widthBytes, bandStart, bandEnd - bandStart, capture, position);
+            bandStart = bandEnd;
+        }
+        return position;
+    }
+
+    private boolean isFedRun(int blankRows, int minBlankRows, int row, int height) {
+        // blank rows at the end of the image are always fed, as no band header follows them
+        return blankRows >= minBlankRows || (feedBlankRows && blankRows > 0 && row + blankRows == height);
+    }
+
+    private int writeBand(byte[] bits, int widthBytes, int startRow, int rows, boolean capture, int position) throws IOException {
+        int offset = startRow * widthBytes;
+        int length = rows * widthBytes;
+        if (compressedRasterHeader != null) {
+            int maxPackedLength = PackBits.getMaxEncodedLength(length);
+            if (packedBand.length < maxPackedLength) {
+                packedBand = new byte[maxPackedLength];
+            }
+            int packedLength = PackBits.encode(bits, offset, length, packedBand, 0);
+            if (compressedRasterHeader.length + packedLength < RASTER_HEADER_SIZE + length) {
+                int header = compressedRasterHeader.length - 8;
+                compressedRasterHeader[header] = (byte) widthBytes;
+                compressedRasterHeader[header + 1] = (byte) (widthBytes >> 8);
+                compressedRasterHeader[header + 2] = (byte) rows;
+                compressedRasterHeader[header + 3] = (byte) (rows >> 8);
+                compressedRasterHeader[header + 4] = (byte) packedLength;
+                compressedRasterHeader[header + 5] = (byte) (packedLength >> 8);
+                compressedRasterHeader[header + 6] = (byte) (packedLength >> 16);
+                compressedRasterHeader[header + 7] = (byte) (packedLength >> 24);
+                position = emit(compressedRasterHeader, 0, compressedRasterHeader.length, capture, position);
+                return emit(packedBand, 0, packedLength, capture, position);
+            }
+        }
+        rasterHeader[4] = (byte) widthBytes;
+        rasterHeader[5] = (byte) (widthBytes >> 8);
+        rasterHeader[6] = (byte) rows;
+        rasterHeader[7] = (byte) (rows >> 8);
+        position = emit(rasterHeader, 0, RASTER_HEADER_SIZE, capture, position);
+        return emit(bits, offset, length, capture, position);
+    }
+
+    private int writeFeed(int rows, boolean capture, int position) throws IOException {
+        while (rows > 0) {
+            int dots = Math.min(rows, MAX_FEED_DOTS);
+            feedCommand[2] = (byte) dots;
+            position = emit(feedCommand, 0, FEED_COMMAND_SIZE, capture, position);
+            rows -= dots;
+        }
+        return position;
+    }
+
+    private static int countBlankRows(byte[] bits, int widthBytes, int startRow, int height) {
+        int row = startRow;
+        while (row < height) {
+            int offset = row * widthBytes;
+            for (int i = offset; i < offset + widthBytes; i++) {
+                if (bits[i] != 0) {
+                    return row - startRow;
+                }
+            }
+            row++;
+        }
+        return row - startRow;
+    }
+
+    private static long getPlainRasterSize(int widthBytes, int height) {
+        int bands = (height + RASTER_BAND_HEIGHT - 1) / RASTER_BAND_HEIGHT;
+        return bands * RASTER_HEADER_SIZE + (long) widthBytes * height;
+    }
+
+    private int emit(byte[] bytes, int offset, int length, boolean capture, int position) throws IOException {
+        if (capture) {
+            if (fragmentBuffer.length < position + length) {
+                fragmentBuffer = Arrays.copyOf(fragmentBuffer, Math.max(position + length, fragmentBuffer.length * 2));
+            }
+            System.arraycopy(bytes, offset, fragmentBuffer, position, length);
+        } else {
+            writeBytes(bytes, offset, length);
+        }
+        return position + length;
+    }
+
+    /**
+     * Hashes the pixels together with how the rasterizer reduces them, as the same image rasterizes differently with a different
+     * dithering
+     */
+    private long hashImage(int width, int height) {
+        long hash = EncodedFragmentCache.hash(EncodedFragmentCache.IMAGE_SEED, rasterizer.getDithering().ordinal());
+        hash = EncodedFragmentCache.hash(hash, rasterizer.getThreshold());
+        hash = EncodedFragmentCache.hash(EncodedFragmentCache.hash(hash, width), height);
+        return EncodedFragmentCache.hash(hash, pixels, 0, width * height);
+    }
+
+    private static long hashBarcode(Barcode barcode) {
+        long hash = EncodedFragmentCache.hash(EncodedFragmentCache.BARCODE_SEED, barcode.getSymbology().ordinal());
+        hash = EncodedFragmentCache.hash(hash, barcode.getModuleSize());
+        return EncodedFragmentCache.hash(hash, barcode.getData());
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(buffer.remaining(), end - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    private void writeCut() throws IOException {
+        ensureRemaining(7);
+        buffer.put(ESC).put(FEED_LINES).put((byte) feedLinesBeforeCut);
+        buffer.put(GS).put(CUT).put(CUT_FEED_PARTIAL).put((byte) 0);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte toJustification(Alignment alignment) {
+        if (alignment == Alignment.CENTER) {
+            return JUSTIFICATION_CENTER;
+        } else if (alignment == Alignment.RIGHT) {
+            return JUSTIFICATION_RIGHT;
+        }
+        return JUSTIFICATION_LEFT;
+    }
+}
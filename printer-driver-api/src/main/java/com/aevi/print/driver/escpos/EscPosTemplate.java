@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.driver.common.PrintTemplate;
+import com.aevi.print.model.TextRow;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PrintTemplate} compiled by an {@link EscPosEncoder} for its printer: the runs of rows without slots are encoded once
+ * into segments of ESC/POS commands, and only the rows with slots are encoded each time the template is printed.
+ *
+ * Each segment starts by setting the printer state it needs, so that it does not depend on the rows before it, and records the
+ * state it leaves the printer in, so that the rows after it are encoded from that state.
+ *
+ * Use {@link EscPosEncoder#compile} to compile a template and {@link EscPosEncoder#encode(EscPosTemplate, java.util.Map,
+ * java.nio.channels.WritableByteChannel)} to print it.
+ */
+public final class EscPosTemplate {
+
+    private final PrintTemplate printTemplate;
+    private final List<Segment> segments;
+
+    EscPosTemplate(@NonNull PrintTemplate printTemplate, @NonNull List<Segment> segments) {
+        this.printTemplate = printTemplate;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    @NonNull
+    public PrintTemplate getPrintTemplate() {
+        return printTemplate;
+    }
+
+    List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return the number of bytes that are encoded once rather than for each print
+     */
+    public int getPreEncodedBytes() {
+        int bytes = 0;
+        for (Segment segment : segments) {
+            if (segment.isPreEncoded()) {
+                bytes += segment.bytes.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Either pre-encoded bytes, with the printer state after them, or a row with slots
+     */
+    static final class Segment {
+        final byte[] bytes;
+        final byte justification;
+        final int emphasis;
+        final int font;
+        final int codePage;
+        final TextRow slotRow;
+
+        private Segment(byte[] bytes, byte justification, int emphasis, int font, int codePage, TextRow slotRow) {
+            this.bytes = bytes;
+            this.justification = justification;
+            this.emphasis = emphasis;
+            this.font = font;
+            this.codePage = codePage;
+            this.slotRow = slotRow;
+        }
+
+        static Segment preEncoded(byte[] bytes, byte justification, int emphasis, int font, int codePage) {
+            return new Segment(bytes, justification, emphasis, font, codePage, null);
+        }
+
+        static Segment slotRow(TextRow textRow) {
+            return new Segment(null, (byte) 0, 0, 0, 0, textRow);
+        }
+
+        boolean isPreEncoded() {
+            return slotRow == null;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reduces an ARGB image to a {@link RasterImage} of printer dots.
+ *
+ * The image is scaled down to the dot width of the printer by averaging the pixels that fall on each dot, with transparent pixels
+ * taken as white paper, and then reduced to black and white dots by a threshold or by dithering. Images of more than a few bands of
+ * rows are processed a band at a time in parallel, on a fork/join pool. With Floyd-Steinberg dithering only the scaling runs in
+ * bands, and the error is then diffused over the whole image in row order, so that no seam shows where one band meets the next.
+ *
+ * This class is thread safe.
+ */
+public class MonochromeRasterizer {
+
+    public enum Dithering {
+        /**
+         * Every dot darker than the threshold is black, which suits logos and text
+         */
+        THRESHOLD,
+        /**
+         * Diffuses the error of each dot onto its neighbours, which suits photographs
+         */
+        FLOYD_STEINBERG,
+        /**
+         * Compares each dot to an 8x8 Bayer matrix, which gives an even pattern for shaded areas and is cheaper than error diffusion
+         */
+        ORDERED
+    }
+
+    public static final int DEFAULT_THRESHOLD = 128;
+    public static final int BAND_HEIGHT = 64;
+
+    private static final int[] BAYER_MATRIX = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    private final Dithering dithering;
+    private final int threshold;
+    private final ForkJoinPool forkJoinPool;
+
+    public MonochromeRasterizer() {
+        this(Dithering.THRESHOLD, DEFAULT_THRESHOLD);
+    }
+
+    public MonochromeRasterizer(@NonNull Dithering dithering, int threshold) {
+        this(dithering, threshold, null);
+    }
+
+    /**
+     * @param dithering    how grey levels are reduced to black and white dots
+     * @param threshold    the luminance (0-255) below which a dot is black, for {@link Dithering#THRESHOLD} and error diffusion
+     * @param forkJoinPool the pool that the bands of large images are processed on, or null for a pool shared by all rasterizers
+     */
+    public MonochromeRasterizer(@NonNull Dithering dithering, int threshold, ForkJoinPool forkJoinPool) {
+        this.dithering = dithering;
+        this.threshold = threshold;
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    @NonNull
+    public Dithering getDithering() {
+        return dithering;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param bitmap   the image
+     * @param maxWidth the dot width of the printer, or 0 to keep the width of the image
+     * @return the image in printer dots
+     */
+    @NonNull
+    public RasterImage rasterize(@NonNull Bitmap bitmap, int maxWidth) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] argb = new int[width * height];
+        // a single bulk copy, rather than a call per pixel
+        bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+        return rasterize(argb, width, height, maxWidth);
+    }
+
+    /**
+     * @param argb     the pixels of the image, row by row
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param maxWidth the dot width of the printer, or 0 to keep the width of the image. Images are never scaled up.
+     * @return the image in printer dots
+     */
+    @NonNull
+    public RasterImage rasterize(@NonNull int[] argb, int width, int height, int maxWidth) {
+        int targetWidth = getScaledWidth(width, maxWidth);
+        int targetHeight = getScaledHeight(width, height, maxWidth);
+        RasterImage rasterImage = new RasterImage(targetWidth, targetHeight, new byte[((targetWidth + 7) / 8) * targetHeight]);
+        if (targetWidth == 0 || targetHeight == 0) {
+            return rasterImage;
+        }
+
+        // error diffusion needs the rows in order, so the bands only scale the image and the error is diffused afterwards
+        int[] luminance = dithering == Dithering.FLOYD_STEINBERG ? new int[targetWidth * targetHeight] : null;
+        BandTask task = new BandTask(dithering, threshold, argb, width, height, rasterImage, luminance, 0, targetHeight);
+        if (targetHeight <= 2 * BAND_HEIGHT) {
+            task.compute();
+        } else {
+            getForkJoinPool().invoke(task);
+        }
+        if (luminance != null) {
+            diffuseError(luminance, threshold, rasterImage);
+        }
+        return rasterImage;
+    }
+
+    /**
+     * @param width    the width of an image
+     * @param maxWidth the dot width of the printer, or 0 to keep the width of the image
+     * @return the width in dots that the image is rasterized to
+     */
+    public static int getScaledWidth(int width, int maxWidth) {
+        return maxWidth > 0 && width > maxWidth ? maxWidth : width;
+    }
+
+    /**
+     * @param width    the width of an image
+     * @param height   the height of an image
+     * @param maxWidth the dot width of the printer, or 0 to keep the width of the image
+     * @return the height in dots that the image is rasterized to, keeping its aspect ratio
+     */
+    public static int getScaledHeight(int width, int height, int maxWidth) {
+        int scaledWidth = getScaledWidth(width, maxWidth);
+        return scaledWidth == width ? height : Math.max(1, (int) ((long) height * scaledWidth / width));
+    }
+
+    private ForkJoinPool getForkJoinPool() {
+        return forkJoinPool != null ? forkJoinPool : SharedPool.INSTANCE;
+    }
+
+    /**
+     * Reduces a band of rows to dots by threshold or ordered dithering, or only scales them into the luminance of the whole image
+     * when the error is diffused afterwards
+     */
+    private static void rasterizeBand(Dithering dithering, int threshold, int[] argb, int width, int height, RasterImage rasterImage,
+                                      int[] imageLuminance, int startRow, int endRow) {
+        int targetWidth = rasterImage.getWidth();
+        int targetHeight = rasterImage.getHeight();
+        int bytesPerRow = rasterImage.getBytesPerRow();
+        byte[] bits = rasterImage.getBits();
+        int[] luminance = new int[targetWidth];
+
+        for (int y = startRow; y < endRow; y++) {
+            scaleRow(argb, width, height, targetWidth, targetHeight, y, luminance);
+            if (imageLuminance != null) {
+                System.arraycopy(luminance, 0, imageLuminance, y * targetWidth, targetWidth);
+                continue;
+            }
+            int rowOffset = y * bytesPerRow;
+            for (int x = 0; x < targetWidth; x++) {
+                boolean black;
+                if (dithering == Dithering.ORDERED) {
+                    black = luminance[x] < BAYER_MATRIX[((y & 7) << 3) | (x & 7)] * 4 + 2;
+                } else {
+                    black = luminance[x] < threshold;
+                }
+                if (black) {
+                    bits[rowOffset + (x >> 3)] |= 0x80 >> (x & 7);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reduces the scaled image to dots by Floyd-Steinberg dithering, carrying the error of each row onto the next
+     */
+    private static void diffuseError(int[] luminance, int threshold, RasterImage rasterImage) {
+        int targetWidth = rasterImage.getWidth();
+        int targetHeight = rasterImage.getHeight();
+        int bytesPerRow = rasterImage.getBytesPerRow();
+        byte[] bits = rasterImage.getBits();
+        int[] error = new int[targetWidth + 2];
+        int[] nextError = new int[targetWidth + 2];
+
+        for (int y = 0; y < targetHeight; y++) {
+            int rowOffset = y * bytesPerRow;
+            int luminanceOffset = y * targetWidth;
+            for (int x = 0; x < targetWidth; x++) {
+                int value = luminance[luminanceOffset + x] + error[x + 1];
+                boolean black = value < threshold;
+                int quantisationError = value - (black ? 0 : 255);
+                error[x + 2] += quantisationError * 7 / 16;
+                nextError[x] += quantisationError * 3 / 16;
+                nextError[x + 1] += quantisationError * 5 / 16;
+                nextError[x + 2] += quantisationError / 16;
+                if (black) {
+                    bits[rowOffset + (x >> 3)] |= 0x80 >> (x & 7);
+                }
+            }
+            int[] swap = error;
+            error = nextError;
+            nextError = swap;
+            Arrays.fill(nextError, 0);
+        }
+    }
+
+    /**
+     * Computes the luminance of a row of dots, averaging the pixels of the image that fall on each dot
+     */
+    private static void scaleRow(int[] argb, int width, int height, int targetWidth, int targetHeight, int y, int[] luminance) {
+        int sourceStartY = (int) ((long) y * height / targetHeight);
+        int sourceEndY = Math.max(sourceStartY + 1, (int) ((long) (y + 1) * height / targetHeight));
+        for (int x = 0; x < targetWidth; x++) {
+            int sourceStartX = (int) ((long) x * width / targetWidth);
+            int sourceEndX = Math.max(sourceStartX + 1, (int) ((long) (x + 1) * width / targetWidth));
+            int sum = 0;
+            for (int sourceY = sourceStartY; sourceY < sourceEndY; sourceY++) {
+                int rowOffset = sourceY * width;
+                for (int sourceX = sourceStartX; sourceX < sourceEndX; sourceX++) {
+                    sum += luminanceOf(argb[rowOffset + sourceX]);
+                }
+            }
+            luminance[x] = sum / ((sourceEndY - sourceStartY) * (sourceEndX - sourceStartX));
+        }
+    }
+
+    /**
+     * @return the luminance of the pixel, composited onto white paper
+     */
+    static int luminanceOf(int argb) {
+        int alpha = argb >>> 24;
+        int red = (argb >> 16) & 0xff;
+        int green = (argb >> 8) & 0xff;
+        int blue = argb & 0xff;
+        int luminance = (red * 299 + green * 587 + blue * 114) / 1000;
+        return 255 - (255 - luminance) * alpha / 255;
+    }
+
+    /**
+     * Splits the rows into bands of {@link #BAND_HEIGHT} rows, so that the bands are the same however the work is split
+     */
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Dithering dithering;
+        private final int threshold;
+        private final int[] argb;
+        private final int width;
+        private final int height;
+        private final RasterImage rasterImage;
+        private final int[] luminance;
+        private final int startRow;
+        private final int endRow;
+
+        BandTask(Dithering dithering, int threshold, int[] argb, int width, int height, RasterImage rasterImage, int[] luminance,
+                 int startRow, int endRow) {
+            this.dithering = dithering;
+            this.threshold = threshold;
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.rasterImage = rasterImage;
+            this.luminance = luminance;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int bands = (endRow - startRow + BAND_HEIGHT - 1) / BAND_HEIGHT;
+            if (bands <= 1) {
+                rasterizeBand(dithering, threshold, argb, width, height, rasterImage, luminance, startRow, endRow);
+                return;
+            }
+            int middleRow = startRow + (bands / 2) * BAND_HEIGHT;
+            invokeAll(new BandTask(dithering, threshold, argb, width, height, rasterImage, luminance, startRow, middleRow),
+                      new BandTask(dithering, threshold, argb, width, height, rasterImage, luminance, middleRow, endRow));
+        }
+    }
+
+    private static final class SharedPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.model.PrinterSettings;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tells whether a printer can print text itself, or whether the text has to be rendered to an image.
+ *
+ * The encoder only sends text in the single byte code pages of the printer, so a character is printed natively only if it is in
+ * one of them. Scripts that are shaped or written right to left, such as Arabic, Hebrew, Thai and Devanagari, are in addition only
+ * printed natively when the printer lists their language in {@link PrinterSettings#getSupportedLanguages()}, as a printer without
+ * the fonts for them prints the bytes of the code page as unjoined letters in the wrong order.
+ *
+ * Languages are matched on their ISO 639 code, so "ar", "ar-SA" and "ar_SA" all give the Arabic script.
+ */
+public class NativeScripts {
+
+    private final CodePageTranscoder transcoder;
+    private final Set<Character.UnicodeBlock> nativeBlocks = new HashSet<>();
+
+    /**
+     * @param transcoder         the transcoder of the code pages of the printer
+     * @param supportedLanguages the languages that the printer has fonts for, or null
+     */
+    public NativeScripts(@NonNull CodePageTranscoder transcoder, String[] supportedLanguages) {
+        this.transcoder = transcoder;
+        if (supportedLanguages != null) {
+            for (String language : supportedLanguages) {
+                if (language != null) {
+                    addBlocks(getLanguageCode(language));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param text the text
+     * @return true if the printer can print every character of the text itself
+     */
+    public boolean canPrint(@NonNull CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (!transcoder.canEncode(c)) {
+                return false;
+            }
+            if (c >= 0x80) {
+                Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+                if (needsFont(block) && !nativeBlocks.contains(block)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean needsFont(Character.UnicodeBlock block) {
+        return block == Character.UnicodeBlock.ARABIC || block == Character.UnicodeBlock.ARABIC_SUPPLEMENT
+                || block == Character.UnicodeBlock.ARABIC_PRESENTATION_FORMS_A
+                || block == Character.UnicodeBlock.ARABIC_PRESENTATION_FORMS_B || block == Character.UnicodeBlock.HEBREW
+                || block == Character.UnicodeBlock.THAI || block == Character.UnicodeBlock.DEVANAGARI;
+    }
+
+    private static String getLanguageCode(String language) {
+        int end = 0;
+        while (end < language.length() && Character.isLetter(language.charAt(end))) {
+            end++;
+        }
+        return language.substring(0, end).toLowerCase(Locale.ENGLISH);
+    }
+
+    private void addBlocks(String languageCode) {
+        switch (languageCode) {
+            case "ar":
+            case "fa":
+            case "ur":
+                add(Character.UnicodeBlock.ARABIC, Character.UnicodeBlock.ARABIC_SUPPLEMENT,
+                    Character.UnicodeBlock.ARABIC_PRESENTATION_FORMS_A, Character.UnicodeBlock.ARABIC_PRESENTATION_FORMS_B);
+                break;
+            case "he":
+                add(Character.UnicodeBlock.HEBREW);
+                break;
+            case "th":
+                add(Character.UnicodeBlock.THAI);
+                break;
+            case "hi":
+                add(Character.UnicodeBlock.DEVANAGARI);
+                break;
+            default:
+                // other scripts print from the code pages alone, or have no code page and are always rendered
+                break;
+        }
+    }
+
+    private void add(Character.UnicodeBlock... blocks) {
+        for (Character.UnicodeBlock block : blocks) {
+            nativeBlocks.add(block);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+/**
+ * PackBits run-length encoding, as used by the compressed raster commands of receipt printers.
+ *
+ * Each run starts with a header byte n. For n from 0 to 127 the next n + 1 bytes are copied as they are, for n from -1 to -127 the
+ * next byte is repeated 1 - n times and n of -128 is skipped. Raster images of receipts are mostly runs of white or black, which
+ * this shrinks to two bytes per 128 bytes of the run.
+ */
+public final class PackBits {
+
+    private static final int MAX_RUN = 128;
+
+    private PackBits() {
+    }
+
+    /**
+     * @param length the number of bytes to encode
+     * @return the largest size that the bytes can encode to, which is when there are no runs at all
+     */
+    public static int getMaxEncodedLength(int length) {
+        return length + (length + MAX_RUN - 1) / MAX_RUN;
+    }
+
+    /**
+     * @param source            the bytes to encode
+     * @param offset            the offset of the first byte to encode
+     * @param length            the number of bytes to encode
+     * @param destination       the array the encoded bytes are written to, which must have room for {@link #getMaxEncodedLength}
+     *                          bytes from the destination offset
+     * @param destinationOffset the offset the encoded bytes are written from
+     * @return the number of encoded bytes
+     */
+    public static int encode(@NonNull byte[] source, int offset, int length, @NonNull byte[] destination, int destinationOffset) {
+        int end = offset + length;
+        int position = destinationOffset;
+        int index = offset;
+        while (index < end) {
+            int run = countRepeats(source, index, end);
+            if (run >= 2) {
+                destination[position++] = (byte) (1 - run);
+                destination[position++] = source[index];
+                index += run;
+                continue;
+            }
+            // a literal run lasts until the next repeat of at least three bytes, as a repeat of two would not be any shorter
+            int literalStart = index;
+            int literalEnd = index + 1;
+            while (literalEnd < end && literalEnd - literalStart < MAX_RUN && countRepeats(source, literalEnd, end) < 3) {
+                literalEnd++;
+            }
+            int literalLength = literalEnd - literalStart;
+            destination[position++] = (byte) (literalLength - 1);
+            System.arraycopy(source, literalStart, destination, position, literalLength);
+            position += literalLength;
+            index = literalEnd;
+        }
+        return position - destinationOffset;
+    }
+
+    /**
+     * @param source            the encoded bytes
+     * @param offset            the offset of the first encoded byte
+     * @param length            the number of encoded bytes
+     * @param destination       the array the decoded bytes are written to, which must be large enough for them
+     * @param destinationOffset the offset the decoded bytes are written from
+     * @return the number of decoded bytes
+     */
+    public static int decode(@NonNull byte[] source, int offset, int length, @NonNull byte[] destination, int destinationOffset) {
+        int end = offset + length;
+        int position = destinationOffset;
+        int index = offset;
+        while (index < end) {
+            int header = source[index++];
+            if (header >= 0) {
+                System.arraycopy(source, index, destination, position, header + 1);
+                index += header + 1;
+                position += header + 1;
+            } else if (header != -128) {
+                byte value = source[index++];
+                for (int i = 0; i < 1 - header; i++) {
+                    destination[position++] = value;
+                }
+            }
+        }
+        return position - destinationOffset;
+    }
+
+    private static int countRepeats(byte[] source, int index, int end) {
+        int run = 1;
+        while (index + run < end && run < MAX_RUN && source[index + run] == source[index]) {
+            run++;
+        }
+        return run;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A monochrome image of printer dots, packed eight dots to a byte with the leftmost dot in the most significant bit and a set bit
+ * for a black dot, as expected by the raster commands of receipt printers
+ */
+public class RasterImage {
+
+    private final int width;
+    private final int height;
+    private final int bytesPerRow;
+    private final byte[] bits;
+
+    /**
+     * @param width  the width in dots
+     * @param height the height in dots
+     * @param bits   the packed rows, of (width + 7) / 8 bytes each
+     */
+    public RasterImage(int width, int height, @NonNull byte[] bits) {
+        this.width = width;
+        this.height = height;
+        this.bytesPerRow = (width + 7) / 8;
+        if (bits.length < bytesPerRow * height) {
+            throw new IllegalArgumentException("Expected " + bytesPerRow * height + " bytes but got " + bits.length);
+        }
+        this.bits = bits;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBytesPerRow() {
+        return bytesPerRow;
+    }
+
+    /**
+     * @return the packed rows, which are not copied
+     */
+    @NonNull
+    public byte[] getBits() {
+        return bits;
+    }
+
+    /**
+     * @param x the column
+     * @param y the row
+     * @return true if the dot is black
+     */
+    public boolean isBlack(int x, int y) {
+        return (bits[y * bytesPerRow + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.driver.common.BoundedLruCache;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cache of runs of text rendered to printer dots, for text in scripts that the printer cannot print itself, such as Arabic, Thai
+ * or Chinese on printers without those fonts.
+ *
+ * Rendering text is far slower than encoding it, and the same runs, such as the labels and the shop name of a receipt, come back
+ * on every receipt. Whole runs are cached rather than single glyphs, as scripts such as Arabic and Thai join or stack their
+ * glyphs, so a glyph does not look the same in every run. Runs are keyed by the text, the text size, the style and the maximum
+ * width, and the cache is bounded by the size of the rendered dots. Each cache has its own {@link Renderer} and so its own font.
+ *
+ * Runs are rendered on a single line, so text is first broken into lines with {@link #wrap}, at its line feeds and where it
+ * would run past the width.
+ *
+ * This class is thread safe.
+ */
+public class TextRunCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    /**
+     * Renders a run of text to printer dots
+     */
+    public interface Renderer {
+
+        /**
+         * @param text     the text, on a single line
+         * @param textSize the height of the text in dots
+         * @param bold     true for bold text
+         * @param maxWidth the width in dots that the text is clipped to, or 0 for no limit
+         * @return the rendered text
+         */
+        @NonNull
+        RasterImage render(@NonNull String text, int textSize, boolean bold, int maxWidth);
+
+        /**
+         * @param text     the text, on a single line
+         * @param textSize the height of the text in dots
+         * @param bold     true for bold text
+         * @return the width in dots that the text takes when it is rendered
+         */
+        int measure(@NonNull String text, int textSize, boolean bold);
+    }
+
+    private final Renderer renderer;
+    private final BoundedLruCache<RunKey, RasterImage> cache;
+
+    public TextRunCache() {
+        this(new CanvasTextRenderer(), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param renderer renders the runs that are not cached
+     * @param maxBytes the maximum total size of the rendered runs
+     */
+    public TextRunCache(@NonNull Renderer renderer, long maxBytes) {
+        this.renderer = renderer;
+        this.cache = new BoundedLruCache<>(maxBytes, new BoundedLruCache.Weigher<RunKey, RasterImage>() {
+            @Override
+            public int weigh(RunKey key, RasterImage rasterImage) {
+                return rasterImage.getBits().length;
+            }
+        });
+    }
+
+    /**
+     * @param text     the text, on a single line
+     * @param textSize the height of the text in dots
+     * @param bold     true for bold text
+     * @param maxWidth the width in dots that the text is clipped to, or 0 for no limit
+     * @return the rendered text, which must not be changed
+     */
+    @NonNull
+    public RasterImage get(@NonNull String text, int textSize, boolean bold, int maxWidth) {
+        RunKey key = new RunKey(text, textSize, bold, maxWidth);
+        RasterImage rasterImage = cache.get(key);
+        if (rasterImage == null) {
+            // two threads may both render a missing run, which is cheaper than rendering under a lock
+            rasterImage = renderer.render(text, textSize, bold, maxWidth);
+            cache.put(key, rasterImage);
+        }
+        return rasterImage;
+    }
+
+    /**
+     * Breaks text into lines that each fit the width: at its line feeds, then between words, and within a word that does not
+     * fit on a line of its own
+     *
+     * @param text     the text
+     * @param textSize the height of the text in dots
+     * @param bold     true for bold text
+     * @param maxWidth the width in dots of a line, or 0 for no limit
+     * @return the lines of the text, to be rendered one by one
+     */
+    @NonNull
+    public List<String> wrap(@NonNull String text, int textSize, boolean bold, int maxWidth) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            wrapLine(text.substring(start, end), textSize, bold, maxWidth, lines);
+            start = end + 1;
+        }
+        wrapLine(text.substring(start), textSize, bold, maxWidth, lines);
+        return lines;
+    }
+
+    private void wrapLine(String line, int textSize, boolean bold, int maxWidth, List<String> lines) {
+        boolean wrapped = false;
+        while (maxWidth > 0 && !line.isEmpty() && renderer.measure(line, textSize, bold) > maxWidth) {
+            int end = findLineEnd(line, textSize, bold, maxWidth);
+            lines.add(trimTrailingSpaces(line.substring(0, end)));
+            line = line.substring(end);
+            wrapped = true;
+        }
+        if (!line.isEmpty() || !wrapped) {
+            lines.add(line);
+        }
+    }
+
+    /**
+     * @return the end of the longest start of the line that fits the width, at a line break opportunity if there is one, and
+     * otherwise at a character boundary, taking at least one character
+     */
+    private int findLineEnd(String line, int textSize, boolean bold, int maxWidth) {
+        // the whole line does not fit, so search for the longest start that does
+        int fits = 0;
+        int tooLong = line.length();
+        while (tooLong - fits > 1) {
+            int middle = (fits + tooLong) >>> 1;
+            if (renderer.measure(line.substring(0, middle), textSize, bold) <= maxWidth) {
+                fits = middle;
+            } else {
+                tooLong = middle;
+            }
+        }
+        BreakIterator lineBreaks = BreakIterator.getLineInstance();
+        lineBreaks.setText(line);
+        int end = lineBreaks.isBoundary(fits) ? fits : lineBreaks.preceding(fits);
+        if (end > 0) {
+            return end;
+        }
+        BreakIterator characters = BreakIterator.getCharacterInstance();
+        characters.setText(line);
+        end = characters.isBoundary(fits) ? fits : characters.preceding(fits);
+        return end > 0 ? end : characters.following(0);
+    }
+
+    private static String trimTrailingSpaces(String text) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    /**
+     * @return the total size of the cached runs
+     */
+    public long getBytes() {
+        return cache.getWeight();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static final class RunKey {
+        private final String text;
+        private final int textSize;
+        private final boolean bold;
+        private final int maxWidth;
+
+        RunKey(String text, int textSize, boolean bold, int maxWidth) {
+            this.text = text;
+            this.textSize = textSize;
+            this.bold = bold;
+            this.maxWidth = maxWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RunKey that = (RunKey) o;
+            return textSize == that.textSize && bold == that.bold && maxWidth == that.maxWidth && text.equals(that.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + textSize;
+            result = 31 * result + (bold ? 1 : 0);
+            result = 31 * result + maxWidth;
+            return result;
+        }
+    }
+}
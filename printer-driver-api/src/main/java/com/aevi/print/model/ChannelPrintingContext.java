@@ -5,14 +5,49 @@ import com.aevi.android.rxmessenger.MessageException;
 
 public class ChannelPrintingContext implements PrintingContext {
     private ChannelServer channelServer;
+    private volatile MessageCompressor messageCompressor;
 
     public ChannelPrintingContext(ChannelServer channelServer) {
         this.channelServer = channelServer;
     }
 
+    /**
+     * Applies the compression negotiated with the client to all subsequent messages
+     *
+     * @param messageCompression the compression requested by the client
+     * @return the compression that has been accepted, to be sent back to the client
+     */
+    public MessageCompression negotiateCompression(MessageCompression messageCompression) {
+        if (messageCompression.isEnabled()) {
+            int threshold = messageCompression.getThreshold() > 0 ? messageCompression.getThreshold() : MessageCompressor.DEFAULT_THRESHOLD;
+            messageCompressor = new MessageCompressor(threshold);
+            return new MessageCompression(MessageCompression.DEFLATE, messageCompressor.getThreshold());
+        }
+        messageCompressor = null;
+        return new MessageCompression(MessageCompression.NONE, 0);
+    }
+
+    /**
+     * Decompresses a message received from the client. Compressed messages are only accepted once compression has been negotiated.
+     *
+     * @param message the message received from the client
+     * @return the decompressed message, or the message itself if it was not compressed
+     * @throws IllegalArgumentException if the message cannot be decompressed, or compression has not been negotiated
+     */
+    public String decompress(String message) {
+        if (!MessageCompressor.isCompressed(message)) {
+            return message;
+        }
+        if (messageCompressor == null) {
+            throw new IllegalArgumentException("Compressed message received before compression was negotiated");
+        }
+        return MessageCompressor.decompress(message);
+    }
+
     @Override
     public boolean send(String message) {
-        return channelServer.send(message);
+        MessageCompressor compressor = messageCompressor;
+        return channelServer.send(compressor != null ? compressor.compress(message) : message);
     }
 
     @Override
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how effective message compression has been.
+ *
+ * Sizes are counted in characters, as messages are sent on the print channel as strings and a compressed message is sent as the
+ * Base64 text of the deflated bytes.
+ */
+public class CompressionStats {
+
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong uncompressedMessages = new AtomicLong();
+    private final AtomicLong charsBeforeCompression = new AtomicLong();
+    private final AtomicLong charsAfterCompression = new AtomicLong();
+    private final AtomicLong compressionTimeNanos = new AtomicLong();
+    private final AtomicLong decompressedMessages = new AtomicLong();
+    private final AtomicLong decompressionTimeNanos = new AtomicLong();
+
+    void onCompressed(long charsBefore, long charsAfter, long timeNanos) {
+        compressedMessages.incrementAndGet();
+        charsBeforeCompression.addAndGet(charsBefore);
+        charsAfterCompression.addAndGet(charsAfter);
+        compressionTimeNanos.addAndGet(timeNanos);
+    }
+
+    void onSentUncompressed() {
+        uncompressedMessages.incrementAndGet();
+    }
+
+    void onDecompressed(long timeNanos) {
+        decompressedMessages.incrementAndGet();
+        decompressionTimeNanos.addAndGet(timeNanos);
+    }
+
+    /**
+     * @return the number of messages that were sent compressed
+     */
+    public long getCompressedMessages() {
+        return compressedMessages.get();
+    }
+
+    /**
+     * @return the number of messages that were sent as is, because they were below the threshold or did not compress
+     */
+    public long getUncompressedMessages() {
+        return uncompressedMessages.get();
+    }
+
+    /**
+     * @return the total length in characters of the messages that were sent compressed, before they were compressed
+     */
+    public long getCharsBeforeCompression() {
+        return charsBeforeCompression.get();
+    }
+
+    /**
+     * @return the total length in characters of the compressed messages that were sent
+     */
+    public long getCharsAfterCompression() {
+        return charsAfterCompression.get();
+    }
+
+    /**
+     * @return the compressed size as a fraction of the original size, or 1 if nothing has been compressed yet
+     */
+    public double getCompressionRatio() {
+        long before = charsBeforeCompression.get();
+        return before == 0 ? 1 : (double) charsAfterCompression.get() / before;
+    }
+
+    public long getCompressionTimeNanos() {
+        return compressionTimeNanos.get();
+    }
+
+    public long getDecompressedMessages() {
+        return decompressedMessages.get();
+    }
+
+    public long getDecompressionTimeNanos() {
+        return decompressionTimeNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{" +
+                "compressedMessages=" + getCompressedMessages() +
+                ", uncompressedMessages=" + getUncompressedMessages() +
+                ", compressionRatio=" + getCompressionRatio() +
+                ", compressionTimeNanos=" + getCompressionTimeNanos() +
+                ", decompressedMessages=" + getDecompressedMessages() +
+                ", decompressionTimeNanos=" + getDecompressionTimeNanos() +
+                '}';
+    }
+}
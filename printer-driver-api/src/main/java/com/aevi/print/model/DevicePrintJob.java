@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+/**
+ * A {@link PrintJob} state that also gives the id of the printer that handled the print job.
+ *
+ * This is sent when a print job has been handled by a different printer to the one the client asked for, i.e. by a member of a
+ * printer group or by a backup printer after a failover. Clients that only know about {@link PrintJob} ignore the extra field.
+ */
+public class DevicePrintJob extends PrintJob {
+
+    private final String printerId;
+
+    public DevicePrintJob(PrintJob printJob, String printerId) {
+        super(printJob.getPrintJobState(), printJob.getFailedReason(), printJob.getDiagnosticMessage());
+        this.printerId = printerId;
+    }
+
+    /**
+     * @return the id of the printer that handled the print job
+     */
+    public String getPrinterId() {
+        return printerId;
+    }
+}
@@ -1,19 +1,31 @@
 package com.aevi.print.model;
 
-import com.aevi.util.json.JsonConverter;
 import com.aevi.util.json.Jsonable;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 
 public class DriverProperties implements Jsonable {
 
+    private static final String EDITABLE_SETTINGS = "editableSettings";
+    private static final TypeAdapter<DriverProperties> TYPE_ADAPTER = new DriverPropertiesTypeAdapter();
+
     private boolean editableSettings;
 
     @Override
     public String toJson() {
-        return JsonConverter.serialize(this);
+        return TYPE_ADAPTER.toJson(this);
     }
 
     public static DriverProperties fromJson(String json) {
-        return JsonConverter.deserialize(json, DriverProperties.class);
+        try {
+            return TYPE_ADAPTER.fromJson(json);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid driver properties: " + json, e);
+        }
     }
 
     public void setEditableSettings(boolean enable) {
@@ -24,4 +36,40 @@ public class DriverProperties implements Jsonable {
         return editableSettings;
     }
 
+    /**
+     * Streaming adapter so that the driver properties are (de)serialized without any reflection.
+     * The JSON produced is identical to the reflective form.
+     */
+    private static class DriverPropertiesTypeAdapter extends TypeAdapter<DriverProperties> {
+
+        @Override
+        public void write(JsonWriter out, DriverProperties driverProperties) throws IOException {
+            if (driverProperties == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name(EDITABLE_SETTINGS).value(driverProperties.editableSettings);
+            out.endObject();
+        }
+
+        @Override
+        public DriverProperties read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            DriverProperties driverProperties = new DriverProperties();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (EDITABLE_SETTINGS.equals(in.nextName())) {
+                    driverProperties.editableSettings = in.nextBoolean();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return driverProperties;
+        }
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import com.aevi.util.json.JsonConverter;
+import com.aevi.util.json.Jsonable;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * The message used to negotiate the compression of messages on a print channel.
+ *
+ * A client that can handle compressed messages sends this message before its first print request. The driver replies with the
+ * compression it has accepted, after which messages above the threshold may be sent compressed in either direction.
+ */
+public class MessageCompression implements Jsonable {
+
+    public static final String NONE = "none";
+    public static final String DEFLATE = "deflate";
+
+    private static final String MESSAGE_COMPRESSION_FIELD = "messageCompression";
+
+    // A print request or payload has no field of this name, see isMessageCompression
+    private String messageCompression;
+    private int threshold;
+
+    MessageCompression() {
+        // for deserialization
+    }
+
+    /**
+     * @param messageCompression the compression algorithm, either {@link #DEFLATE} or {@link #NONE}
+     * @param threshold          the size in characters below which messages are never compressed
+     */
+    public MessageCompression(String messageCompression, int threshold) {
+        this.messageCompression = messageCompression;
+        this.threshold = threshold;
+    }
+
+    public String getMessageCompression() {
+        return messageCompression;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public boolean isEnabled() {
+        return DEFLATE.equals(messageCompression);
+    }
+
+    @Override
+    public String toJson() {
+        return JsonConverter.serialize(this);
+    }
+
+    public static MessageCompression fromJson(String json) {
+        return JsonConverter.deserialize(json, MessageCompression.class);
+    }
+
+    /**
+     * @param json a message received on the print channel
+     * @return true if the message is a compression negotiation message
+     */
+    public static boolean isMessageCompression(String json) {
+        if (json == null) {
+            return false;
+        }
+        // only the names of the top level fields are read, the values are skipped without being parsed into objects
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (MESSAGE_COMPRESSION_FIELD.equals(reader.nextName())) {
+                    return true;
+                }
+                reader.skipValue();
+            }
+            return false;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+}
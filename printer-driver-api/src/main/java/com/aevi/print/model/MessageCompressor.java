@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses print channel messages using deflate.
+ *
+ * A compressed message is framed as <code>deflate:</code> followed by the Base64 encoded deflate stream of the UTF-8 message.
+ * Messages shorter than the threshold, or that do not get any smaller, are sent unchanged.
+ *
+ * A received message is refused if it inflates to more than {@link #MAX_MESSAGE_SIZE} bytes, so that a small message cannot make
+ * the driver run out of memory.
+ */
+public class MessageCompressor {
+
+    public static final int DEFAULT_THRESHOLD = 2048;
+    public static final int MIN_THRESHOLD = 256;
+    public static final int MAX_MESSAGE_SIZE = 8 * 1024 * 1024;
+
+    private static final String DEFLATE_PREFIX = "deflate:";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 4096;
+    private static final CompressionStats STATS = new CompressionStats();
+
+    private final int threshold;
+
+    /**
+     * @param threshold the size in characters below which messages are not compressed (never less than {@link #MIN_THRESHOLD})
+     */
+    public MessageCompressor(int threshold) {
+        this.threshold = Math.max(threshold, MIN_THRESHOLD);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the compression counters of all print channels
+     */
+    public static CompressionStats getStats() {
+        return STATS;
+    }
+
+    /**
+     * @param message the message to send
+     * @return the compressed message, or the original message if compressing it is not worthwhile
+     */
+    public String compress(String message) {
+        if (message == null || message.length() < threshold) {
+            STATS.onSentUncompressed();
+            return message;
+        }
+
+        long start = System.nanoTime();
+        byte[] original = message.getBytes(UTF_8);
+        byte[] deflated = deflate(original);
+        // Base64 adds a third on top of the deflated size
+        int framedLength = DEFLATE_PREFIX.length() + (deflated.length + 2) / 3 * 4;
+        if (framedLength >= message.length()) {
+            STATS.onSentUncompressed();
+            return message;
+        }
+        String compressed = DEFLATE_PREFIX + Base64.encodeToString(deflated, Base64.NO_WRAP);
+        STATS.onCompressed(message.length(), compressed.length(), System.nanoTime() - start);
+        return compressed;
+    }
+
+    /**
+     * @param message a received message
+     * @return true if the message was compressed by a {@link MessageCompressor}
+     */
+    public static boolean isCompressed(String message) {
+        return message != null && message.startsWith(DEFLATE_PREFIX);
+    }
+
+    /**
+     * @param message a received message
+     * @return the decompressed message, or the message itself if it was not compressed
+     * @throws IllegalArgumentException if the message cannot be decompressed, or is larger than {@link #MAX_MESSAGE_SIZE} bytes
+     */
+    public static String decompress(String message) {
+        if (!isCompressed(message)) {
+            return message;
+        }
+        long start = System.nanoTime();
+        byte[] deflated = Base64.decode(message.substring(DEFLATE_PREFIX.length()), Base64.NO_WRAP);
+        String decompressed = new String(inflate(deflated, MAX_MESSAGE_SIZE), UTF_8);
+        STATS.onDecompressed(System.nanoTime() - start);
+        return decompressed;
+    }
+
+    static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] input, int maxSize) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) Math.min(input.length * 4L, maxSize));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed message");
+                }
+                if (outputStream.size() + count > maxSize) {
+                    throw new IllegalArgumentException("Compressed message is larger than " + maxSize + " bytes");
+                }
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
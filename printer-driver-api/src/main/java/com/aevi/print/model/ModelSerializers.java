@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import android.util.Log;
+
+import com.aevi.util.json.JsonConverter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Completable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Prepares the serializers of every model type that the driver API sends or receives.
+ *
+ * Types owned by this API (e.g. {@link DriverProperties} and {@link PrintRequest}) use streaming type adapters, which are only
+ * warmed up here together with the payload a print request carries. The print-api types
+ * ({@link PrintJob}, {@link PrinterStatus}, {@link PrintPayload}, {@link PrintAction} and {@link PrinterSettingsList}) are serialized
+ * reflectively, so their reflection scan is done here once, away from the first print or status request.
+ *
+ * The base driver services call {@link #preloadInBackground()} when they are created.
+ */
+public final class ModelSerializers {
+    private static final String TAG = ModelSerializers.class.getSimpleName();
+    private static final String PRELOAD_PRINTER_ID = "preload";
+    private static final String EMPTY_JSON = "{}";
+
+    private static final AtomicBoolean PRELOAD_STARTED = new AtomicBoolean();
+
+    private ModelSerializers() {
+    }
+
+    /**
+     * Prepares the serializers on a background thread. Only the first call has any effect.
+     */
+    public static void preloadInBackground() {
+        if (PRELOAD_STARTED.compareAndSet(false, true)) {
+            Completable.fromAction(new Action() {
+                @Override
+                public void run() {
+                    preloadNow();
+                }
+            }).subscribeOn(Schedulers.io()).subscribe(new Action() {
+                @Override
+                public void run() {
+                    Log.d(TAG, "Model serializers ready");
+                }
+            }, new Consumer<Throwable>() {
+                @Override
+                public void accept(Throwable throwable) {
+                    Log.w(TAG, "Failed to preload the model serializers: " + throwable.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Prepares the serializers on the calling thread
+     */
+    public static void preloadNow() {
+        PrintJob.fromJson(PrintJobMessages.toJson(PrintJobMessages.IN_PROGRESS));
+        PrintJob.fromJson(new PrintJob(PrintJob.State.FAILED, PrinterMessages.ERROR_BUSY, PRELOAD_PRINTER_ID).toJson());
+        PrinterStatus.fromJson(new PrinterStatus(PrinterMessages.PRINTER_READY).toJson());
+        PrintPayload.fromJson(new PrintPayload(PRELOAD_PRINTER_ID).toJson());
+        PrintAction.fromJson(EMPTY_JSON);
+        JsonConverter.serialize(new PrinterSettingsList(new PrinterSettings[0]));
+        DriverProperties.fromJson(new DriverProperties().toJson());
+        PrintRequest.fromJson(new PrintRequest(new PrintPayload(PRELOAD_PRINTER_ID)).toJson());
+    }
+}
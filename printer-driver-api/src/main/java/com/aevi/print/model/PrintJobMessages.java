@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+/**
+ * Shared {@link PrintJob} instances for the states that carry no extra information, together with their pre-serialized JSON.
+ *
+ * Every print job emits {@link #IN_PROGRESS} and most finish with {@link #PRINTED}, so these are created and serialized once
+ * rather than for every job.
+ */
+public final class PrintJobMessages {
+
+    public static final PrintJob IN_PROGRESS = new PrintJob(PrintJob.State.IN_PROGRESS);
+    public static final PrintJob PRINTED = new PrintJob(PrintJob.State.PRINTED);
+
+    private static final String IN_PROGRESS_JSON = IN_PROGRESS.toJson();
+    private static final String PRINTED_JSON = PRINTED.toJson();
+
+    private PrintJobMessages() {
+    }
+
+    /**
+     * The progress of a print request with several copies (see {@link PrintRequest#setCopies}), which is emitted as each copy has
+     * been printed
+     *
+     * @param copiesPrinted the number of copies printed so far
+     * @param copyCount     the number of copies to print
+     * @return a print job in progress, with the progress as its diagnostic message, e.g. "Printed copy 1 of 2"
+     */
+    public static PrintJob copyPrinted(int copiesPrinted, int copyCount) {
+        return new PrintJob(PrintJob.State.IN_PROGRESS, null, "Printed copy " + copiesPrinted + " of " + copyCount);
+    }
+
+    /**
+     * Serializes the print job, returning the cached encoding when it is one of the shared instances
+     *
+     * @param printJob the print job to serialize
+     * @return the JSON representation of the print job
+     */
+    public static String toJson(PrintJob printJob) {
+        if (printJob == IN_PROGRESS) {
+            return IN_PROGRESS_JSON;
+        } else if (printJob == PRINTED) {
+            return PRINTED_JSON;
+        }
+        return printJob.toJson();
+    }
+
+    /**
+     * @param printJob the print job to check
+     * @return true if no further updates will follow this print job state
+     */
+    public static boolean isFinalState(PrintJob printJob) {
+        return printJob.getPrintJobState() == PrintJob.State.PRINTED || printJob.getPrintJobState() == PrintJob.State.FAILED;
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import com.aevi.util.json.Jsonable;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An envelope around a {@link PrintPayload} carrying the driver specific options of a print request.
+ *
+ * Clients may send either a plain {@link PrintPayload} or a print request to the driver service. A plain payload is treated as a
+ * print request with all options left at their defaults.
+ */
+public class PrintRequest implements Jsonable {
+
+    /**
+     * The priority classes of printer work, from the most to the least latency sensitive
+     */
+    public enum Priority {
+        /**
+         * Work that someone is waiting on at the counter, such as opening the cash drawer. Printer actions always have this priority.
+         */
+        INTERACTIVE,
+        /**
+         * A receipt that is handed to a customer
+         */
+        CUSTOMER_RECEIPT,
+        /**
+         * Bulk printing that nobody is waiting on, such as an end of day report
+         */
+        BACKGROUND_REPORT
+    }
+
+    /**
+     * What the printer does between the copies of a print request
+     */
+    public enum CopySeparation {
+        /**
+         * Each copy is cut off, e.g. for a merchant and a customer copy
+         */
+        CUT,
+        /**
+         * The driver waits between copies, e.g. so that each part of a kitchen ticket can be torn off
+         */
+        PAUSE,
+        /**
+         * The copies are printed one after the other and only the last one is cut off
+         */
+        NONE
+    }
+
+    /**
+     * A payload that the driver has spooled to disk, see {@link #setSpooledPrintPayload}
+     */
+    public interface SpooledPrintPayload {
+        /**
+         * Reads the payload back from disk and releases it
+         *
+         * @return the payload
+         * @throws IOException if the payload could not be read
+         */
+        PrintPayload read() throws IOException;
+
+        /**
+         * Deletes the payload from disk without reading it
+         */
+        void release();
+    }
+
+    private static final int VERSION = 1;
+    private static final String VERSION_FIELD = "printRequestVersion";
+    private static final String PRINT_PAYLOAD = "printPayload";
+    private static final String SHARED_REGIONS = "sharedRegions";
+    private static final String IDEMPOTENCY_KEY = "idempotencyKey";
+    private static final String PRIORITY = "priority";
+    private static final String DEADLINE_MS = "deadlineMs";
+    private static final String TEMPLATE_ID = "templateId";
+    private static final String SLOT_VALUES = "slotValues";
+    private static final String COPIES = "copies";
+    private static final String COPY_SEPARATION = "copySeparation";
+    private static final String REGION_ID = "id";
+    private static final String REGION_URI = "uri";
+    private static final String REGION_OFFSET = "offset";
+    private static final String REGION_LENGTH = "length";
+    private static final TypeAdapter<PrintRequest> TYPE_ADAPTER = new PrintRequestTypeAdapter();
+
+    // A plain payload has no field of this name, see isPrintRequest
+    private int printRequestVersion = VERSION;
+    private PrintPayload printPayload;
+    private List<SharedRegion> sharedRegions;
+    private String idempotencyKey;
+    private Priority priority;
+    private long deadlineMs;
+    private String templateId;
+    private Map<String, String> slotValues;
+    private int copies;
+    private CopySeparation copySeparation;
+    // Set by the driver service from the binding of the client, so never taken from the message
+    private transient String callingPackageName;
+    // Set by the driver when a print job that never printed hands back a payload that is still spooled to disk
+    private transient SpooledPrintPayload spooledPrintPayload;
+
+    PrintRequest() {
+        // for deserialization
+    }
+
+    public PrintRequest(PrintPayload printPayload) {
+        this.printPayload = printPayload;
+    }
+
+    public PrintPayload getPrintPayload() {
+        return printPayload;
+    }
+
+    /**
+     * Replaces the payload, e.g. the driver drops the payload of a waiting print job whilst it is spooled to disk
+     *
+     * @param printPayload the payload to print
+     */
+    public void setPrintPayload(PrintPayload printPayload) {
+        this.printPayload = printPayload;
+    }
+
+    /**
+     * Hands back the payload of a print job that failed before it was printed whilst the payload is still spooled to disk. The payload
+     * is only read back into this request by {@link #restorePrintPayload()}, should the request be resubmitted.
+     *
+     * @param spooledPrintPayload the spooled payload
+     */
+    public synchronized void setSpooledPrintPayload(SpooledPrintPayload spooledPrintPayload) {
+        releaseSpooledPrintPayload();
+        this.spooledPrintPayload = spooledPrintPayload;
+    }
+
+    /**
+     * Reads a payload that was handed back whilst spooled to disk back into this request, e.g. before the request is resubmitted to
+     * a backup printer. Does nothing if no payload was handed back.
+     *
+     * @throws IOException if the spooled payload could not be read
+     */
+    public synchronized void restorePrintPayload() throws IOException {
+        SpooledPrintPayload spooledPrintPayload = this.spooledPrintPayload;
+        if (spooledPrintPayload != null) {
+            this.spooledPrintPayload = null;
+            printPayload = spooledPrintPayload.read();
+        }
+    }
+
+    /**
+     * Deletes a payload that was handed back whilst spooled to disk once the request will not be resubmitted
+     */
+    public synchronized void releaseSpooledPrintPayload() {
+        SpooledPrintPayload spooledPrintPayload = this.spooledPrintPayload;
+        if (spooledPrintPayload != null) {
+            this.spooledPrintPayload = null;
+            spooledPrintPayload.release();
+        }
+    }
+
+    /**
+     * Adds a reference to a large image or blob that is passed out-of-band rather than inline in the payload
+     *
+     * @param sharedRegion the region of a shared file holding the data
+     */
+    public void addSharedRegion(SharedRegion sharedRegion) {
+        if (sharedRegions == null) {
+            sharedRegions = new ArrayList<>();
+        }
+        sharedRegions.add(sharedRegion);
+    }
+
+    public SharedRegion getSharedRegion(String id) {
+        if (sharedRegions != null) {
+            for (SharedRegion sharedRegion : sharedRegions) {
+                if (sharedRegion.getId().equals(id)) {
+                    return sharedRegion;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets a key chosen by the client that identifies this print job across retries.
+     * A request that is resubmitted with the same key, e.g. after a timeout, is attached to the job already submitted
+     * rather than being printed again. Keys are scoped to the client, so clients cannot attach to each other's print jobs.
+     *
+     * @param idempotencyKey a key that is unique to this print job, or null to always print the request
+     */
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * Sets the priority class of the print job. Waiting print jobs of a higher priority class are printed first. The driver may cap
+     * the priority class that a client can use.
+     *
+     * @param priority the priority class, the default is {@link Priority#CUSTOMER_RECEIPT}
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public Priority getPriority() {
+        return priority != null ? priority : Priority.CUSTOMER_RECEIPT;
+    }
+
+    /**
+     * Sets the time by which the print job should have been printed. When it is the turn of the client, its waiting print jobs of the
+     * same priority class with a deadline are printed earliest deadline first, ahead of those without one. A deadline does not take
+     * the turn of another client. A deadline that is missed is reported by the driver.
+     *
+     * @param deadlineMs the time in milliseconds after the request is received by the driver, or 0 for no deadline
+     */
+    public void setDeadlineMs(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    public boolean hasDeadline() {
+        return deadlineMs > 0;
+    }
+
+    /**
+     * Makes this a request to print a receipt template, see {@link #setSlotValue}. The first request for a template carries the
+     * payload of the template, with <code>{{name}}</code> placeholders in the text of its rows, which the driver keeps. Later
+     * requests for the template only need a payload with the printer id and the values of the slots.
+     *
+     * If the driver no longer has the template, e.g. after it was restarted, the print job fails and the client should send the
+     * payload of the template again.
+     *
+     * @param templateId the id of the template, or null for a plain print request
+     */
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public boolean isTemplateRequest() {
+        return templateId != null;
+    }
+
+    /**
+     * @param name  the name of the slot, as in the <code>{{name}}</code> placeholder of the template
+     * @param value the text that replaces the placeholder, which may span several lines
+     */
+    public void setSlotValue(String name, String value) {
+        if (slotValues == null) {
+            slotValues = new HashMap<>();
+        }
+        slotValues.put(name, value);
+    }
+
+    public Map<String, String> getSlotValues() {
+        return slotValues != null ? Collections.unmodifiableMap(slotValues) : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Sets the number of copies to print. The payload is decoded once and every copy is printed on the same connection, so that
+     * the copies are neither interleaved with other print jobs nor rejected as busy against each other.
+     *
+     * @param copies the number of copies, the default is 1
+     */
+    public void setCopies(int copies) {
+        this.copies = copies;
+    }
+
+    public int getCopies() {
+        return Math.max(1, copies);
+    }
+
+    /**
+     * @param copySeparation what the printer does between copies, the default is {@link CopySeparation#CUT}
+     */
+    public void setCopySeparation(CopySeparation copySeparation) {
+        this.copySeparation = copySeparation;
+    }
+
+    public CopySeparation getCopySeparation() {
+        return copySeparation != null ? copySeparation : CopySeparation.CUT;
+    }
+
+    /**
+     * @param callingPackageName the package of the client that sent this print request
+     */
+    public void setCallingPackageName(String callingPackageName) {
+        this.callingPackageName = callingPackageName;
+    }
+
+    public String getCallingPackageName() {
+        return callingPackageName;
+    }
+
+    public String getPrinterId() {
+        return printPayload != null ? printPayload.getPrinterId() : null;
+    }
+
+    @Override
+    public String toJson() {
+        return TYPE_ADAPTER.toJson(this);
+    }
+
+    public static PrintRequest fromJson(String json) {
+        try {
+            return TYPE_ADAPTER.fromJson(json);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid print request: " + json, e);
+        }
+    }
+
+    /**
+     * @param json a message received on the print channel
+     * @return true if the message is a print request rather than a plain {@link PrintPayload}
+     */
+    public static boolean isPrintRequest(String json) {
+        if (json == null) {
+            return false;
+        }
+        // only the names of the top level fields are read, the values are skipped without being parsed into objects
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (VERSION_FIELD.equals(reader.nextName())) {
+                    return true;
+                }
+                reader.skipValue();
+            }
+            return false;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Streaming adapter so that the envelope is (de)serialized without any reflection. The payload is a print-api type, whose rows
+     * only the print-api converter knows, so it is handed to {@link PrintPayload#toJson()} and {@link PrintPayload#fromJson}.
+     * The JSON produced is identical to the reflective form.
+     */
+    private static class PrintRequestTypeAdapter extends TypeAdapter<PrintRequest> {
+
+        @Override
+        public void write(JsonWriter out, PrintRequest printRequest) throws IOException {
+            if (printRequest == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name(VERSION_FIELD).value(printRequest.printRequestVersion);
+            if (printRequest.printPayload != null) {
+                out.name(PRINT_PAYLOAD).jsonValue(printRequest.printPayload.toJson());
+            }
+            if (printRequest.sharedRegions != null) {
+                out.name(SHARED_REGIONS).beginArray();
+                for (SharedRegion sharedRegion : printRequest.sharedRegions) {
+                    writeSharedRegion(out, sharedRegion);
+                }
+                out.endArray();
+            }
+            if (printRequest.idempotencyKey != null) {
+                out.name(IDEMPOTENCY_KEY).value(printRequest.idempotencyKey);
+            }
+            if (printRequest.priority != null) {
+                out.name(PRIORITY).value(printRequest.priority.name());
+            }
+            out.name(DEADLINE_MS).value(printRequest.deadlineMs);
+            if (printRequest.templateId != null) {
+                out.name(TEMPLATE_ID).value(printRequest.templateId);
+            }
+            if (printRequest.slotValues != null) {
+                out.name(SLOT_VALUES).beginObject();
+                for (Map.Entry<String, String> slotValue : printRequest.slotValues.entrySet()) {
+                    out.name(slotValue.getKey()).value(slotValue.getValue());
+                }
+                out.endObject();
+            }
+            out.name(COPIES).value(printRequest.copies);
+            if (printRequest.copySeparation != null) {
+                out.name(COPY_SEPARATION).value(printRequest.copySeparation.name());
+            }
+            out.endObject();
+        }
+
+        private static void writeSharedRegion(JsonWriter out, SharedRegion sharedRegion) throws IOException {
+            if (sharedRegion == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (sharedRegion.getId() != null) {
+                out.name(REGION_ID).value(sharedRegion.getId());
+            }
+            if (sharedRegion.getUri() != null) {
+                out.name(REGION_URI).value(sharedRegion.getUri());
+            }
+            out.name(REGION_OFFSET).value(sharedRegion.getOffset());
+            out.name(REGION_LENGTH).value(sharedRegion.getLength());
+            out.endObject();
+        }
+
+        @Override
+        public PrintRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            PrintRequest printRequest = new PrintRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (VERSION_FIELD.equals(name)) {
+                    printRequest.printRequestVersion = in.nextInt();
+                } else if (PRINT_PAYLOAD.equals(name)) {
+                    printRequest.printPayload = PrintPayload.fromJson(new JsonParser().parse(in).toString());
+                } else if (SHARED_REGIONS.equals(name)) {
+                    printRequest.sharedRegions = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        printRequest.sharedRegions.add(readSharedRegion(in));
+                    }
+                    in.endArray();
+                } else if (IDEMPOTENCY_KEY.equals(name)) {
+                    printRequest.idempotencyKey = in.nextString();
+                } else if (PRIORITY.equals(name)) {
+                    printRequest.priority = readEnum(in, Priority.class);
+                } else if (DEADLINE_MS.equals(name)) {
+                    printRequest.deadlineMs = in.nextLong();
+                } else if (TEMPLATE_ID.equals(name)) {
+                    printRequest.templateId = in.nextString();
+                } else if (SLOT_VALUES.equals(name)) {
+                    printRequest.slotValues = new HashMap<>();
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        String slotName = in.nextName();
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            printRequest.slotValues.put(slotName, null);
+                        } else {
+                            printRequest.slotValues.put(slotName, in.nextString());
+                        }
+                    }
+                    in.endObject();
+                } else if (COPIES.equals(name)) {
+                    printRequest.copies = in.nextInt();
+                } else if (COPY_SEPARATION.equals(name)) {
+                    printRequest.copySeparation = readEnum(in, CopySeparation.class);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return printRequest;
+        }
+
+        private static SharedRegion readSharedRegion(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String id = null;
+            String uri = null;
+            long offset = 0;
+            long length = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (REGION_ID.equals(name)) {
+                    id = in.nextString();
+                } else if (REGION_URI.equals(name)) {
+                    uri = in.nextString();
+                } else if (REGION_OFFSET.equals(name)) {
+                    offset = in.nextLong();
+                } else if (REGION_LENGTH.equals(name)) {
+                    length = in.nextLong();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SharedRegion(id, uri, offset, length);
+        }
+
+        /**
+         * As the reflective form, a constant that this version does not know is read as null, i.e. as the default
+         */
+        private static <E extends Enum<E>> E readEnum(JsonReader in, Class<E> enumType) throws IOException {
+            String constant = in.nextString();
+            for (E value : enumType.getEnumConstants()) {
+                if (value.name().equals(constant)) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+}
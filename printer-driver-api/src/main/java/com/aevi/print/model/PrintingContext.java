@@ -16,6 +16,18 @@ public interface PrintingContext {
      */
     boolean sendEndStream();
 
+    /**
+     * Send a final message to the client followed by the end of stream, so that the client never sees the end of stream without
+     * the final state of its print job. The message and the end of stream are sent as two separate messages.
+     *
+     * @param message The final message to send
+     * @return True if both the message and the end of stream were sent successfully
+     */
+    default boolean sendAndEndStream(String message) {
+        boolean sent = send(message);
+        return sendEndStream() && sent;
+    }
+
     /**
      * Send an error condition to the client
      *
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A reference to a region of a file that holds a large image or blob belonging to a {@link PrintRequest}.
+ *
+ * The data itself never travels through the print channel, only this reference does. The file is shared by a content provider of
+ * the client, which grants the driver read access to the uri (e.g. with <code>Intent.FLAG_GRANT_READ_URI_PERMISSION</code> or
+ * <code>Context.grantUriPermission</code>). The driver maps the region into memory and reads it in place.
+ */
+public class SharedRegion {
+
+    private final String id;
+    private final String uri;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param id     the id used by the payload to refer to this region
+     * @param uri    the content uri of the file, served by a content provider of the client
+     * @param offset the position in the file at which the region starts
+     * @param length the size of the region in bytes
+     */
+    public SharedRegion(String id, String uri, long offset, long length) {
+        this.id = id;
+        this.uri = uri;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Maps the region read-only into memory. The mapping stays valid after the underlying file has been closed.
+     *
+     * The file is only opened if it is served by a content provider of the client that sent the print request, so that a client
+     * can never make the driver read a file that the client could not read itself.
+     *
+     * @param context            the context of the driver
+     * @param callingPackageName the package name of the client that sent the print request
+     * @return a read-only buffer over the region
+     * @throws IOException if the uri is not a content uri of the client, or the file cannot be opened or mapped
+     */
+    public ByteBuffer map(Context context, String callingPackageName) throws IOException {
+        Uri contentUri = Uri.parse(uri);
+        if (!ContentResolver.SCHEME_CONTENT.equals(contentUri.getScheme())) {
+            throw new IOException("Not a content uri: " + this);
+        }
+        ProviderInfo provider = contentUri.getAuthority() != null
+                ? context.getPackageManager().resolveContentProvider(contentUri.getAuthority(), 0) : null;
+        if (provider == null || callingPackageName == null || !callingPackageName.equals(provider.packageName)) {
+            throw new IOException("Not served by a content provider of " + callingPackageName + ": " + this);
+        }
+        ParcelFileDescriptor fileDescriptor = context.getContentResolver().openFileDescriptor(contentUri, "r");
+        if (fileDescriptor == null) {
+            throw new IOException("Can not open " + this);
+        }
+        try (ParcelFileDescriptor closeable = fileDescriptor;
+             FileInputStream inputStream = new FileInputStream(closeable.getFileDescriptor())) {
+            return map(inputStream.getChannel());
+        }
+    }
+
+    /**
+     * Maps the region read-only from an already opened channel
+     *
+     * @param fileChannel the channel of the file containing the region
+     * @return a read-only buffer over the region
+     * @throws IOException if the region does not lie within the file, or cannot be mapped
+     */
+    public ByteBuffer map(FileChannel fileChannel) throws IOException {
+        long size = fileChannel.size();
+        if (offset < 0 || length < 0 || length > Integer.MAX_VALUE || offset > size || length > size - offset) {
+            throw new IOException("Region does not lie within the " + size + " bytes of the file: " + this);
+        }
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return "SharedRegion{" +
+                "id='" + id + '\'' +
+                ", uri='" + uri + '\'' +
+                ", offset=" + offset +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.model.BasePrinterInfo;
+import com.aevi.print.model.PrintJob;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrinterMessages;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class BlockingPrinterDriverBaseTest {
+
+    @Test
+    public void allBlockingCallsAreMadeOnTheIoThreadOfThePrinter() throws Exception {
+        BlockingPrinterDriver printerDriver = new BlockingPrinterDriver(new FakePrinterInfo("ID-1"));
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+
+        assertTerminatedWithState(obs, PrintJob.State.PRINTED);
+        printerDriver.awaitClosed();
+        assertThat(printerDriver.calls).containsExactly("open", "print", "close");
+        assertThat(printerDriver.threadNames).containsOnly("printer-io-ID-1");
+        assertThat(printerDriver.getIoThreadMetrics().getTasksExecuted()).isGreaterThanOrEqualTo(2);
+        assertThat(printerDriver.getIoThreadMetrics().getUtilization()).isBetween(0.0, 1.0);
+    }
+
+    @Test
+    public void anExceptionFailsThePrintJob() throws Exception {
+        BlockingPrinterDriver printerDriver = new BlockingPrinterDriver(new FakePrinterInfo("ID-1"));
+        printerDriver.printException = new PrinterDriverException("OUT-OF-PAPER", "diagnostic");
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+
+        assertTerminatedWithState(obs, PrintJob.State.FAILED);
+        assertThat(obs.values().get(obs.values().size() - 1).getFailedReason()).isEqualTo("OUT-OF-PAPER");
+        printerDriver.awaitClosed();
+        assertThat(printerDriver.calls).containsExactly("open", "print", "close");
+    }
+
+    @Test
+    public void aCallThatTimesOutIsAbandonedAndTheConnectionIsClosed() throws Exception {
+        BlockingPrinterDriver printerDriver = new BlockingPrinterDriver(new FakePrinterInfo("ID-1"));
+        printerDriver.printBlocked = new CountDownLatch(1);
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+
+        assertTerminatedWithState(obs, PrintJob.State.FAILED);
+        assertThat(obs.values().get(obs.values().size() - 1).getFailedReason()).isEqualTo(PrinterMessages.UNRECOVERABLE_ERROR);
+        printerDriver.awaitClosed();
+
+        // the next print job is not held up by the call that is still blocked
+        CountDownLatch printBlocked = printerDriver.printBlocked;
+        printerDriver.printBlocked = null;
+        assertTerminatedWithState(printerDriver.print(new PrintPayload("ID-1")).test(), PrintJob.State.PRINTED);
+        printBlocked.countDown();
+        assertThat(printerDriver.calls).startsWith("open", "print", "close", "open", "print");
+    }
+
+    private void assertTerminatedWithState(TestObserver<PrintJob> obs, PrintJob.State state) {
+        obs.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        obs.assertNoErrors();
+        obs.assertComplete();
+        assertThat(obs.values().get(obs.values().size() - 1).getPrintJobState()).isEqualTo(state);
+    }
+
+    static class BlockingPrinterDriver extends BlockingPrinterDriverBase<FakePrinterInfo> {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final List<String> threadNames = new CopyOnWriteArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        Exception printException;
+        volatile CountDownLatch printBlocked;
+
+        BlockingPrinterDriver(BasePrinterInfo printerInfo) {
+            super(printerInfo);
+        }
+
+        @Override
+        protected long getTaskTimeoutMs() {
+            return 200;
+        }
+
+        @Override
+        protected void openConnection() {
+            record("open");
+        }
+
+        @Override
+        protected void closeConnection() {
+            record("close");
+            closed.countDown();
+        }
+
+        @Override
+        protected void printBlocking(@NonNull PrintPayload printPayload) throws Exception {
+            record("print");
+            CountDownLatch printBlocked = this.printBlocked;
+            while (printBlocked != null && printBlocked.getCount() > 0) {
+                try {
+                    printBlocked.await();
+                } catch (InterruptedException e) {
+                    // a printer SDK may well ignore the interrupt
+                }
+            }
+            if (printException != null) {
+                throw printException;
+            }
+        }
+
+        @Override
+        protected void performActionBlocking(@NonNull String printAction) {
+            record("action");
+        }
+
+        void awaitClosed() throws InterruptedException {
+            assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        private void record(String call) {
+            calls.add(call);
+            threadNames.add(Thread.currentThread().getName());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class BoundedLruCacheTest {
+
+    private final BoundedLruCache<String, String> cache = new BoundedLruCache<>(10, new BoundedLruCache.Weigher<String, String>() {
+        @Override
+        public int weigh(String key, String value) {
+            return value.length();
+        }
+    });
+
+    @Test
+    public void theLeastRecentlyUsedEntriesAreEvictedOnceTheCacheIsTooHeavy() {
+        cache.put("logo", "1234");
+        cache.put("address", "1234");
+        cache.get("logo");
+        cache.put("footer", "1234");
+
+        assertThat(cache.get("address")).isNull();
+        assertThat(cache.get("logo")).isEqualTo("1234");
+        assertThat(cache.get("footer")).isEqualTo("1234");
+        assertThat(cache.getWeight()).isEqualTo(8);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void aValueHeavierThanTheCacheIsNotCached() {
+        cache.put("logo", "1234");
+        cache.put("report", "12345678901");
+
+        assertThat(cache.get("report")).isNull();
+        assertThat(cache.get("logo")).isEqualTo("1234");
+    }
+
+    @Test
+    public void replacingAValueUpdatesTheWeight() {
+        cache.put("logo", "1234");
+        cache.put("logo", "12");
+
+        assertThat(cache.getWeight()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        cache.put("logo", "1234");
+
+        cache.get("logo");
+        cache.get("logo");
+        cache.get("logo");
+        cache.get("footer");
+
+        assertThat(cache.getHits()).isEqualTo(3);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHitRatio()).isEqualTo(0.75);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import android.graphics.Bitmap;
+
+import com.aevi.print.model.ImageRow;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.TextRow;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PayloadSpoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void aSmallPayloadIsKeptInMemoryWithinTheBudget() throws IOException {
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 1024, 512);
+        PrintPayload printPayload = createPrintPayload("receipt");
+
+        PayloadSpool.SpooledPayload spooledPayload = payloadSpool.spool(printPayload);
+
+        assertThat(spooledPayload.isOnDisk()).isFalse();
+        assertThat(payloadSpool.getBytesInMemory()).isEqualTo(PayloadSpool.estimateSizeBytes(printPayload));
+        assertThat(spooledPayload.read()).isSameAs(printPayload);
+        assertThat(payloadSpool.getBytesInMemory()).isEqualTo(0);
+    }
+
+    @Test
+    public void aPayloadAboveTheThresholdIsSpooledToDiskAndReadBack() throws IOException {
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 1024, 10);
+
+        PayloadSpool.SpooledPayload spooledPayload = payloadSpool.spool(createPrintPayload("an image report"));
+
+        assertThat(spooledPayload.isOnDisk()).isTrue();
+        assertThat(payloadSpool.getBytesInMemory()).isEqualTo(0);
+        assertThat(payloadSpool.getBytesOnDisk()).isGreaterThan(0);
+        assertThat(temporaryFolder.getRoot().listFiles()).hasSize(1);
+
+        assertThat(getText(spooledPayload.read())).isEqualTo("an image report");
+        assertThat(payloadSpool.getBytesOnDisk()).isEqualTo(0);
+        assertThat(temporaryFolder.getRoot().listFiles()).isEmpty();
+    }
+
+    @Test
+    public void aPayloadWithAnImageIsSpooledToDiskAndReadBack() throws IOException {
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 1024, 0);
+        PrintPayload printPayload = createPrintPayload("logo");
+        printPayload.append(Bitmap.createBitmap(16, 8, Bitmap.Config.ARGB_8888));
+
+        PayloadSpool.SpooledPayload spooledPayload = payloadSpool.spool(printPayload);
+        PrintPayload readBack = spooledPayload.read();
+
+        assertThat(spooledPayload.isOnDisk()).isTrue();
+        assertThat(readBack.getRows()).hasSize(2);
+        assertThat(getText(readBack)).isEqualTo("logo");
+        Bitmap image = ((ImageRow) readBack.getRows()[1]).getImage();
+        assertThat(image.getWidth()).isEqualTo(16);
+        assertThat(image.getHeight()).isEqualTo(8);
+    }
+
+    @Test(expected = IOException.class)
+    public void aSpoolFileThatDoesNotHoldAPayloadFailsToBeReadWithAnIOException() throws IOException {
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 1024, 0);
+        PayloadSpool.SpooledPayload spooledPayload = payloadSpool.spool(createPrintPayload("receipt"));
+        FileOutputStream outputStream = new FileOutputStream(temporaryFolder.getRoot().listFiles()[0]);
+        outputStream.write("{\"rows\": [{}]}".getBytes("UTF-8"));
+        outputStream.close();
+
+        spooledPayload.read();
+    }
+
+    @Test
+    public void aPayloadThatDoesNotFitInTheBudgetIsSpooledToDisk() throws IOException {
+        PrintPayload first = createPrintPayload("first");
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), PayloadSpool.estimateSizeBytes(first), 512);
+
+        assertThat(payloadSpool.spool(first).isOnDisk()).isFalse();
+        assertThat(payloadSpool.spool(createPrintPayload("second")).isOnDisk()).isTrue();
+        assertThat(payloadSpool.getPayloadsSpilled()).isEqualTo(1);
+    }
+
+    @Test
+    public void releasingASpooledPayloadDeletesItsFile() throws IOException {
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 1024, 0);
+
+        payloadSpool.spool(createPrintPayload("cancelled")).release();
+
+        assertThat(payloadSpool.getBytesOnDisk()).isEqualTo(0);
+        assertThat(temporaryFolder.getRoot().listFiles()).isEmpty();
+    }
+
+    @Test
+    public void spoolFilesOfAnEarlierProcessAreDeleted() throws IOException {
+        File leftOver = temporaryFolder.newFile("payload-1234.json");
+
+        new PayloadSpool(temporaryFolder.getRoot());
+
+        assertThat(leftOver.exists()).isFalse();
+    }
+
+    @Test
+    public void theSizeOfAPayloadIsEstimatedFromItsRows() {
+        PrintPayload shortPayload = createPrintPayload("short");
+        PrintPayload longPayload = createPrintPayload("a much longer line of text");
+        PrintPayload imagePayload = createPrintPayload("short");
+        imagePayload.append(Bitmap.createBitmap(384, 100, Bitmap.Config.ARGB_8888));
+
+        assertThat(PayloadSpool.estimateSizeBytes(shortPayload)).isGreaterThan(0);
+        assertThat(PayloadSpool.estimateSizeBytes(longPayload)).isGreaterThan(PayloadSpool.estimateSizeBytes(shortPayload));
+        assertThat(PayloadSpool.estimateSizeBytes(imagePayload)).isGreaterThan(384 * 100);
+    }
+
+    private PrintPayload createPrintPayload(String text) {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append(text);
+        return printPayload;
+    }
+
+    private String getText(PrintPayload printPayload) {
+        return ((TextRow) printPayload.getRows()[0]).getText();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
+import com.aevi.print.model.TextRow;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PrintJobJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File journalFile;
+
+    @Before
+    public void setup() throws IOException {
+        journalFile = new File(temporaryFolder.getRoot(), "journal-ID-1");
+    }
+
+    @Test
+    public void printJobsThatHaveNotCompletedAreRecoveredWhenReopened() throws IOException {
+        PrintJobJournal journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        long first = journal.append(createPrintRequest("com.till", "first"));
+        journal.append(createPrintRequest("com.kitchen", "second"));
+        journal.append(createPrintRequest("com.till", "third"));
+        journal.complete(first);
+        journal.close();
+
+        List<PrintJobJournal.JournaledPrintJob> recovered = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS)
+                .takeRecoveredPrintJobs();
+
+        assertThat(recovered).hasSize(2);
+        assertThat(getText(recovered.get(0))).isEqualTo("second");
+        assertThat(recovered.get(0).getPrintRequest().getCallingPackageName()).isEqualTo("com.kitchen");
+        assertThat(getText(recovered.get(1))).isEqualTo("third");
+    }
+
+    @Test
+    public void recoveredPrintJobsAreOnlyTakenOnce() throws IOException {
+        PrintJobJournal journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        journal.append(createPrintRequest("com.till", "receipt"));
+        journal.close();
+
+        journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+
+        assertThat(journal.takeRecoveredPrintJobs()).hasSize(1);
+        assertThat(journal.takeRecoveredPrintJobs()).isEmpty();
+        assertThat(journal.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void aTornRecordIsNotRecovered() throws IOException {
+        PrintJobJournal journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        journal.append(createPrintRequest("com.till", "first"));
+        journal.append(createPrintRequest("com.till", "second"));
+        journal.close();
+
+        // corrupt the last byte of the second record, as if the service was killed whilst writing it
+        long headerSize = 12;
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        long lastByte = headerSize + journal.getMetrics().getBytesAppended() - 1;
+        file.seek(lastByte);
+        int value = file.read();
+        file.seek(lastByte);
+        file.write(value ^ 0xff);
+        file.close();
+
+        List<PrintJobJournal.JournaledPrintJob> recovered = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS)
+                .takeRecoveredPrintJobs();
+
+        assertThat(recovered).hasSize(1);
+        assertThat(getText(recovered.get(0))).isEqualTo("first");
+    }
+
+    @Test
+    public void printJobsFromBeforeTheJournalWasEmptiedAreNotRecovered() throws IOException {
+        PrintJobJournal journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        long first = journal.append(createPrintRequest("com.till", "a much longer first print job"));
+        long second = journal.append(createPrintRequest("com.till", "a much longer second print job"));
+        journal.complete(first);
+        journal.complete(second);
+        journal.append(createPrintRequest("com.till", "third"));
+        journal.close();
+
+        List<PrintJobJournal.JournaledPrintJob> recovered = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS)
+                .takeRecoveredPrintJobs();
+
+        assertThat(recovered).hasSize(1);
+        assertThat(getText(recovered.get(0))).isEqualTo("third");
+    }
+
+    @Test
+    public void compactionKeepsThePrintJobsThatHaveNotCompleted() throws IOException {
+        PrintJobJournal journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.NEVER);
+        journal.append(createPrintRequest("com.till", "waiting"));
+        String text = new String(new char[1000]).replace('\0', 'x');
+        for (int i = 0; i < 500; i++) {
+            journal.complete(journal.append(createPrintRequest("com.kitchen", text)));
+        }
+        PrintJobJournal.JournalMetrics metrics = journal.getMetrics();
+        journal.close();
+
+        assertThat(metrics.getCompactions()).isGreaterThan(0);
+        assertThat(metrics.getWriteAmplification()).isLessThanOrEqualTo(2.0);
+        assertThat(journalFile.length()).isLessThan(metrics.getBytesAppended());
+
+        List<PrintJobJournal.JournaledPrintJob> recovered = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS)
+                .takeRecoveredPrintJobs();
+        assertThat(recovered).hasSize(1);
+        assertThat(getText(recovered.get(0))).isEqualTo("waiting");
+    }
+
+    @Test
+    public void theSyncPolicyDecidesWhenTheJournalIsSynced() throws IOException {
+        PrintJobJournal always = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        PrintJobJournal never = PrintJobJournal.open(new File(temporaryFolder.getRoot(), "journal-ID-2"), PrintJobJournal.SyncPolicy.NEVER);
+        long alwaysSyncs = always.getMetrics().getSyncs();
+        long neverSyncs = never.getMetrics().getSyncs();
+
+        always.complete(always.append(createPrintRequest("com.till", "receipt")));
+        never.complete(never.append(createPrintRequest("com.till", "receipt")));
+
+        assertThat(always.getMetrics().getSyncs()).isEqualTo(alwaysSyncs + 2);
+        assertThat(never.getMetrics().getSyncs()).isEqualTo(neverSyncs);
+    }
+
+    @Test
+    public void aPeriodicJournalIsSyncedOnceTheIntervalHasExpired() throws Exception {
+        PrintJobJournal periodic = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.PERIODIC, 100);
+        long syncs = periodic.getMetrics().getSyncs();
+
+        periodic.append(createPrintRequest("com.till", "receipt"));
+        assertThat(periodic.getMetrics().getSyncs()).isEqualTo(syncs);
+
+        long timeout = System.currentTimeMillis() + 5000;
+        while (periodic.getMetrics().getSyncs() == syncs && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertThat(periodic.getMetrics().getSyncs()).isEqualTo(syncs + 1);
+        periodic.close();
+    }
+
+    private PrintRequest createPrintRequest(String callingPackageName, String text) {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append(text);
+        PrintRequest printRequest = new PrintRequest(printPayload);
+        printRequest.setCallingPackageName(callingPackageName);
+        return printRequest;
+    }
+
+    private String getText(PrintJobJournal.JournaledPrintJob journaledPrintJob) {
+        return ((TextRow) journaledPrintJob.getPrintRequest().getPrintPayload().getRows()[0]).getText();
+    }
+}
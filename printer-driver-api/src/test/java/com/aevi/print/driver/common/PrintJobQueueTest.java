@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PrintJobQueueTest {
+
+    private final PrintJobQueue<String> printJobQueue = new PrintJobQueue<>();
+
+    @Test
+    public void jobsOfOnePackageAreTakenInOrder() {
+        printJobQueue.offer("kitchen", 1, "k1");
+        printJobQueue.offer("kitchen", 1, "k2");
+        printJobQueue.offer("kitchen", 1, "k3");
+
+        assertThat(pollAll()).containsExactly("k1", "k2", "k3");
+        assertThat(printJobQueue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void aPackageThatFloodsTheQueueDoesNotHoldBackOthers() {
+        for (int i = 1; i <= 5; i++) {
+            printJobQueue.offer("kitchen", 1, "k" + i);
+        }
+        printJobQueue.offer("till", 1, "t1");
+
+        assertThat(pollAll()).containsExactly("k1", "t1", "k2", "k3", "k4", "k5");
+    }
+
+    @Test
+    public void packagesGetAShareOfThePrinterByWeight() {
+        for (int i = 1; i <= 4; i++) {
+            printJobQueue.offer("kitchen", 1, "k" + i);
+            printJobQueue.offer("till", 2, "t" + i);
+        }
+
+        assertThat(pollAll()).containsExactly("t1", "k1", "t2", "t3", "k2", "t4", "k3", "k4");
+    }
+
+    @Test
+    public void aPackageCannotSaveUpItsShareWhilstIdle() {
+        for (int i = 1; i <= 4; i++) {
+            printJobQueue.offer("kitchen", 1, "k" + i);
+        }
+        for (int i = 1; i <= 4; i++) {
+            assertThat(printJobQueue.poll()).isEqualTo("k" + i);
+        }
+
+        printJobQueue.offer("till", 1, "t1");
+        printJobQueue.offer("till", 1, "t2");
+        printJobQueue.offer("till", 1, "t3");
+        printJobQueue.offer("kitchen", 1, "k5");
+        printJobQueue.offer("kitchen", 1, "k6");
+
+        assertThat(pollAll()).containsExactly("t1", "t2", "k5", "t3", "k6");
+    }
+
+    @Test
+    public void aHigherPriorityClassIsAlwaysTakenFirst() {
+        printJobQueue.offer("office", 1, 2, false, 0, "report");
+        printJobQueue.offer("till", 1, 1, false, 0, "receipt1");
+        printJobQueue.offer("till", 1, 1, false, 0, "receipt2");
+
+        assertThat(pollAll()).containsExactly("receipt1", "receipt2", "report");
+    }
+
+    @Test
+    public void jobsWithADeadlineAreTakenEarliestDeadlineFirstInTheirPackagesTurn() {
+        printJobQueue.offer("till", 1, 1, false, 0, "none");
+        printJobQueue.offer("till", 1, 1, true, 3000, "late");
+        printJobQueue.offer("till", 1, 1, true, 2000, "sooner");
+        printJobQueue.offer("kitchen", 1, 1, true, 1000, "early");
+        printJobQueue.offer("kitchen", 1, 2, true, 10, "background");
+
+        assertThat(pollAll()).containsExactly("sooner", "early", "late", "none", "background");
+    }
+
+    @Test
+    public void deadlinesCannotTakeTheTurnOfAnotherPackage() {
+        printJobQueue.offer("till", 1, 1, false, 0, "t1");
+        printJobQueue.offer("till", 1, 1, false, 0, "t2");
+        for (int i = 1; i <= 3; i++) {
+            printJobQueue.offer("kitchen", 1, 1, true, i, "k" + i);
+        }
+
+        assertThat(pollAll()).containsExactly("t1", "k1", "t2", "k2", "k3");
+    }
+
+    @Test
+    public void canRemoveAQueuedJob() {
+        printJobQueue.offer("kitchen", 1, "k1");
+        printJobQueue.offer("till", 1, "t1");
+
+        assertThat(printJobQueue.remove("k1")).isTrue();
+        assertThat(printJobQueue.remove("k1")).isFalse();
+        assertThat(printJobQueue.size()).isEqualTo(1);
+        assertThat(printJobQueue.clear()).containsExactly("t1");
+    }
+
+    @Test
+    public void aRemovedJobGivesUpItsTurn() {
+        printJobQueue.offer("kitchen", 1, "k1");
+        printJobQueue.offer("kitchen", 1, "k2");
+        printJobQueue.offer("till", 1, "t1");
+        printJobQueue.offer("till", 1, "t2");
+
+        printJobQueue.remove("k1");
+
+        assertThat(pollAll()).containsExactly("k2", "t1", "t2");
+    }
+
+    @Test
+    public void aRemovedJobGivesBackTheFinishTimeOfItsTurn() {
+        printJobQueue.offer("till", 1, "t1");
+        printJobQueue.offer("till", 1, "t2");
+        printJobQueue.offer("till", 1, "t3");
+        printJobQueue.offer("kitchen", 1, "k1");
+        printJobQueue.offer("kitchen", 1, "k2");
+
+        printJobQueue.remove("k2");
+        printJobQueue.offer("kitchen", 1, "k3");
+
+        assertThat(pollAll()).containsExactly("t1", "k1", "t2", "k3", "t3");
+    }
+
+    @Test
+    public void packagesWithoutJobsAreDropped() {
+        printJobQueue.offer("kitchen", 1, "k1");
+        printJobQueue.offer("till", 1, "t1");
+        printJobQueue.offer("office", 1, "o1");
+
+        printJobQueue.remove("k1");
+        assertThat(printJobQueue.getPackageCount()).isEqualTo(2);
+
+        pollAll();
+        printJobQueue.offer("till", 1, "t2");
+        printJobQueue.poll();
+        printJobQueue.offer("till", 1, "t3");
+        printJobQueue.poll();
+        assertThat(printJobQueue.getPackageCount()).isEqualTo(1);
+    }
+
+    private List<String> pollAll() {
+        List<String> polled = new ArrayList<>();
+        String element;
+        while ((element = printJobQueue.poll()) != null) {
+            polled.add(element);
+        }
+        return polled;
+    }
+}
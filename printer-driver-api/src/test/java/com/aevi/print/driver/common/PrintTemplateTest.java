@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRow;
+import com.aevi.print.model.TextRow;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PrintTemplateTest {
+
+    @Test
+    public void slotsAreFoundInTheRows() {
+        PrintTemplate printTemplate = new PrintTemplate("receipt", createPayload());
+
+        assertThat(printTemplate.getSlotNames()).containsExactly("item", "total");
+    }
+
+    @Test
+    public void expandFillsTheSlots() {
+        PrintTemplate printTemplate = new PrintTemplate("receipt", createPayload());
+        Map<String, String> slotValues = new HashMap<>();
+        slotValues.put("item", "Coffee");
+        slotValues.put("total", "2.50");
+
+        assertThat(getTexts(printTemplate.expand(slotValues))).containsExactly("Shop", "Coffee", "Total 2.50");
+    }
+
+    @Test
+    public void expandEscapesTheValues() {
+        PrintTemplate printTemplate = new PrintTemplate("receipt", createPayload());
+        Map<String, String> slotValues = new HashMap<>();
+        slotValues.put("item", "\"Tea\"\\\n");
+
+        assertThat(getTexts(printTemplate.expand(slotValues))).containsExactly("Shop", "\"Tea\"\\\n", "Total ");
+    }
+
+    @Test
+    public void fillLeavesSlotsWithoutAValueEmpty() {
+        Map<String, String> slotValues = new HashMap<>();
+        slotValues.put("a", "1");
+
+        assertThat(PrintTemplate.fill("{{a}} and {{b}} and {{c", slotValues)).isEqualTo("1 and  and {{c");
+    }
+
+    @Test
+    public void hasSlotsNeedsAClosedSlot() {
+        assertThat(PrintTemplate.hasSlots("Total {{total}}")).isTrue();
+        assertThat(PrintTemplate.hasSlots("Total {{total")).isFalse();
+        assertThat(PrintTemplate.hasSlots("Total")).isFalse();
+        assertThat(PrintTemplate.hasSlots(null)).isFalse();
+    }
+
+    private static PrintPayload createPayload() {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("Shop");
+        printPayload.append("{{item}}");
+        printPayload.append("Total {{total}}");
+        return printPayload;
+    }
+
+    private static List<String> getTexts(PrintPayload printPayload) {
+        List<String> texts = new ArrayList<>();
+        for (PrintRow printRow : printPayload.getRows()) {
+            texts.add(((TextRow) printRow).getText());
+        }
+        return texts;
+    }
+}
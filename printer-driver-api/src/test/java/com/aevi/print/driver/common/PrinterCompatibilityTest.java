@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import com.aevi.print.model.PrinterSettings;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PrinterCompatibilityTest {
+
+    @Test
+    public void unknownSettingsAreAssumedToBeCompatible() {
+        assertThat(PrinterCompatibility.isCompatible(null, createPrinterSettings(384))).isTrue();
+        assertThat(PrinterCompatibility.isCompatible(createPrinterSettings(576), null)).isTrue();
+    }
+
+    @Test
+    public void aBackupMustPrintAtLeastAsWide() {
+        assertThat(PrinterCompatibility.isCompatible(createPrinterSettings(576), createPrinterSettings(384))).isFalse();
+        assertThat(PrinterCompatibility.isCompatible(createPrinterSettings(384), createPrinterSettings(576))).isTrue();
+    }
+
+    @Test
+    public void aBackupMustSupportEveryCodePageOfTheOriginal() {
+        PrinterSettings original = createPrinterSettings(576, 0, 16);
+
+        assertThat(PrinterCompatibility.isCompatible(original, createPrinterSettings(576, 0, 16, 17))).isTrue();
+        assertThat(PrinterCompatibility.isCompatible(original, createPrinterSettings(576, 0))).isFalse();
+        assertThat(PrinterCompatibility.isCompatible(original, createPrinterSettings(576))).isFalse();
+    }
+
+    private static PrinterSettings createPrinterSettings(int printableWidth, int... codepages) {
+        PrinterSettings printerSettings = mock(PrinterSettings.class);
+        when(printerSettings.getPrintableWidth()).thenReturn(printableWidth);
+        when(printerSettings.doesSupportCodepages()).thenReturn(codepages.length > 0);
+        when(printerSettings.getCodepages()).thenReturn(codepages.length > 0 ? codepages : null);
+        return printerSettings;
+    }
+}
@@ -13,23 +13,31 @@
  */
 package com.aevi.print.driver.common;
 
+import androidx.annotation.NonNull;
+
 import com.aevi.print.driver.BasePrinterStatusService;
 import com.aevi.print.driver.PrinterStatusStream;
 import com.aevi.print.model.BasePrinterInfo;
 import com.aevi.print.model.PrintJob;
 import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
 import com.aevi.print.model.PrinterMessages;
 import com.aevi.print.model.PrinterStatus;
 import com.aevi.print.model.PrintingContext;
 import com.aevi.print.model.TextRow;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.observers.TestObserver;
 
@@ -40,6 +48,9 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 public class PrinterDriverBaseTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     BasePrinterInfo printerInfo;
 
@@ -296,6 +307,670 @@ public class PrinterDriverBaseTest {
         assertThat(printerDriverImpl.disconnectFromPrinterCounter).isEqualTo(2);
     }
 
+    @Test
+    public void backToBackTasksRunInConstantStackSpace() {
+        ChainedActionsPrinterDriver printerDriver = new ChainedActionsPrinterDriver(printerInfo, 20000);
+
+        printerDriver.sendPrinterAction("Printer-Action");
+
+        assertThat(printerDriver.actionCounter).isEqualTo(20000);
+        assertThat(printerDriver.lastStackDepth).isEqualTo(printerDriver.firstStackDepth);
+        assertThat(printerDriver.disconnectCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void anExceptionFromTheDriverDoesNotStopLaterTasks() {
+        PrinterDriverImplementation failingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected void executePrintActionTask(@NonNull String printAction) {
+                throw new IllegalStateException("SDK failure");
+            }
+        };
+        failingDriver.setAutomaticOnPrinterConnected();
+        failingDriver.setAutomaticOnTaskCompleted();
+
+        failingDriver.sendPrinterAction("Printer-Action");
+        TestObserver<PrintJob> obs = failingDriver.print(new PrintPayload("ID-1")).test();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(failingDriver.connectToPrinterCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void aQueuedPrintJobThatIsDisposedIsNotPrinted() {
+        TestObserver<PrintJob> obs = printerDriverImpl.print(new PrintPayload("ID-1")).test();
+        obs.dispose();
+
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.onPrinterConnected();
+
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(0);
+        assertThat(printerDriverImpl.printJobCancelledCounter).isEqualTo(0);
+        assertThat(printerDriverImpl.disconnectFromPrinterCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aPrintJobThatIsDisposedWhilstPrintingIsCancelledAndFreesThePrinter() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(new PrintPayload("ID-1")).test();
+        obs.dispose();
+        assertThat(printerDriverImpl.printJobCancelledCounter).isEqualTo(1);
+
+        TestObserver<PrintJob> obs2 = printerDriverImpl.print(new PrintPayload("ID-1")).test();
+        assertInProgress(obs2);
+
+        // the cancelled printout stops, the next customer's job is printed straight after
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+        printerDriverImpl.onPrintingFailed(PrinterMessages.ERROR_PRINT_FAILED, "aborted");
+
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+        assertCompleteWithState(obs2, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.disconnectFromPrinterCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aCompletedPrintJobIsNotCancelled() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(new PrintPayload("ID-1")).test();
+        obs.dispose();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.printJobCancelledCounter).isEqualTo(0);
+    }
+
+    @Test
+    public void aDuplicateSubmissionAttachesToTheExistingPrintJob() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        TestObserver<PrintJob> retry = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        assertInProgress(retry);
+
+        printerDriverImpl.onTaskCompletedSuccessfully();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertCompleteWithState(retry, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aDuplicateSubmissionAfterCompletionIsNotPrintedAgain() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        obs.dispose();
+        TestObserver<PrintJob> retry = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        TestObserver<PrintJob> other = printerDriverImpl.print(createKeyedPrintRequest("receipt-43")).test();
+
+        assertCompleteWithState(retry, PrintJob.State.PRINTED);
+        assertCompleteWithState(other, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void aSubmissionRejectedAsBusyCanBeRetried() {
+        TestObserver<PrintJob> obs = printerDriverImpl.print(new PrintPayload("ID-1")).test();
+        TestObserver<PrintJob> busy = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        assertCompleteAndFailedWithTheReason(busy, PrinterMessages.ERROR_BUSY);
+
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+        printerDriverImpl.onPrinterConnected();
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+
+        TestObserver<PrintJob> retry = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        assertCompleteWithState(retry, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void aKeyedPrintJobIsCancelledOnceEverySubmissionIsDisposed() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        TestObserver<PrintJob> retry = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        obs.dispose();
+        assertThat(printerDriverImpl.printJobCancelledCounter).isEqualTo(0);
+        retry.dispose();
+        assertThat(printerDriverImpl.printJobCancelledCounter).isEqualTo(1);
+
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+        printerDriverImpl.onTaskCompletedSuccessfully();
+        TestObserver<PrintJob> resubmitted = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        assertCompleteWithState(resubmitted, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void aFailedKeyedPrintJobCanBeRetried() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        printerDriverImpl.onPrintingFailed(PrinterMessages.ERROR_PRINT_FAILED, "paper jam");
+        assertCompleteAndFailedWithTheReason(obs, PrinterMessages.ERROR_PRINT_FAILED);
+
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+        TestObserver<PrintJob> retry = printerDriverImpl.print(createKeyedPrintRequest("receipt-42")).test();
+        assertCompleteWithState(retry, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void idempotencyKeysAreScopedToTheCallingPackage() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+
+        PrintRequest tillRequest = createKeyedPrintRequest("receipt-42");
+        tillRequest.setCallingPackageName("com.example.till");
+        PrintRequest kitchenRequest = createKeyedPrintRequest("receipt-42");
+        kitchenRequest.setCallingPackageName("com.example.kitchen");
+
+        assertCompleteWithState(printerDriverImpl.print(tillRequest).test(), PrintJob.State.PRINTED);
+        assertCompleteWithState(printerDriverImpl.print(kitchenRequest).test(), PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void waitingPrintJobsAreTakenFairlyAcrossCallingPackages() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 4;
+            }
+        };
+        queueingDriver.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> kitchen1 = queueingDriver.print(createPrintRequestFrom("com.kitchen", "k1")).test();
+        TestObserver<PrintJob> kitchen2 = queueingDriver.print(createPrintRequestFrom("com.kitchen", "k2")).test();
+        TestObserver<PrintJob> kitchen3 = queueingDriver.print(createPrintRequestFrom("com.kitchen", "k3")).test();
+        TestObserver<PrintJob> till = queueingDriver.print(createPrintRequestFrom("com.till", "t1")).test();
+        assertInProgress(kitchen3);
+        assertInProgress(till);
+
+        PrintQueueMetrics.PackageMetrics kitchenMetrics = queueingDriver.getPrintQueueMetrics().getPackageMetrics("com.kitchen");
+        assertThat(kitchenMetrics.getQueueDepth()).isEqualTo(2);
+        assertThat(queueingDriver.getPrintQueueMetrics().getPackageMetrics("com.till").getQueueDepth()).isEqualTo(1);
+
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("k1");
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("k2");
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("t1");
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("k3");
+        queueingDriver.onTaskCompletedSuccessfully();
+
+        assertCompleteWithState(kitchen1, PrintJob.State.PRINTED);
+        assertCompleteWithState(kitchen2, PrintJob.State.PRINTED);
+        assertCompleteWithState(kitchen3, PrintJob.State.PRINTED);
+        assertCompleteWithState(till, PrintJob.State.PRINTED);
+        assertThat(kitchenMetrics.getQueueDepth()).isEqualTo(0);
+        assertThat(kitchenMetrics.getPrintJobsStarted()).isEqualTo(3);
+        assertThat(queueingDriver.disconnectFromPrinterCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aFullQueueRejectsPrintJobsAndADriverErrorFailsQueuedJobs() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 1;
+            }
+        };
+
+        TestObserver<PrintJob> obs = queueingDriver.print(createPrintRequestFrom("com.till", "t1")).test();
+        TestObserver<PrintJob> queued = queueingDriver.print(createPrintRequestFrom("com.till", "t2")).test();
+        TestObserver<PrintJob> busy = queueingDriver.print(createPrintRequestFrom("com.till", "t3")).test();
+        assertInProgress(queued);
+        assertCompleteAndFailedWithTheReason(busy, PrinterMessages.ERROR_BUSY);
+
+        queueingDriver.onDriverError("TEST-ERROR", null);
+
+        assertCompleteAndFailedWithTheReason(obs, "TEST-ERROR");
+        assertCompleteAndFailedWithTheReason(queued, "TEST-ERROR");
+        assertThat(queueingDriver.getPrintQueueMetrics().getPackageMetrics("com.till").getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void aQueuedPrintJobThatIsDisposedIsRemovedFromTheQueue() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 1;
+            }
+        };
+        queueingDriver.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> obs = queueingDriver.print(createPrintRequestFrom("com.till", "t1")).test();
+        queueingDriver.print(createPrintRequestFrom("com.kitchen", "k1")).test().dispose();
+        queueingDriver.onTaskCompletedSuccessfully();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(queueingDriver.executePrintPayloadTaskCounter).isEqualTo(1);
+        assertThat(queueingDriver.getPrintQueueMetrics().getPackageMetrics("com.kitchen").getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void anActionIsCarriedOutBeforeTheNextWaitingPrintJob() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 2;
+            }
+        };
+        queueingDriver.setAutomaticOnPrinterConnected();
+
+        TestObserver<PrintJob> report = queueingDriver.print(createPrintRequestFrom("com.office", "report")).test();
+        queueingDriver.print(createPrintRequestFrom("com.till", "receipt")).test();
+        queueingDriver.sendPrinterAction(PrinterMessages.ACTION_OPEN_CASH_DRAWER);
+        assertThat(queueingDriver.executePrintActionTaskCounter).isEqualTo(0);
+
+        queueingDriver.onTaskCompletedSuccessfully();
+
+        assertCompleteWithState(report, PrintJob.State.PRINTED);
+        assertThat(queueingDriver.executePrintActionTaskCounter).isEqualTo(1);
+        assertThat(queueingDriver.executePrintPayloadTaskCounter).isEqualTo(1);
+
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("receipt");
+    }
+
+    @Test
+    public void aCustomerReceiptOvertakesWaitingReports() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 4;
+            }
+        };
+        queueingDriver.setAutomaticOnPrinterConnected();
+
+        queueingDriver.print(createPrintRequestFrom("com.office", "report1")).test();
+        PrintRequest report2 = createPrintRequestFrom("com.office", "report2");
+        report2.setPriority(PrintRequest.Priority.BACKGROUND_REPORT);
+        queueingDriver.print(report2).test();
+        queueingDriver.print(createPrintRequestFrom("com.till", "receipt")).test();
+
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("receipt");
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("report2");
+    }
+
+    @Test
+    public void aClientCannotClaimAHigherPriorityThanItIsAllowed() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 4;
+            }
+
+            @NonNull
+            @Override
+            protected PrintRequest.Priority getMaxPriority(@NonNull String callingPackageName) {
+                return "com.drawer".equals(callingPackageName) ? PrintRequest.Priority.INTERACTIVE : DEFAULT_MAX_PRIORITY;
+            }
+        };
+        queueingDriver.setAutomaticOnPrinterConnected();
+
+        queueingDriver.print(createPrintRequestFrom("com.office", "first")).test();
+        queueingDriver.print(createPrintRequestFrom("com.office", "receipt")).test();
+        PrintRequest urgent = createPrintRequestFrom("com.till", "urgent");
+        urgent.setPriority(PrintRequest.Priority.INTERACTIVE);
+        queueingDriver.print(urgent).test();
+        PrintRequest ticket = createPrintRequestFrom("com.drawer", "ticket");
+        ticket.setPriority(PrintRequest.Priority.INTERACTIVE);
+        queueingDriver.print(ticket).test();
+
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("ticket");
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("receipt");
+        queueingDriver.onTaskCompletedSuccessfully();
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("urgent");
+    }
+
+    @Test
+    public void aTemplateIsPrintedAgainFromTheValuesOfItsSlots() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("Total {{total}}");
+        PrintRequest definition = new PrintRequest(printPayload);
+        definition.setTemplateId("receipt");
+        definition.setSlotValue("total", "1.00");
+
+        printerDriverImpl.print(definition).test();
+        assertThat(getPrintedText(printerDriverImpl)).isEqualTo("Total 1.00");
+        printerDriverImpl.onTaskCompletedSuccessfully();
+
+        PrintRequest reprint = new PrintRequest(new PrintPayload("ID-1"));
+        reprint.setTemplateId("receipt");
+        reprint.setSlotValue("total", "2.50");
+        TestObserver<PrintJob> obs = printerDriverImpl.print(reprint).test();
+        assertThat(getPrintedText(printerDriverImpl)).isEqualTo("Total 2.50");
+        printerDriverImpl.onTaskCompletedSuccessfully();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void anUnknownTemplateFailsThePrintJob() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.setTemplateId("unknown");
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(printRequest).test();
+
+        assertCompleteWithState(obs, PrintJob.State.FAILED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(0);
+    }
+
+    @Test
+    public void templatesAreScopedToTheCallingPackage() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        PrintPayload footer = new PrintPayload("ID-1");
+        footer.append("Shared {{total}}");
+        printerDriverImpl.registerPrintTemplate(new PrintTemplate("footer", footer));
+        PrintRequest definition = createPrintRequestFrom("com.till", "Till {{total}}");
+        definition.setTemplateId("receipt");
+        printerDriverImpl.print(definition).test();
+        printerDriverImpl.onTaskCompletedSuccessfully();
+
+        PrintRequest otherPackage = new PrintRequest(new PrintPayload("ID-1"));
+        otherPackage.setCallingPackageName("com.kitchen");
+        otherPackage.setTemplateId("receipt");
+        TestObserver<PrintJob> obs = printerDriverImpl.print(otherPackage).test();
+        assertCompleteWithState(obs, PrintJob.State.FAILED);
+
+        PrintRequest sharedTemplate = new PrintRequest(new PrintPayload("ID-1"));
+        sharedTemplate.setCallingPackageName("com.kitchen");
+        sharedTemplate.setTemplateId("footer");
+        sharedTemplate.setSlotValue("total", "3.00");
+        printerDriverImpl.print(sharedTemplate).test();
+        assertThat(getPrintedText(printerDriverImpl)).isEqualTo("Shared 3.00");
+        assertThat(printerDriverImpl.getPrintTemplate("com.kitchen", "receipt")).isNull();
+        assertThat(printerDriverImpl.getPrintTemplate("com.till", "receipt")).isNotNull();
+    }
+
+    @Test
+    public void copiesArePrintedOnOneConnectionAndEachIsReported() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+        PrintRequest printRequest = createPrintRequestFrom("com.till", "receipt");
+        printRequest.setCopies(3);
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(printRequest).test();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(obs.values()).hasSize(5);
+        assertThat(obs.values().get(1).getDiagnosticMessage()).isEqualTo("Printed copy 1 of 3");
+        assertThat(obs.values().get(3).getDiagnosticMessage()).isEqualTo("Printed copy 3 of 3");
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(3);
+        assertThat(printerDriverImpl.connectToPrinterCounter).isEqualTo(1);
+        assertThat(printerDriverImpl.disconnectFromPrinterCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aFailedCopyFailsThePrintJobAndTheRemainingCopiesAreNotPrinted() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        PrintRequest printRequest = createPrintRequestFrom("com.till", "receipt");
+        printRequest.setCopies(3);
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(printRequest).test();
+        printerDriverImpl.onTaskCompletedSuccessfully();
+        printerDriverImpl.onPrintingFailed(PrinterMessages.ERROR_PRINT_FAILED, "paper jam");
+
+        assertCompleteWithState(obs, PrintJob.State.FAILED);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void copiesSeparatedByAPauseWaitForThePause() {
+        PrinterDriverImplementation pausingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected long getCopyPauseMs() {
+                return 50;
+            }
+        };
+        pausingDriver.setAutomaticOnPrinterConnected();
+        pausingDriver.setAutomaticOnTaskCompleted();
+        PrintRequest printRequest = createPrintRequestFrom("com.kitchen", "ticket");
+        printRequest.setCopies(2);
+        printRequest.setCopySeparation(PrintRequest.CopySeparation.PAUSE);
+
+        TestObserver<PrintJob> obs = pausingDriver.print(printRequest).test();
+        assertThat(pausingDriver.executePrintPayloadTaskCounter).isEqualTo(1);
+
+        obs.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(pausingDriver.executePrintPayloadTaskCounter).isEqualTo(2);
+    }
+
+    @Test
+    public void anActionBetweenCopiesDoesNotCompleteThePrintJob() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        PrintRequest printRequest = createPrintRequestFrom("com.till", "receipt");
+        printRequest.setCopies(2);
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(printRequest).test();
+        printerDriverImpl.sendPrinterAction("CUT");
+        printerDriverImpl.onTaskCompletedSuccessfully();
+        assertThat(printerDriverImpl.executePrintActionTaskCounter).isEqualTo(1);
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(1);
+
+        printerDriverImpl.onTaskCompletedSuccessfully();
+        obs.assertNotComplete();
+        assertThat(printerDriverImpl.executePrintPayloadTaskCounter).isEqualTo(2);
+        assertThat(printerDriverImpl.getPrinterHealth().getPrintsSucceeded()).isEqualTo(0);
+
+        printerDriverImpl.onTaskCompletedSuccessfully();
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(obs.values().get(2).getDiagnosticMessage()).isEqualTo("Printed copy 2 of 2");
+        assertThat(printerDriverImpl.getPrinterHealth().getPrintsSucceeded()).isEqualTo(1);
+    }
+
+    @Test
+    public void thePauseBetweenCopiesDoesNotStartTheNextCopyWhilstAnActionIsRunning() throws Exception {
+        PrinterDriverImplementation pausingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected long getCopyPauseMs() {
+                return 20;
+            }
+        };
+        pausingDriver.setAutomaticOnPrinterConnected();
+        PrintRequest printRequest = createPrintRequestFrom("com.kitchen", "ticket");
+        printRequest.setCopies(2);
+        printRequest.setCopySeparation(PrintRequest.CopySeparation.PAUSE);
+
+        TestObserver<PrintJob> obs = pausingDriver.print(printRequest).test();
+        pausingDriver.sendPrinterAction("CUT");
+        pausingDriver.onTaskCompletedSuccessfully();
+        assertThat(pausingDriver.executePrintActionTaskCounter).isEqualTo(1);
+
+        Thread.sleep(200);
+        assertThat(pausingDriver.executePrintPayloadTaskCounter).isEqualTo(1);
+
+        pausingDriver.onTaskCompletedSuccessfully();
+        assertThat(pausingDriver.executePrintPayloadTaskCounter).isEqualTo(2);
+        assertThat(pausingDriver.disconnectFromPrinterCounter).isEqualTo(0);
+
+        pausingDriver.onTaskCompletedSuccessfully();
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(pausingDriver.disconnectFromPrinterCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void cancellingAPrintJobBetweenCopiesStopsThePause() throws Exception {
+        PrinterDriverImplementation pausingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected long getCopyPauseMs() {
+                return 50;
+            }
+        };
+        pausingDriver.setAutomaticOnPrinterConnected();
+        PrintRequest printRequest = createPrintRequestFrom("com.kitchen", "ticket");
+        printRequest.setCopies(2);
+        printRequest.setCopySeparation(PrintRequest.CopySeparation.PAUSE);
+
+        TestObserver<PrintJob> obs = pausingDriver.print(printRequest).test();
+        pausingDriver.onTaskCompletedSuccessfully();
+        obs.dispose();
+        assertThat(pausingDriver.disconnectFromPrinterCounter).isEqualTo(1);
+
+        Thread.sleep(200);
+        assertThat(pausingDriver.executePrintPayloadTaskCounter).isEqualTo(1);
+        assertThat(pausingDriver.disconnectFromPrinterCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aMissedDeadlineIsReported() throws Exception {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        PrintRequest printRequest = createPrintRequestFrom("com.till", "receipt");
+        printRequest.setDeadlineMs(1);
+
+        TestObserver<PrintJob> obs = printerDriverImpl.print(printRequest).test();
+        Thread.sleep(10);
+        printerDriverImpl.onTaskCompletedSuccessfully();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        PrintQueueMetrics.PackageMetrics metrics = printerDriverImpl.getPrintQueueMetrics().getPackageMetrics("com.till");
+        assertThat(metrics.getDeadlinesMissed()).isEqualTo(1);
+        assertThat(metrics.getDeadlineMissedByNanos()).isGreaterThan(0);
+    }
+
+    @Test
+    public void repeatedFailuresMakeThePrinterUnhealthyUntilItPrintsAgain() {
+        printerDriverImpl.setAutomaticOnPrinterConnected();
+        printerDriverImpl.setAutomaticOnPrintingFailed("OUT-OF-PAPER");
+
+        for (int i = 0; i < PrinterHealth.DEFAULT_FAILURE_THRESHOLD; i++) {
+            assertThat(printerDriverImpl.isHealthy()).isTrue();
+            printerDriverImpl.print(new PrintPayload("ID-1")).test();
+        }
+
+        assertThat(printerDriverImpl.isHealthy()).isFalse();
+        assertThat(printerDriverImpl.getPrinterHealth().getLastFailedReason()).isEqualTo("OUT-OF-PAPER");
+
+        printerDriverImpl.setAutomaticOnPrintingFailed(null);
+        printerDriverImpl.setAutomaticOnTaskCompleted();
+        printerDriverImpl.print(new PrintPayload("ID-1")).test();
+
+        assertThat(printerDriverImpl.isHealthy()).isTrue();
+        assertThat(printerDriverImpl.getPrinterHealth().getPrintsSucceeded()).isEqualTo(1);
+        assertThat(printerDriverImpl.getPrintJobCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void printJobsLeftInTheJournalArePrintedWhenTheJournalIsSet() throws IOException {
+        File journalFile = temporaryFolder.newFile("journal-ID-1");
+        PrintJobJournal journal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        printerDriverImpl.setPrintJobJournal(journal);
+        printerDriverImpl.print(createPrintRequestFrom("com.till", "receipt")).test();
+        assertThat(journal.getPendingCount()).isEqualTo(1);
+        journal.close();
+
+        // the driver service is restarted before the receipt has printed
+        PrinterDriverImplementation restartedDriver = new PrinterDriverImplementation(printerInfo);
+        restartedDriver.setAutomaticOnPrinterConnected();
+        restartedDriver.setAutomaticOnTaskCompleted();
+        PrintJobJournal reopenedJournal = PrintJobJournal.open(journalFile, PrintJobJournal.SyncPolicy.ALWAYS);
+        restartedDriver.setPrintJobJournal(reopenedJournal);
+
+        assertThat(restartedDriver.executePrintPayloadTaskCounter).isEqualTo(1);
+        assertThat(getPrintedText(restartedDriver)).isEqualTo("receipt");
+        assertThat(restartedDriver.getPrintQueueMetrics().getPackageMetrics("com.till").getPrintJobsStarted()).isEqualTo(1);
+        assertThat(reopenedJournal.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void aPrintJobRejectedAsBusyIsNotLeftInTheJournal() throws IOException {
+        PrintJobJournal journal = PrintJobJournal.open(temporaryFolder.newFile("journal-ID-1"), PrintJobJournal.SyncPolicy.ALWAYS);
+        printerDriverImpl.setPrintJobJournal(journal);
+
+        printerDriverImpl.print(createPrintRequestFrom("com.till", "receipt")).test();
+        TestObserver<PrintJob> busy = printerDriverImpl.print(createPrintRequestFrom("com.office", "report")).test();
+
+        assertCompleteAndFailedWithTheReason(busy, PrinterMessages.ERROR_BUSY);
+        assertThat(journal.getPendingCount()).isEqualTo(1);
+        journal.close();
+    }
+
+    @Test
+    public void aWaitingPayloadSpooledToDiskIsReadBackWhenPrinted() {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 1;
+            }
+        };
+        queueingDriver.setAutomaticOnPrinterConnected();
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 0, 0);
+        queueingDriver.setPayloadSpool(payloadSpool);
+
+        queueingDriver.print(createPrintRequestFrom("com.till", "receipt")).test();
+        PrintRequest report = createPrintRequestFrom("com.office", "report");
+        TestObserver<PrintJob> obs = queueingDriver.print(report).test();
+
+        assertInProgress(obs);
+        assertThat(report.getPrintPayload()).isNull();
+        assertThat(payloadSpool.getBytesOnDisk()).isGreaterThan(0);
+
+        queueingDriver.onTaskCompletedSuccessfully();
+
+        assertThat(getPrintedText(queueingDriver)).isEqualTo("report");
+        assertThat(report.getPrintPayload()).isNotNull();
+        assertThat(payloadSpool.getBytesOnDisk()).isEqualTo(0);
+    }
+
+    @Test
+    public void aSpooledPayloadOfAFailedPrintJobIsHandedBackWithoutBeingReadUntilItIsRestored() throws IOException {
+        PrinterDriverImplementation queueingDriver = new PrinterDriverImplementation(printerInfo) {
+            @Override
+            protected int getMaxQueuedPrintJobs() {
+                return 1;
+            }
+        };
+        PayloadSpool payloadSpool = new PayloadSpool(temporaryFolder.getRoot(), 0, 0);
+        queueingDriver.setPayloadSpool(payloadSpool);
+
+        queueingDriver.print(createPrintRequestFrom("com.till", "receipt")).test();
+        PrintRequest report = createPrintRequestFrom("com.office", "report");
+        TestObserver<PrintJob> obs = queueingDriver.print(report).test();
+        queueingDriver.onDriverError("TEST-ERROR", null);
+
+        assertCompleteAndFailedWithTheReason(obs, "TEST-ERROR");
+        assertThat(report.getPrintPayload()).isNull();
+        assertThat(payloadSpool.getBytesOnDisk()).isGreaterThan(0);
+
+        report.restorePrintPayload();
+
+        assertThat(((TextRow) report.getPrintPayload().getRows()[0]).getText()).isEqualTo("report");
+        assertThat(payloadSpool.getBytesOnDisk()).isEqualTo(0);
+    }
+
+    private PrintRequest createPrintRequestFrom(String callingPackageName, String text) {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append(text);
+        PrintRequest printRequest = new PrintRequest(printPayload);
+        printRequest.setCallingPackageName(callingPackageName);
+        return printRequest;
+    }
+
+    private String getPrintedText(PrinterDriverImplementation printerDriver) {
+        return ((TextRow) printerDriver.executePrintPayload.getRows()[0]).getText();
+    }
+
+    private PrintRequest createKeyedPrintRequest(String idempotencyKey) {
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.setIdempotencyKey(idempotencyKey);
+        return printRequest;
+    }
+
     private void assertInProgress(TestObserver<PrintJob> obs) {
         obs.assertNoErrors();
         obs.assertNotComplete();
@@ -331,6 +1006,48 @@ public class PrinterDriverBaseTest {
         assertThat(PrinterStatus.fromJson(printerStatusArgumentCaptor.getValue()).getStatus()).isEqualTo(status);
     }
 
+    static class ChainedActionsPrinterDriver extends PrinterDriverBase<FakePrinterInfo> {
+        private final int actions;
+        int actionCounter;
+        int disconnectCounter;
+        int firstStackDepth;
+        int lastStackDepth;
+
+        ChainedActionsPrinterDriver(BasePrinterInfo printerInfo, int actions) {
+            super(printerInfo);
+            this.actions = actions;
+        }
+
+        @Override
+        protected void connectToPrinter() {
+            onPrinterConnected();
+        }
+
+        @Override
+        protected void disconnectFromPrinter() {
+            disconnectCounter++;
+            onPrinterDisconnected();
+        }
+
+        @Override
+        protected void executePrintPayloadTask(@NonNull PrintPayload printPayload) {
+            onTaskCompletedSuccessfully();
+        }
+
+        @Override
+        protected void executePrintActionTask(@NonNull String printAction) {
+            actionCounter++;
+            lastStackDepth = Thread.currentThread().getStackTrace().length;
+            if (actionCounter == 1) {
+                firstStackDepth = lastStackDepth;
+            }
+            if (actionCounter < actions) {
+                sendPrinterAction(printAction);
+            }
+            onTaskCompletedSuccessfully();
+        }
+    }
+
     class MyPrinterStatusStream extends PrinterStatusStream {
         @Override
         public void subscribeToStatus(final PrintingContext printingContext, final String printerId) {
@@ -16,18 +16,29 @@ package com.aevi.print.driver.common;
 import com.aevi.print.model.BasePrinterInfo;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class PrinterDriverFactoryTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     BasePrinterInfo printerInfo1;
 
@@ -93,4 +104,81 @@ public class PrinterDriverFactoryTest {
         PrinterDriverBase printerDriverBase2 = printerDriverFactory.getPrinterDriver(printerInfo1);
         assertThat(printerDriverBase1).isNotSameAs(printerDriverBase2);
     }
+
+    @Test
+    public void aPrinterGroupResolvesToItsMembers() {
+        printerDriverFactory.setPrinterGroup("KITCHEN", Arrays.asList("ID-1", "ID-2"));
+
+        assertThat(printerDriverFactory.getPrinterGroupMembers("KITCHEN")).containsExactly("ID-1", "ID-2");
+        assertThat(printerDriverFactory.getPrinterGroupMembers("ID-1")).isNull();
+
+        printerDriverFactory.removePrinterGroup("KITCHEN");
+        assertThat(printerDriverFactory.getPrinterGroupMembers("KITCHEN")).isNull();
+    }
+
+    @Test
+    public void theMemberExpectedToCompleteSoonestIsSelected() {
+        PrinterDriverBase printerDriverBase1 = printerDriverFactory.getPrinterDriver(printerInfo1);
+        PrinterDriverBase printerDriverBase2 = printerDriverFactory.getPrinterDriver(printerInfo2);
+        stubLoad(printerDriverBase1, true, 3000, 2);
+        stubLoad(printerDriverBase2, true, 1000, 2);
+
+        assertThat(printerDriverFactory.getLeastLoadedPrinterDriver(Arrays.asList(printerInfo1, printerInfo2))).isSameAs(printerDriverBase2);
+    }
+
+    @Test
+    public void theMemberWithTheShortestQueueIsSelectedWhenThereIsNoEstimate() {
+        PrinterDriverBase printerDriverBase1 = printerDriverFactory.getPrinterDriver(printerInfo1);
+        PrinterDriverBase printerDriverBase2 = printerDriverFactory.getPrinterDriver(printerInfo2);
+        stubLoad(printerDriverBase1, true, 0, 0);
+        stubLoad(printerDriverBase2, true, 0, 1);
+
+        assertThat(printerDriverFactory.getLeastLoadedPrinterDriver(Arrays.asList(printerInfo1, printerInfo2))).isSameAs(printerDriverBase1);
+    }
+
+    @Test
+    public void anUnhealthyMemberIsOnlySelectedIfNoOtherIsHealthy() {
+        PrinterDriverBase printerDriverBase1 = printerDriverFactory.getPrinterDriver(printerInfo1);
+        PrinterDriverBase printerDriverBase2 = printerDriverFactory.getPrinterDriver(printerInfo2);
+        stubLoad(printerDriverBase1, false, 0, 0);
+        stubLoad(printerDriverBase2, true, 5000, 3);
+
+        assertThat(printerDriverFactory.getLeastLoadedPrinterDriver(Arrays.asList(printerInfo1, printerInfo2))).isSameAs(printerDriverBase2);
+
+        when(printerDriverBase2.isHealthy()).thenReturn(false);
+        assertThat(printerDriverFactory.getLeastLoadedPrinterDriver(Arrays.asList(printerInfo1, printerInfo2))).isSameAs(printerDriverBase1);
+    }
+
+    private void stubLoad(PrinterDriverBase printerDriverBase, boolean healthy, long expectedCompletionNanos, int printJobCount) {
+        when(printerInfo1.sameAddressAndPrinter(any(BasePrinterInfo.class))).thenReturn(true);
+        when(printerInfo2.sameAddressAndPrinter(any(BasePrinterInfo.class))).thenReturn(true);
+        when(printerDriverBase.isHealthy()).thenReturn(healthy);
+        when(printerDriverBase.getExpectedCompletionNanos()).thenReturn(expectedCompletionNanos);
+        when(printerDriverBase.getPrintJobCount()).thenReturn(printJobCount);
+    }
+
+    @Test
+    public void onlyPrintersWithAJournalAreCreatedToReplayIt() throws Exception {
+        final File journalFile = temporaryFolder.newFile("journal-ID-1");
+        final List<String> createdPrinterIds = new ArrayList<>();
+        PrinterDriverFactory journalingFactory = new PrinterDriverFactory() {
+            @Override
+            protected PrinterDriverBase createPrinterDriver(BasePrinterInfo printerInfo) {
+                createdPrinterIds.add(printerInfo.getPrinterId());
+                PrinterDriverBase printerDriverBase = mock(PrinterDriverBase.class);
+                when(printerDriverBase.getPrinterInfo()).thenReturn(printerInfo);
+                return printerDriverBase;
+            }
+
+            @Override
+            protected File getPrintJobJournalFile(BasePrinterInfo printerInfo) {
+                return "ID-1".equals(printerInfo.getPrinterId()) ? journalFile : null;
+            }
+        };
+
+        journalingFactory.replayPrintJobJournals(Arrays.asList(printerInfo1, printerInfo2));
+
+        assertThat(createdPrinterIds).containsExactly("ID-1");
+        verify(journalingFactory.getPrinterDriver(printerInfo1)).setPrintJobJournal(any(PrintJobJournal.class));
+    }
 }
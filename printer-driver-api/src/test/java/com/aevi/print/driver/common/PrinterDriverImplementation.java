@@ -25,6 +25,7 @@ public class PrinterDriverImplementation extends PrinterDriverBase<FakePrinterIn
     public int executePrintActionTaskCounter;
     public int executePrintPayloadTaskCounter;
     public int disconnectFromPrinterCounter;
+    public int printJobCancelledCounter;
     public PrintPayload executePrintPayload;
     public String executePrintAction;
     private boolean automaticOnPrinterConnected;
@@ -77,6 +78,11 @@ public class PrinterDriverImplementation extends PrinterDriverBase<FakePrinterIn
         }
     }
 
+    @Override
+    protected void onPrintJobCancelled() {
+        printJobCancelledCounter++;
+    }
+
     public void setAutomaticOnPrinterConnected() {
         automaticOnPrinterConnected = true;
     }
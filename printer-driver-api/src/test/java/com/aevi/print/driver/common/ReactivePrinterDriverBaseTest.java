@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import androidx.annotation.NonNull;
+
+import com.aevi.print.model.BasePrinterInfo;
+import com.aevi.print.model.PrintJob;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrinterMessages;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Function;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class ReactivePrinterDriverBaseTest {
+
+    private final TestScheduler testScheduler = new TestScheduler();
+    private ReactivePrinterDriver printerDriver;
+
+    @Before
+    public void setup() {
+        RxJavaPlugins.setComputationSchedulerHandler(new Function<Scheduler, Scheduler>() {
+            @Override
+            public Scheduler apply(Scheduler scheduler) {
+                return testScheduler;
+            }
+        });
+        printerDriver = new ReactivePrinterDriver(new FakePrinterInfo("ID-1"));
+    }
+
+    @After
+    public void tearDown() {
+        RxJavaPlugins.reset();
+    }
+
+    @Test
+    public void completablesDriveThePrintJob() {
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+
+        assertCompleteWithState(obs, PrintJob.State.PRINTED);
+        assertThat(printerDriver.connectCounter).isEqualTo(1);
+        assertThat(printerDriver.printCounter).isEqualTo(1);
+        assertThat(printerDriver.disconnectCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aFailedConnectionIsADriverError() {
+        printerDriver.connectResult = Completable.error(new RuntimeException("no route"));
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+
+        assertFailedWithReason(obs, PrinterMessages.PRINTER_OFFLINE);
+        assertThat(printerDriver.printCounter).isEqualTo(0);
+    }
+
+    @Test
+    public void aPrinterDriverExceptionGivesTheFailedReason() {
+        printerDriver.printResult = Completable.error(new PrinterDriverException("OUT-OF-PAPER", "diagnostic"));
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+
+        assertFailedWithReason(obs, "OUT-OF-PAPER");
+        assertThat(printerDriver.disconnectCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void aStepThatNeverCompletesTimesOut() {
+        printerDriver.printResult = Completable.never();
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+        obs.assertNotComplete();
+
+        testScheduler.advanceTimeBy(ReactivePrinterDriverBase.DEFAULT_TASK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        assertFailedWithReason(obs, PrinterMessages.ERROR_PRINT_FAILED);
+        assertThat(printerDriver.disconnectCounter).isEqualTo(1);
+
+        printerDriver.printResult = Completable.complete();
+        assertCompleteWithState(printerDriver.print(new PrintPayload("ID-1")).test(), PrintJob.State.PRINTED);
+    }
+
+    @Test
+    public void cancellingThePrintJobDisposesOfThePrintStep() {
+        final boolean[] disposed = new boolean[1];
+        printerDriver.printResult = Completable.never().doOnDispose(new Action() {
+            @Override
+            public void run() {
+                disposed[0] = true;
+            }
+        });
+
+        TestObserver<PrintJob> obs = printerDriver.print(new PrintPayload("ID-1")).test();
+        obs.dispose();
+
+        assertThat(disposed[0]).isTrue();
+        assertThat(printerDriver.disconnectCounter).isEqualTo(1);
+        assertThat(printerDriver.getPrinterHealth().getPrintsFailed()).isEqualTo(0);
+
+        printerDriver.printResult = Completable.complete();
+        assertCompleteWithState(printerDriver.print(new PrintPayload("ID-1")).test(), PrintJob.State.PRINTED);
+    }
+
+    @Test
+    public void actionsAreCarriedOut() {
+        printerDriver.sendPrinterAction(PrinterMessages.ACTION_OPEN_CASH_DRAWER);
+
+        assertThat(printerDriver.actionCounter).isEqualTo(1);
+        assertThat(printerDriver.disconnectCounter).isEqualTo(1);
+    }
+
+    private void assertCompleteWithState(TestObserver<PrintJob> obs, PrintJob.State state) {
+        obs.assertNoErrors();
+        obs.assertComplete();
+        assertThat(obs.values().get(obs.values().size() - 1).getPrintJobState()).isEqualTo(state);
+    }
+
+    private void assertFailedWithReason(TestObserver<PrintJob> obs, String failedReason) {
+        assertCompleteWithState(obs, PrintJob.State.FAILED);
+        assertThat(obs.values().get(obs.values().size() - 1).getFailedReason()).isEqualTo(failedReason);
+    }
+
+    static class ReactivePrinterDriver extends ReactivePrinterDriverBase<FakePrinterInfo> {
+        int connectCounter;
+        int disconnectCounter;
+        int printCounter;
+        int actionCounter;
+        Completable connectResult = Completable.complete();
+        Completable printResult = Completable.complete();
+
+        ReactivePrinterDriver(BasePrinterInfo printerInfo) {
+            super(printerInfo);
+        }
+
+        @NonNull
+        @Override
+        protected Completable connect() {
+            connectCounter++;
+            return connectResult;
+        }
+
+        @NonNull
+        @Override
+        protected Completable disconnect() {
+            disconnectCounter++;
+            return Completable.complete();
+        }
+
+        @NonNull
+        @Override
+        protected Completable printPayload(@NonNull PrintPayload printPayload) {
+            printCounter++;
+            return printResult;
+        }
+
+        @NonNull
+        @Override
+        protected Completable performAction(@NonNull String printAction) {
+            actionCounter++;
+            return Completable.complete();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common;
+
+import com.aevi.print.model.Alignment;
+import com.aevi.print.model.PrinterFont;
+import com.aevi.print.model.PrinterFontBuilder;
+import com.aevi.print.model.PrinterSettingsBuilder;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class TextLayoutTest {
+
+    private final TextLayout textLayout = new TextLayout(16);
+
+    @Test
+    public void textIsWrappedAtWordBoundaries() {
+        assertThat(textLayout.wrap("Thank you for shopping with us", Alignment.LEFT))
+                .containsExactly("Thank you for", "shopping with us");
+    }
+
+    @Test
+    public void wordsLongerThanALineAreBroken() {
+        assertThat(textLayout.wrap("Ref 0123456789ABCDEFGH", Alignment.LEFT))
+                .containsExactly("Ref", "0123456789ABCDEF", "GH");
+    }
+
+    @Test
+    public void newLinesStartANewLine() {
+        assertThat(textLayout.wrap("Aevi\n\nLondon", Alignment.LEFT)).containsExactly("Aevi", "", "London");
+    }
+
+    @Test
+    public void linesAreCentredAndRightAligned() {
+        assertThat(textLayout.wrap("RECEIPT", Alignment.CENTER)).containsExactly("    RECEIPT");
+        assertThat(textLayout.wrap("RECEIPT", Alignment.RIGHT)).containsExactly("         RECEIPT");
+    }
+
+    @Test
+    public void justifiedLinesFillTheWidthExceptTheLast() {
+        assertThat(textLayout.justify("Goods once sold can not be returned"))
+                .containsExactly("Goods  once sold", "can    not    be", "returned");
+    }
+
+    @Test
+    public void columnsArePaddedToTheWidth() {
+        assertThat(textLayout.columns("Flat white", "2.80")).containsExactly("Flat white  2.80");
+    }
+
+    @Test
+    public void leftColumnWrapsWithTheValueOnItsLastLine() {
+        assertThat(textLayout.columns("Large oat milk latte", "3.40")).containsExactly("Large oat", "milk latte  3.40");
+    }
+
+    @Test
+    public void layoutsAreCached() {
+        textLayout.columns("Flat white", "2.80");
+
+        assertThat(textLayout.columns("Flat white", "2.80")).isSameAs(textLayout.columns("Flat white", "2.80"));
+        assertThat(textLayout.getCacheHitRatio()).isEqualTo(2.0 / 3);
+    }
+
+    @Test
+    public void columnsComeFromTheWidthOfAFontWithoutThem() {
+        PrinterFont printerFont = new PrinterFontBuilder().withId(0).withName("Font A").withWidth(12).build();
+
+        assertThat(TextLayout.getColumns(printerFont, new PrinterSettingsBuilder("ID-1", 80, 72, 8).build())).isEqualTo(48);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.common.service;
+
+import com.aevi.print.driver.TrampolineSchedulerRule;
+import com.aevi.print.driver.common.PrinterDriverBase;
+import com.aevi.print.driver.common.PrinterDriverFactory;
+import com.aevi.print.driver.common.PrinterDriverImplementation;
+import com.aevi.print.model.BasePrinterInfo;
+import com.aevi.print.model.PrintJob;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrintRequest;
+import com.aevi.print.model.PrinterMessages;
+import com.aevi.print.model.PrinterSettings;
+import com.aevi.print.model.PrintingContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CommonPrinterDriverServiceTest {
+
+    @Rule
+    public TrampolineSchedulerRule trampolineSchedulerRule = new TrampolineSchedulerRule();
+
+    private final Map<String, PrinterDriverImplementation> printerDrivers = new HashMap<>();
+    private final Map<String, PrinterSettings> printerSettings = new HashMap<>();
+    private final RecordingPrintingContext printingContext = new RecordingPrintingContext();
+    private final PrinterDriverFactory printerDriverFactory = new PrinterDriverFactory() {
+        @Override
+        protected PrinterDriverBase createPrinterDriver(BasePrinterInfo printerInfo) {
+            return printerDrivers.get(printerInfo.getPrinterId());
+        }
+    };
+
+    private TestPrinterDriverService printerDriverService;
+
+    @Before
+    public void setup() {
+        printerDriverService = new TestPrinterDriverService();
+        printerDriverService.setPrinterDriverFactory(printerDriverFactory);
+        addPrinter("ID-1").setAutomaticOnDriverError(PrinterMessages.PRINTER_OFFLINE);
+        addOnlinePrinter("ID-2");
+        addOnlinePrinter("ID-3");
+    }
+
+    @Test
+    public void aPrintJobIsOnlyPrintedOnThePrinterAskedFor() {
+        printerDriverService.print(printingContext, new PrintPayload("ID-2"));
+
+        assertThat(printerDrivers.get("ID-2").executePrintPayloadTaskCounter).isEqualTo(1);
+        assertThat(printingContext.getFinalMessage()).doesNotContain("printerId");
+        assertThat(PrintJob.fromJson(printingContext.getFinalMessage()).getPrintJobState()).isEqualTo(PrintJob.State.PRINTED);
+    }
+
+    @Test
+    public void anOfflinePrinterWithoutAFailoverChainFailsThePrintJob() {
+        printerDriverService.print(printingContext, new PrintPayload("ID-1"));
+
+        assertThat(PrintJob.fromJson(printingContext.getFinalMessage()).getFailedReason()).isEqualTo(PrinterMessages.PRINTER_OFFLINE);
+    }
+
+    @Test
+    public void anOfflinePrinterFailsOverToTheNextCompatibleBackup() {
+        printerDriverFactory.setFailoverChain("ID-1", Arrays.asList("ID-2", "ID-3"));
+        printerSettings.put("ID-1", createPrinterSettings("ID-1", 576));
+        printerSettings.put("ID-2", createPrinterSettings("ID-2", 384));
+        printerSettings.put("ID-3", createPrinterSettings("ID-3", 576));
+
+        printerDriverService.print(printingContext, new PrintPayload("ID-1"));
+
+        assertThat(printerDrivers.get("ID-2").executePrintPayloadTaskCounter).isEqualTo(0);
+        assertThat(printerDrivers.get("ID-3").executePrintPayloadTaskCounter).isEqualTo(1);
+        String finalMessage = printingContext.getFinalMessage();
+        assertThat(PrintJob.fromJson(finalMessage).getPrintJobState()).isEqualTo(PrintJob.State.PRINTED);
+        assertThat(finalMessage).contains("\"printerId\":\"ID-3\"");
+        assertThat(printingContext.messages).hasSize(2);
+    }
+
+    @Test
+    public void theProgressOfTheCopiesPrintedOnABackupIsReported() {
+        printerDriverFactory.setFailoverChain("ID-1", Arrays.asList("ID-2"));
+        printerSettings.put("ID-1", createPrinterSettings("ID-1", 576));
+        printerSettings.put("ID-2", createPrinterSettings("ID-2", 576));
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.setCopies(2);
+
+        printerDriverService.print(printingContext, printRequest);
+
+        assertThat(printerDrivers.get("ID-2").executePrintPayloadTaskCounter).isEqualTo(2);
+        assertThat(printingContext.messages).hasSize(4);
+        assertThat(PrintJob.fromJson(printingContext.messages.get(0)).getPrintJobState()).isEqualTo(PrintJob.State.IN_PROGRESS);
+        assertThat(PrintJob.fromJson(printingContext.messages.get(1)).getDiagnosticMessage()).isEqualTo("Printed copy 1 of 2");
+        assertThat(PrintJob.fromJson(printingContext.messages.get(2)).getDiagnosticMessage()).isEqualTo("Printed copy 2 of 2");
+        assertThat(PrintJob.fromJson(printingContext.getFinalMessage()).getPrintJobState()).isEqualTo(PrintJob.State.PRINTED);
+    }
+
+    @Test
+    public void aPrinterGroupPrintsOnTheLeastLoadedMember() {
+        printerDriverFactory.setPrinterGroup("KITCHEN", Arrays.asList("ID-2", "ID-3"));
+        PrinterDriverImplementation busyPrinter = addPrinter("ID-2");
+        busyPrinter.print(new PrintPayload("ID-2")).test();
+
+        printerDriverService.print(printingContext, new PrintPayload("KITCHEN"));
+
+        assertThat(printerDrivers.get("ID-3").executePrintPayloadTaskCounter).isEqualTo(1);
+        assertThat(printingContext.getFinalMessage()).contains("\"printerId\":\"ID-3\"");
+    }
+
+    private PrinterDriverImplementation addPrinter(final String printerId) {
+        BasePrinterInfo printerInfo = new BasePrinterInfo() {
+            @Override
+            public String getPrinterId() {
+                return printerId;
+            }
+        };
+        PrinterDriverImplementation printerDriver = new PrinterDriverImplementation(printerInfo);
+        printerDrivers.put(printerId, printerDriver);
+        return printerDriver;
+    }
+
+    private void addOnlinePrinter(String printerId) {
+        PrinterDriverImplementation printerDriver = addPrinter(printerId);
+        printerDriver.setAutomaticOnPrinterConnected();
+        printerDriver.setAutomaticOnTaskCompleted();
+    }
+
+    private static PrinterSettings createPrinterSettings(String printerId, int printableWidth) {
+        PrinterSettings printerSettings = mock(PrinterSettings.class);
+        when(printerSettings.getPrinterId()).thenReturn(printerId);
+        when(printerSettings.getPrintableWidth()).thenReturn(printableWidth);
+        return printerSettings;
+    }
+
+    class TestPrinterDriverService extends CommonPrinterDriverService {
+
+        @Override
+        protected void setPrinterDriverFactory(PrinterDriverFactory printerDriverFactory) {
+            super.setPrinterDriverFactory(printerDriverFactory);
+        }
+
+        @Override
+        protected BasePrinterInfo getDeviceInfo(String printerId) {
+            PrinterDriverImplementation printerDriver = printerDrivers.get(printerId);
+            return printerDriver != null ? printerDriver.getPrinterInfo() : null;
+        }
+
+        @Override
+        protected PrinterSettings getPrinterSettings(String printerId) {
+            return printerSettings.get(printerId);
+        }
+    }
+
+    static class RecordingPrintingContext implements PrintingContext {
+        final List<String> messages = new ArrayList<>();
+        boolean ended;
+
+        @Override
+        public boolean send(String message) {
+            messages.add(message);
+            return true;
+        }
+
+        @Override
+        public boolean sendEndStream() {
+            ended = true;
+            return true;
+        }
+
+        @Override
+        public boolean sendError(String code, String message) {
+            messages.add(code);
+            return true;
+        }
+
+        String getFinalMessage() {
+            assertThat(ended).isTrue();
+            return messages.get(messages.size() - 1);
+        }
+    }
+}
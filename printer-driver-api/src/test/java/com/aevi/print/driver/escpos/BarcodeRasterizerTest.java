@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class BarcodeRasterizerTest {
+
+    private final BarcodeRasterizer rasterizer = new BarcodeRasterizer();
+
+    @Test
+    public void checkQrCodeScansBack() throws Exception {
+        String data = "https://example.com/app?store=42&lang=\u00e9";
+
+        RasterImage rasterImage = rasterizer.rasterize(new Barcode(Barcode.Symbology.QR_CODE, data, 4), 0);
+
+        assertThat(rasterImage.getWidth()).isEqualTo(rasterImage.getHeight());
+        assertThat(rasterImage.getWidth() % 4).isEqualTo(0);
+        assertThat(scanQrCode(rasterImage)).isEqualTo(data);
+    }
+
+    @Test
+    public void checkEan13IsDrawnWithItsQuietZone() {
+        RasterImage rasterImage = rasterizer.rasterize(new Barcode(Barcode.Symbology.EAN_13, "501234567890", 2), 0);
+
+        // 95 modules and a quiet zone of 10 modules on each side
+        assertThat(rasterImage.getWidth()).isEqualTo(115 * 2);
+        assertThat(rasterImage.getHeight()).isEqualTo(BarcodeRasterizer.LINEAR_HEIGHT_MODULES * 2);
+        assertThat(rasterImage.isBlack(19, 0)).isFalse();
+        // the start guard is bar, space, bar
+        assertThat(rasterImage.isBlack(20, 0)).isTrue();
+        assertThat(rasterImage.isBlack(21, 79)).isTrue();
+        assertThat(rasterImage.isBlack(22, 40)).isFalse();
+        assertThat(rasterImage.isBlack(24, 40)).isTrue();
+    }
+
+    @Test
+    public void checkModuleSizeIsReducedToFitTheWidth() {
+        RasterImage rasterImage = rasterizer.rasterize(new Barcode(Barcode.Symbology.CODE_128, "ORDER-1234", 6), 400);
+
+        assertThat(rasterImage.getWidth()).isLessThanOrEqualTo(400);
+        assertThat(rasterImage.getHeight()).isEqualTo(BarcodeRasterizer.LINEAR_HEIGHT_MODULES * 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkInvalidDataIsRejected() {
+        rasterizer.rasterize(new Barcode(Barcode.Symbology.EAN_13, "50123456789X"), 0);
+    }
+
+    private static String scanQrCode(RasterImage rasterImage) throws Exception {
+        int width = rasterImage.getWidth();
+        int height = rasterImage.getHeight();
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = rasterImage.isBlack(x, y) ? 0xff000000 : 0xffffffff;
+            }
+        }
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new RGBLuminanceSource(width, height, pixels)));
+        return new QRCodeReader().decode(bitmap).getText();
+    }
+}
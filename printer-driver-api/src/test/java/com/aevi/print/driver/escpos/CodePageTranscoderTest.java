@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class CodePageTranscoderTest {
+
+    private static final byte ESC = 0x1b;
+
+    @Test
+    public void asciiIsWrittenAsItIs() {
+        CodePageTranscoder transcoder = new CodePageTranscoder(new int[]{437});
+
+        assertThat(encode(transcoder, "Total 5.00")).isEqualTo("Total 5.00".getBytes());
+    }
+
+    @Test
+    public void charactersInTheCurrentCodePageNeedNoSwitch() {
+        CodePageTranscoder transcoder = new CodePageTranscoder(new int[]{437, 1252});
+
+        // e acute is 0x82 in code page 437, which the printer is in after it is initialised
+        assertThat(encode(transcoder, "caf\u00e9")).containsExactly('c', 'a', 'f', (byte) 0x82);
+        assertThat(transcoder.getCurrentCodePage()).isEqualTo(437);
+    }
+
+    @Test
+    public void codePageIsSwitchedForCharactersItDoesNotHold() {
+        CodePageTranscoder transcoder = new CodePageTranscoder(new int[]{437, 1252});
+
+        // the euro sign is not in code page 437, it is 0x80 in 1252
+        assertThat(encode(transcoder, "\u20ac5 \u00e9")).containsExactly(ESC, 't', 16, (byte) 0x80, '5', ' ', (byte) 0xe9);
+        assertThat(transcoder.getCurrentCodePage()).isEqualTo(1252);
+    }
+
+    @Test
+    public void theCodePageHoldingMoreOfTheTextIsChosen() {
+        CodePageTranscoder transcoder = new CodePageTranscoder(new int[]{1252, 866});
+
+        // the first character is in both code pages, but only 866 holds the rest
+        assertThat(encode(transcoder, "\u00b0\u041f\u0440")).containsExactly(ESC, 't', 17, (byte) 0xf8, (byte) 0x8f, (byte) 0xe0);
+    }
+
+    @Test
+    public void charactersInNoCodePageArePrintedAsQuestionMarks() {
+        CodePageTranscoder transcoder = new CodePageTranscoder((int[]) null);
+
+        assertThat(encode(transcoder, "5\u20ac")).containsExactly('5', '?');
+        assertThat(transcoder.canEncode('\u20ac')).isFalse();
+    }
+
+    @Test
+    public void encodingStopsWhenTheBufferIsFull() {
+        CodePageTranscoder transcoder = new CodePageTranscoder(new int[]{1252});
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+
+        int next = transcoder.encode("ab\u20ac", 0, buffer);
+
+        // there is no room for the switch and the euro sign
+        assertThat(next).isEqualTo(2);
+        assertThat(buffer.position()).isEqualTo(2);
+    }
+
+    private static byte[] encode(CodePageTranscoder transcoder, String text) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        assertThat(transcoder.encode(text, 0, buffer)).isEqualTo(text.length());
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+}
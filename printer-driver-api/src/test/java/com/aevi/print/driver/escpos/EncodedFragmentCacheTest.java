@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import com.aevi.print.model.PrinterSettings;
+import com.aevi.print.model.PrinterSettingsBuilder;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class EncodedFragmentCacheTest {
+
+    private final EncodedFragmentCache fragmentCache = new EncodedFragmentCache(16);
+
+    @Test
+    public void fragmentsAreAddressedByContentAndPrinterSettings() {
+        long address = EncodedFragmentCache.hash(EncodedFragmentCache.TEXT_SEED, "1 High Street");
+        long narrowPrinter = EncodedFragmentCache.settingsKey(createPrinterSettings(48));
+        long widePrinter = EncodedFragmentCache.settingsKey(createPrinterSettings(72));
+        byte[] encoded = {1, 2, 3};
+
+        fragmentCache.put(address, narrowPrinter, encoded);
+
+        assertThat(fragmentCache.get(EncodedFragmentCache.hash(EncodedFragmentCache.TEXT_SEED, "1 High Street"), narrowPrinter)).isSameAs(encoded);
+        assertThat(fragmentCache.get(address, widePrinter)).isNull();
+        assertThat(fragmentCache.get(EncodedFragmentCache.hash(EncodedFragmentCache.TEXT_SEED, "2 High Street"), narrowPrinter)).isNull();
+        assertThat(fragmentCache.getHitRatio()).isEqualTo(1.0 / 3);
+    }
+
+    @Test
+    public void fragmentsAreEvictedBySize() {
+        fragmentCache.put(1, 0, new byte[8]);
+        fragmentCache.put(2, 0, new byte[8]);
+        fragmentCache.put(3, 0, new byte[8]);
+
+        assertThat(fragmentCache.get(1, 0)).isNull();
+        assertThat(fragmentCache.getBytes()).isEqualTo(16);
+        assertThat(fragmentCache.getEvictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void theSeedKeepsKindsOfContentApart() {
+        assertThat(EncodedFragmentCache.hash(EncodedFragmentCache.TEXT_SEED, "5012345678900"))
+                .isNotEqualTo(EncodedFragmentCache.hash(EncodedFragmentCache.BARCODE_SEED, "5012345678900"));
+    }
+
+    private PrinterSettings createPrinterSettings(int printableWidth) {
+        return new PrinterSettingsBuilder("ID-1", 80, printableWidth, 8).build();
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import com.aevi.print.driver.common.PrintTemplate;
+import com.aevi.print.model.Alignment;
+import com.aevi.print.model.FontStyle;
+import com.aevi.print.model.PrintPayload;
+import com.aevi.print.model.PrinterFont;
+import com.aevi.print.model.PrinterFontBuilder;
+import com.aevi.print.model.PrinterSettings;
+import com.aevi.print.model.PrinterSettingsBuilder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class EscPosEncoderTest {
+
+    private static final byte ESC = 0x1b;
+    private static final byte GS = 0x1d;
+    private static final byte LF = 0x0a;
+    private static final byte[] CUT = {ESC, 'd', 3, GS, 'V', 66, 0};
+
+    private final ByteBufferPool bufferPool = new ByteBufferPool(16, 2);
+    private final EscPosEncoder encoder = new EscPosEncoder(createPrinterSettings(), bufferPool);
+
+    @Test
+    public void textIsPrintedBetweenInitialiseAndCut() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("Hello");
+
+        byte[] bytes = encode(printPayload);
+
+        assertThat(bytes).isEqualTo(concat(new byte[]{ESC, '@'}, "Hello".getBytes(), new byte[]{LF}, CUT));
+    }
+
+    @Test
+    public void alignmentIsOnlySentWhenItChanges() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("a").align(Alignment.CENTER);
+        printPayload.append("b").align(Alignment.CENTER);
+        printPayload.append("c").align(Alignment.LEFT);
+        encoder.setCutAfterPayload(false);
+
+        byte[] bytes = encode(printPayload);
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', ESC, 'a', 1, 'a', LF, 'b', LF, ESC, 'a', 0, 'c', LF});
+    }
+
+    @Test
+    public void boldAndPrinterFontsAreSelected() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("bold").fontStyle(FontStyle.BOLD);
+        printPayload.append("small").printerFontId(1);
+        printPayload.append("unknown").printerFontId(7);
+        encoder.setCutAfterPayload(false);
+
+        byte[] bytes = encode(printPayload);
+
+        assertThat(bytes).isEqualTo(concat(new byte[]{ESC, '@', ESC, 'E', 1}, "bold".getBytes(), new byte[]{LF, ESC, 'E', 0, ESC, 'M', 1},
+                                           "small".getBytes(), new byte[]{LF, ESC, 'M', 0}, "unknown".getBytes(), new byte[]{LF}));
+    }
+
+    @Test
+    public void charactersOutsideOfAsciiAreReplaced() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("5\u20ac");
+        encoder.setCutAfterPayload(false);
+
+        assertThat(encode(printPayload)).isEqualTo(new byte[]{ESC, '@', '5', '?', LF});
+    }
+
+    @Test
+    public void charactersAreEncodedInTheCodePagesOfThePrinter() throws IOException {
+        PrinterSettings printerSettings = new PrinterSettingsBuilder("ID-1", 80, 72, 8)
+                .withDoesSupportCodepages(true).withCodePages(new int[]{437, 858}).build();
+        EscPosEncoder encoder = new EscPosEncoder(printerSettings, bufferPool);
+        encoder.setCutAfterPayload(false);
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("5\u20ac");
+        printPayload.append("\u00e9");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        encoder.encode(printPayload, Channels.newChannel(outputStream));
+
+        assertThat(outputStream.toByteArray()).isEqualTo(new byte[]{ESC, '@', '5', ESC, 't', 19, (byte) 0xd5, LF, (byte) 0x82, LF});
+    }
+
+    @Test
+    public void textThePrinterCanNotPrintIsPrintedAsAnImage() throws IOException {
+        encoder.setTextRunCache(new TextRunCache(new TextRunCache.Renderer() {
+            @Override
+            public RasterImage render(String text, int textSize, boolean bold, int maxWidth) {
+                return new RasterImage(8, 1, new byte[]{(byte) 0xff});
+            }
+
+            @Override
+            public int measure(String text, int textSize, boolean bold) {
+                return 8;
+            }
+        }, 1024));
+        encoder.setCutAfterPayload(false);
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("\u0e02\u0e2d\u0e1a").align(Alignment.CENTER);
+        printPayload.append("ok");
+
+        byte[] bytes = encode(printPayload);
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', ESC, 'a', 1, GS, 'v', '0', 0, 1, 0, 1, 0, (byte) 0xff, ESC, 'a', 0, 'o', 'k', LF});
+    }
+
+    @Test
+    public void textPrintedAsAnImageIsWrappedToTheWidthOfThePaper() throws IOException {
+        final List<String> renderedLines = new ArrayList<>();
+        encoder.setTextRunCache(new TextRunCache(new TextRunCache.Renderer() {
+            @Override
+            public RasterImage render(String text, int textSize, boolean bold, int maxWidth) {
+                renderedLines.add(text);
+                return new RasterImage(8, 1, new byte[]{(byte) 0xff});
+            }
+
+            @Override
+            public int measure(String text, int textSize, boolean bold) {
+                return 100 * text.length();
+            }
+        }, 1024));
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("\u0e02\u0e2d\u0e1a \u0e04\u0e38\u0e13\n\u0e04\u0e30");
+
+        encode(printPayload);
+
+        // the paper is 576 dots wide, so 5 characters fit on a line
+        assertThat(renderedLines).containsExactly("\u0e02\u0e2d\u0e1a", "\u0e04\u0e38\u0e13", "\u0e04\u0e30");
+    }
+
+    @Test
+    public void onlyTheRowsWithSlotsOfATemplateAreEncodedForEachPrint() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("Shop").align(Alignment.CENTER);
+        printPayload.append("{{item}}").fontStyle(FontStyle.BOLD);
+        printPayload.append("Thanks").align(Alignment.CENTER);
+        PrintTemplate printTemplate = new PrintTemplate("receipt", printPayload);
+        Map<String, String> slotValues = new HashMap<>();
+        slotValues.put("item", "Coffee");
+
+        EscPosTemplate escPosTemplate = encoder.compile(printTemplate);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long bytesWritten = encoder.encode(escPosTemplate, slotValues, Channels.newChannel(outputStream));
+
+        assertThat(bytesWritten).isEqualTo(outputStream.size());
+        assertThat(escPosTemplate.getPreEncodedBytes()).isEqualTo(24);
+        assertThat(outputStream.toByteArray()).isEqualTo(concat(new byte[]{ESC, '@', ESC, 'a', 1}, "Shop".getBytes(),
+                                                                new byte[]{LF, ESC, 'a', 0, ESC, 'E', 1}, "Coffee".getBytes(),
+                                                                new byte[]{LF, ESC, 'a', 1, ESC, 'E', 0, ESC, 'M', 0},
+                                                                "Thanks".getBytes(), new byte[]{LF}, CUT));
+    }
+
+    @Test
+    public void aTemplateRedefinedUnderTheSameIdIsCompiledAgain() throws IOException {
+        PrintPayload first = new PrintPayload("ID-1");
+        first.append("Shop {{item}}");
+        PrintPayload second = new PrintPayload("ID-1");
+        second.append("Cafe {{item}}");
+        Map<String, String> slotValues = Collections.singletonMap("item", "Tea");
+        encoder.setCutAfterPayload(false);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encoder.encode(new PrintTemplate("receipt", first), slotValues, Channels.newChannel(outputStream));
+        assertThat(outputStream.toByteArray()).isEqualTo(concat(new byte[]{ESC, '@'}, "Shop Tea".getBytes(), new byte[]{LF}));
+
+        outputStream.reset();
+        encoder.encode(new PrintTemplate("receipt", second), slotValues, Channels.newChannel(outputStream));
+        assertThat(outputStream.toByteArray()).isEqualTo(concat(new byte[]{ESC, '@'}, "Cafe Tea".getBytes(), new byte[]{LF}));
+    }
+
+    @Test
+    public void templatesOfDifferentClientsWithTheSameIdAreEachCompiledOnce() throws IOException {
+        final AtomicInteger compilations = new AtomicInteger();
+        EscPosEncoder countingEncoder = new EscPosEncoder(createPrinterSettings(), bufferPool) {
+            @Override
+            public EscPosTemplate compile(PrintTemplate printTemplate) throws IOException {
+                compilations.incrementAndGet();
+                return super.compile(printTemplate);
+            }
+        };
+        PrintPayload till = new PrintPayload("ID-1");
+        till.append("Shop {{item}}");
+        PrintPayload kitchen = new PrintPayload("ID-1");
+        kitchen.append("Table {{item}}");
+        PrintTemplate tillTemplate = new PrintTemplate("receipt", till);
+        PrintTemplate kitchenTemplate = new PrintTemplate("receipt", kitchen);
+        Map<String, String> slotValues = Collections.singletonMap("item", "Tea");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            countingEncoder.encode(tillTemplate, slotValues, Channels.newChannel(outputStream));
+            countingEncoder.encode(kitchenTemplate, slotValues, Channels.newChannel(outputStream));
+        }
+
+        assertThat(compilations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void aSegmentOfATemplateSetsTheStateItNeeds() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("{{item}}").fontStyle(FontStyle.BOLD).align(Alignment.CENTER);
+        printPayload.append("Thanks");
+        encoder.setCutAfterPayload(false);
+
+        EscPosTemplate escPosTemplate = encoder.compile(new PrintTemplate("receipt", printPayload));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encoder.encode(escPosTemplate, Collections.singletonMap("item", "Tea"), Channels.newChannel(outputStream));
+
+        assertThat(outputStream.toByteArray()).isEqualTo(concat(new byte[]{ESC, '@', ESC, 'a', 1, ESC, 'E', 1}, "Tea".getBytes(),
+                                                                new byte[]{LF, ESC, 'a', 0, ESC, 'E', 0, ESC, 'M', 0},
+                                                                "Thanks".getBytes(), new byte[]{LF}));
+    }
+
+    @Test
+    public void aQrCodeIsGeneratedByThePrinterWhenItIsNative() throws IOException {
+        EscPosEncoder nativeEncoder = new EscPosEncoder(createPrinterSettings("QR_CODE, CODE_128"), bufferPool);
+
+        byte[] bytes = encodeBarcode(nativeEncoder, new Barcode(Barcode.Symbology.QR_CODE, "abc", 5));
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', ESC, 'a', 1,
+                GS, '(', 'k', 4, 0, 49, 65, 50, 0,
+                GS, '(', 'k', 3, 0, 49, 67, 5,
+                GS, '(', 'k', 3, 0, 49, 69, 49,
+                GS, '(', 'k', 6, 0, 49, 80, 48, 'a', 'b', 'c',
+                GS, '(', 'k', 3, 0, 49, 81, 48});
+    }
+
+    @Test
+    public void aCode128BarcodeIsGeneratedByThePrinterInCodeSetB() throws IOException {
+        EscPosEncoder nativeEncoder = new EscPosEncoder(createPrinterSettings("QR_CODE, CODE_128"), bufferPool);
+
+        byte[] bytes = encodeBarcode(nativeEncoder, new Barcode(Barcode.Symbology.CODE_128, "A{1", 2));
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', ESC, 'a', 1, GS, 'h', 80, GS, 'w', 2,
+                GS, 'k', 73, 6, '{', 'B', 'A', '{', '{', '1'});
+    }
+
+    @Test
+    public void aBarcodeThePrinterCanNotGenerateIsRasterisedOnce() throws IOException {
+        EncodedFragmentCache fragmentCache = new EncodedFragmentCache();
+        encoder.setFragmentCache(fragmentCache);
+        Barcode barcode = new Barcode(Barcode.Symbology.QR_CODE, "https://example.com/app");
+
+        byte[] first = encodeBarcode(encoder, barcode);
+        byte[] second = encodeBarcode(encoder, barcode);
+
+        // the quiet zone above the symbol is fed
+        assertThat(first).startsWith(ESC, '@', ESC, 'a', 1, ESC, 'J', 12, GS, 'v', '0');
+        assertThat(second).isEqualTo(first);
+        assertThat(fragmentCache.getFragmentCount()).isEqualTo(1);
+        assertThat(fragmentCache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void aCopyIsEncodedWithoutTheCut() throws IOException {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("Merchant copy");
+
+        byte[] copy = encoder.encodeCopy(printPayload);
+
+        assertThat(copy).isEqualTo(concat(new byte[]{ESC, '@'}, "Merchant copy".getBytes(), new byte[]{LF}));
+    }
+
+    @Test
+    public void aPayloadLargerThanTheBufferIsWrittenInPiecesWithPooledBuffers() throws IOException {
+        String text = "The quick brown fox jumps over the lazy dog";
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append(text);
+
+        byte[] first = encode(printPayload);
+        byte[] second = encode(printPayload);
+
+        assertThat(first).isEqualTo(concat(new byte[]{ESC, '@'}, text.getBytes(), new byte[]{LF}, CUT));
+        assertThat(second).isEqualTo(first);
+        assertThat(bufferPool.getBuffersAllocated()).isEqualTo(1);
+        assertThat(bufferPool.getPooledBuffers()).isEqualTo(1);
+    }
+
+    @Test
+    public void blankRowsOfAnImageAreFed() throws IOException {
+        byte[] bits = new byte[2 * 40];
+        bits[10 * 2] = (byte) 0xff;
+
+        byte[] bytes = encodeImage(new RasterImage(16, 40, bits));
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', ESC, 'J', 10, GS, 'v', '0', 0, 2, 0, 1, 0, (byte) 0xff, 0, ESC, 'J', 29});
+        assertThat(encoder.getRasterBytes()).isEqualTo(8 + 80);
+        assertThat(encoder.getRasterBytesSent()).isEqualTo(16);
+    }
+
+    @Test
+    public void bandsAreCompressedWhenThatIsShorter() throws IOException {
+        byte[] bits = new byte[48 * 4];
+        Arrays.fill(bits, (byte) 0xff);
+        encoder.setCompressedRasterCommand(new byte[]{GS, '(', 'Z'});
+
+        byte[] bytes = encodeImage(new RasterImage(384, 4, bits));
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', GS, '(', 'Z', 48, 0, 4, 0, 4, 0, 0, 0, -127, (byte) 0xff, -63, (byte) 0xff});
+        assertThat(encoder.getRasterBytes()).isEqualTo(8 + 48 * 4);
+        assertThat(encoder.getRasterBytesSent()).isEqualTo(15);
+    }
+
+    @Test
+    public void bandsThatDoNotCompressAreSentPlain() throws IOException {
+        byte[] bits = {1, 2, 3, 4};
+        encoder.setCompressedRasterCommand(new byte[]{GS, '(', 'Z'});
+
+        byte[] bytes = encodeImage(new RasterImage(32, 1, bits));
+
+        assertThat(bytes).isEqualTo(new byte[]{ESC, '@', GS, 'v', '0', 0, 4, 0, 1, 0, 1, 2, 3, 4});
+    }
+
+    private byte[] encodeImage(RasterImage rasterImage) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encoder.encodeImage(rasterImage, Channels.newChannel(outputStream));
+        return outputStream.toByteArray();
+    }
+
+    private byte[] encode(PrintPayload printPayload) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long bytesWritten = encoder.encode(printPayload, Channels.newChannel(outputStream));
+        assertThat(bytesWritten).isEqualTo(outputStream.size());
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            outputStream.write(part, 0, part.length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] encodeBarcode(EscPosEncoder encoder, Barcode barcode) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long bytesWritten = encoder.encodeBarcode(barcode, Alignment.CENTER, Channels.newChannel(outputStream));
+        assertThat(bytesWritten).isEqualTo(outputStream.size());
+        return outputStream.toByteArray();
+    }
+
+    private static PrinterSettings createPrinterSettings() {
+        return createPrinterSettings(null);
+    }
+
+    private static PrinterSettings createPrinterSettings(String nativeSymbologies) {
+        PrinterFont fontA = new PrinterFontBuilder().withId(0).withName("Font A").withIsDefault(true).withNumColumns(48).build();
+        PrinterFont fontB = new PrinterFontBuilder().withId(1).withName("Font B").withNumColumns(64).build();
+        return new PrinterSettingsBuilder("ID-1", 80, 72, 8).withPrinterFonts(new PrinterFont[]{fontA, fontB})
+                .withOptions(nativeSymbologies != null ? Collections.singletonMap(Barcode.OPTION_NATIVE_SYMBOLOGIES, nativeSymbologies) : null)
+                .build();
+    }
+}
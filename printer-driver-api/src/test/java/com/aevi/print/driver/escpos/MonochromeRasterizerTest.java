@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class MonochromeRasterizerTest {
+
+    private static final int BLACK = 0xff000000;
+    private static final int WHITE = 0xffffffff;
+    private static final int GREY = 0xff808080;
+
+    @Test
+    public void checkThresholdPacksDarkPixelsAsSetBits() {
+        int[] pixels = {BLACK, WHITE, BLACK, WHITE, WHITE, WHITE, WHITE, WHITE, BLACK, 0x00000000};
+
+        RasterImage rasterImage = new MonochromeRasterizer().rasterize(pixels, 10, 1, 0);
+
+        assertThat(rasterImage.getWidth()).isEqualTo(10);
+        assertThat(rasterImage.getBytesPerRow()).isEqualTo(2);
+        assertThat(rasterImage.getBits()).containsExactly((byte) 0xa0, (byte) 0x80);
+    }
+
+    @Test
+    public void checkTransparentPixelsArePaper() {
+        int[] pixels = {0x00000000, 0x40000000, 0xc0000000};
+
+        RasterImage rasterImage = new MonochromeRasterizer().rasterize(pixels, 3, 1, 0);
+
+        assertThat(rasterImage.isBlack(0, 0)).isFalse();
+        assertThat(rasterImage.isBlack(1, 0)).isFalse();
+        assertThat(rasterImage.isBlack(2, 0)).isTrue();
+    }
+
+    @Test
+    public void checkImageIsScaledDownToMaxWidth() {
+        int[] pixels = fill(new int[40 * 20], WHITE);
+        // the left half is black
+        for (int y = 0; y < 20; y++) {
+            Arrays.fill(pixels, y * 40, y * 40 + 20, BLACK);
+        }
+
+        RasterImage rasterImage = new MonochromeRasterizer().rasterize(pixels, 40, 20, 10);
+
+        assertThat(rasterImage.getWidth()).isEqualTo(10);
+        assertThat(rasterImage.getHeight()).isEqualTo(5);
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 10; x++) {
+                assertThat(rasterImage.isBlack(x, y)).isEqualTo(x < 5);
+            }
+        }
+    }
+
+    @Test
+    public void checkImageIsNotScaledUp() {
+        RasterImage rasterImage = new MonochromeRasterizer().rasterize(new int[4 * 3], 4, 3, 384);
+
+        assertThat(rasterImage.getWidth()).isEqualTo(4);
+        assertThat(rasterImage.getHeight()).isEqualTo(3);
+    }
+
+    @Test
+    public void checkFloydSteinbergRendersMidGreyAsHalfTheDots() {
+        int[] pixels = fill(new int[64 * 64], GREY);
+
+        RasterImage rasterImage = new MonochromeRasterizer(MonochromeRasterizer.Dithering.FLOYD_STEINBERG, 128).rasterize(pixels, 64, 64, 0);
+
+        assertThat(countBlack(rasterImage)).isBetween(64 * 64 * 45 / 100, 64 * 64 * 55 / 100);
+    }
+
+    @Test
+    public void checkOrderedDitheringSpreadsMidGreyEvenly() {
+        int[] pixels = fill(new int[8 * 8], GREY);
+
+        RasterImage rasterImage = new MonochromeRasterizer(MonochromeRasterizer.Dithering.ORDERED, 128).rasterize(pixels, 8, 8, 0);
+
+        assertThat(countBlack(rasterImage)).isEqualTo(32);
+        for (int y = 0; y < 8; y++) {
+            int blackInRow = 0;
+            for (int x = 0; x < 8; x++) {
+                blackInRow += rasterImage.isBlack(x, y) ? 1 : 0;
+            }
+            assertThat(blackInRow).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void checkLargeImagesGiveTheSameDotsInParallel() {
+        int width = 200;
+        int height = 10 * MonochromeRasterizer.BAND_HEIGHT + 7;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int level = (i * 31 + (i / width) * 17) & 0xff;
+            pixels[i] = 0xff000000 | level << 16 | level << 8 | level;
+        }
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+        ForkJoinPool fourThreads = new ForkJoinPool(4);
+
+        try {
+            RasterImage sequential = new MonochromeRasterizer(MonochromeRasterizer.Dithering.FLOYD_STEINBERG, 128, singleThread)
+                    .rasterize(pixels, width, height, 0);
+            RasterImage parallel = new MonochromeRasterizer(MonochromeRasterizer.Dithering.FLOYD_STEINBERG, 128, fourThreads)
+                    .rasterize(pixels, width, height, 0);
+
+            assertThat(parallel.getBits()).isEqualTo(sequential.getBits());
+        } finally {
+            singleThread.shutdown();
+            fourThreads.shutdown();
+        }
+    }
+
+    @Test
+    public void checkFloydSteinbergCarriesTheErrorAcrossBands() {
+        int width = 200;
+        int height = 3 * MonochromeRasterizer.BAND_HEIGHT;
+        int[] pixels = fill(new int[width * height], 0xff999999);
+
+        RasterImage rasterImage = new MonochromeRasterizer(MonochromeRasterizer.Dithering.FLOYD_STEINBERG, 128)
+                .rasterize(pixels, width, height, 0);
+
+        // a band that started without the error of the band above would repeat the dots of the first band of an even image
+        int bandBytes = rasterImage.getBytesPerRow() * MonochromeRasterizer.BAND_HEIGHT;
+        byte[] firstBand = Arrays.copyOfRange(rasterImage.getBits(), 0, bandBytes);
+        byte[] secondBand = Arrays.copyOfRange(rasterImage.getBits(), bandBytes, 2 * bandBytes);
+        assertThat(secondBand).isNotEqualTo(firstBand);
+    }
+
+    private static int[] fill(int[] pixels, int argb) {
+        Arrays.fill(pixels, argb);
+        return pixels;
+    }
+
+    private static int countBlack(RasterImage rasterImage) {
+        int black = 0;
+        for (int y = 0; y < rasterImage.getHeight(); y++) {
+            for (int x = 0; x < rasterImage.getWidth(); x++) {
+                if (rasterImage.isBlack(x, y)) {
+                    black++;
+                }
+            }
+        }
+        return black;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class NativeScriptsTest {
+
+    private static final String ARABIC_THANK_YOU = "\u0634\u0643\u0631\u0627";
+
+    private final CodePageTranscoder transcoder = new CodePageTranscoder(new int[]{858});
+
+    @Test
+    public void textInTheCodePagesIsPrintedNatively() {
+        NativeScripts nativeScripts = new NativeScripts(transcoder, null);
+
+        assertThat(nativeScripts.canPrint("Caf\u00e9 \u20ac2.80")).isTrue();
+        assertThat(nativeScripts.canPrint(ARABIC_THANK_YOU)).isFalse();
+    }
+
+    @Test
+    public void textInASupportedLanguageIsOnlyPrintedNativelyFromACodePage() {
+        NativeScripts withoutCodePage = new NativeScripts(transcoder, new String[]{"en", "ar-SA"});
+        NativeScripts withCodePage = new NativeScripts(new CodePageTranscoder(new int[]{858, 1256}), new String[]{"en", "ar-SA"});
+
+        assertThat(withoutCodePage.canPrint("Total " + ARABIC_THANK_YOU)).isFalse();
+        assertThat(withCodePage.canPrint("Total " + ARABIC_THANK_YOU)).isTrue();
+    }
+
+    @Test
+    public void scriptsThatNeedTheFontsOfTheirLanguageAreNotPrintedFromACodePageAlone() {
+        NativeScripts nativeScripts = new NativeScripts(new CodePageTranscoder(new int[]{858, 1256}), new String[]{"en"});
+
+        assertThat(nativeScripts.canPrint("Total " + ARABIC_THANK_YOU)).isFalse();
+    }
+}
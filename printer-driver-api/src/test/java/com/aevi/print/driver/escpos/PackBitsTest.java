@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PackBitsTest {
+
+    @Test
+    public void runsAndLiteralsAreEncoded() {
+        byte[] source = {0, 0, 0, 0, 1, 2, 3, 7, 7, 7};
+
+        assertThat(encode(source)).containsExactly(-3, 0, 2, 1, 2, 3, -2, 7);
+    }
+
+    @Test
+    public void longRunsAreSplitIntoRunsOf128() {
+        byte[] source = new byte[300];
+
+        assertThat(encode(source)).containsExactly(-127, 0, -127, 0, -43, 0);
+    }
+
+    @Test
+    public void encodedBytesDecodeToTheSource() {
+        Random random = new Random(42);
+        byte[] source = new byte[1000];
+        for (int i = 0; i < source.length; i++) {
+            // mostly runs, as in a raster image, with some noise
+            source[i] = random.nextInt(8) == 0 ? (byte) random.nextInt() : (byte) (i / 50);
+        }
+
+        byte[] encoded = encode(source);
+        byte[] decoded = new byte[source.length];
+
+        assertThat(encoded.length).isLessThanOrEqualTo(PackBits.getMaxEncodedLength(source.length));
+        assertThat(PackBits.decode(encoded, 0, encoded.length, decoded, 0)).isEqualTo(source.length);
+        assertThat(decoded).isEqualTo(source);
+    }
+
+    private static byte[] encode(byte[] source) {
+        byte[] encoded = new byte[PackBits.getMaxEncodedLength(source.length)];
+        int length = PackBits.encode(source, 0, source.length, encoded, 0);
+        return Arrays.copyOf(encoded, length);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.driver.escpos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class TextRunCacheTest {
+
+    private static final String THAI_THANK_YOU = "\u0e02\u0e2d\u0e1a\u0e04\u0e38\u0e13";
+
+    private final CountingRenderer renderer = new CountingRenderer();
+
+    @Test
+    public void runsAreRenderedOnce() {
+        TextRunCache textRunCache = new TextRunCache(renderer, 1024);
+
+        RasterImage first = textRunCache.get(THAI_THANK_YOU, 24, false, 384);
+        RasterImage second = textRunCache.get(THAI_THANK_YOU, 24, false, 384);
+
+        assertThat(second).isSameAs(first);
+        assertThat(renderer.renders).isEqualTo(1);
+        assertThat(textRunCache.getHitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void runsAreKeyedBySizeAndStyle() {
+        TextRunCache textRunCache = new TextRunCache(renderer, 1024);
+
+        textRunCache.get(THAI_THANK_YOU, 24, false, 384);
+        textRunCache.get(THAI_THANK_YOU, 32, false, 384);
+        textRunCache.get(THAI_THANK_YOU, 24, true, 384);
+
+        assertThat(renderer.renders).isEqualTo(3);
+    }
+
+    @Test
+    public void cacheIsBoundedByTheSizeOfTheRuns() {
+        TextRunCache textRunCache = new TextRunCache(renderer, 2 * 16 * 24);
+
+        textRunCache.get("a", 24, false, 0);
+        textRunCache.get("b", 24, false, 0);
+        textRunCache.get("c", 24, false, 0);
+        textRunCache.get("a", 24, false, 0);
+
+        assertThat(renderer.renders).isEqualTo(4);
+        assertThat(textRunCache.getBytes()).isEqualTo(2 * 16 * 24);
+    }
+
+    @Test
+    public void textIsWrappedAtLineFeedsAndBetweenWordsToTheWidth() {
+        TextRunCache textRunCache = new TextRunCache(renderer, 1024);
+
+        // the renderer takes 10 dots a character
+        assertThat(textRunCache.wrap("Total due\nThank you for shopping", 24, false, 100))
+                .isEqualTo(Arrays.asList("Total due", "Thank you", "for", "shopping"));
+        assertThat(textRunCache.wrap("abcdefghijklmnopqrstuvw", 24, false, 100))
+                .isEqualTo(Arrays.asList("abcdefghij", "klmnopqrst", "uvw"));
+        assertThat(textRunCache.wrap("a\n\nb", 24, false, 0)).isEqualTo(Arrays.asList("a", "", "b"));
+    }
+
+    private static class CountingRenderer implements TextRunCache.Renderer {
+        int renders;
+
+        @Override
+        public RasterImage render(String text, int textSize, boolean bold, int maxWidth) {
+            renders++;
+            return new RasterImage(128, textSize, new byte[16 * textSize]);
+        }
+
+        @Override
+        public int measure(String text, int textSize, boolean bold) {
+            return 10 * text.length();
+        }
+    }
+}
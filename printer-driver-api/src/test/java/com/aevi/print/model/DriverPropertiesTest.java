@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import com.aevi.util.json.JsonConverter;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class DriverPropertiesTest {
+
+    @Test
+    public void canRoundTrip() {
+        DriverProperties driverProperties = new DriverProperties();
+        driverProperties.setEditableSettings(true);
+
+        assertThat(DriverProperties.fromJson(driverProperties.toJson()).editableSettings()).isTrue();
+    }
+
+    @Test
+    public void producesTheSameJsonAsTheReflectiveConverter() {
+        DriverProperties driverProperties = new DriverProperties();
+        driverProperties.setEditableSettings(true);
+
+        assertThat(driverProperties.toJson()).isEqualTo(JsonConverter.serialize(driverProperties));
+    }
+
+    @Test
+    public void canReadReflectivelyWrittenJsonWithUnknownFields() {
+        DriverProperties driverProperties = DriverProperties.fromJson("{\"somethingNew\":[1,2],\"editableSettings\":true}");
+
+        assertThat(driverProperties.editableSettings()).isTrue();
+    }
+}
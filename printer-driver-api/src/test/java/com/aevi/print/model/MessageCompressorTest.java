@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import com.aevi.android.rxmessenger.ChannelServer;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class MessageCompressorTest {
+
+    @Test
+    public void canDeflateAndInflate() {
+        byte[] original = receipt().getBytes(Charset.forName("UTF-8"));
+
+        byte[] deflated = MessageCompressor.deflate(original);
+
+        assertThat(deflated.length).isLessThan(original.length / 4);
+        assertThat(MessageCompressor.inflate(deflated, original.length)).isEqualTo(original);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void willNotInflateBeyondTheMaximumSize() {
+        byte[] original = receipt().getBytes(Charset.forName("UTF-8"));
+
+        MessageCompressor.inflate(MessageCompressor.deflate(original), original.length - 1);
+    }
+
+    @Test
+    public void smallMessagesAreNotCompressed() {
+        long uncompressed = MessageCompressor.getStats().getUncompressedMessages();
+        MessageCompressor messageCompressor = new MessageCompressor(1024);
+
+        assertThat(messageCompressor.compress("{\"printJobState\":\"PRINTED\"}")).isEqualTo("{\"printJobState\":\"PRINTED\"}");
+        assertThat(MessageCompressor.getStats().getUncompressedMessages()).isEqualTo(uncompressed + 1);
+    }
+
+    @Test
+    public void uncompressedMessagesAreNotDecompressed() {
+        assertThat(MessageCompressor.isCompressed("{}")).isFalse();
+        assertThat(MessageCompressor.decompress("{}")).isEqualTo("{}");
+    }
+
+    @Test
+    public void thresholdCannotBeTooSmall() {
+        assertThat(new MessageCompressor(1).getThreshold()).isEqualTo(MessageCompressor.MIN_THRESHOLD);
+    }
+
+    @Test
+    public void canNegotiateCompression() {
+        ChannelPrintingContext printingContext = new ChannelPrintingContext(mock(ChannelServer.class));
+
+        MessageCompression accepted = printingContext.negotiateCompression(new MessageCompression(MessageCompression.DEFLATE, 0));
+
+        assertThat(accepted.isEnabled()).isTrue();
+        assertThat(accepted.getThreshold()).isEqualTo(MessageCompressor.DEFAULT_THRESHOLD);
+        assertThat(MessageCompression.isMessageCompression(accepted.toJson())).isTrue();
+    }
+
+    @Test
+    public void canTellACompressionMessageWhateverTheOrderOfItsFields() {
+        assertThat(MessageCompression.isMessageCompression(" {\"threshold\": 1024, \"messageCompression\": \"deflate\"}")).isTrue();
+        assertThat(MessageCompression.isMessageCompression("{\"printerId\":\"ID-1\",\"rows\":[{\"messageCompression\":1}]}")).isFalse();
+        assertThat(MessageCompression.isMessageCompression(new PrintPayload("ID-1").toJson())).isFalse();
+        assertThat(MessageCompression.isMessageCompression("not json")).isFalse();
+        assertThat(MessageCompression.isMessageCompression(null)).isFalse();
+    }
+
+    @Test
+    public void compressedMessagesAreDecompressedOnceCompressionIsNegotiated() {
+        ChannelPrintingContext printingContext = new ChannelPrintingContext(mock(ChannelServer.class));
+        String compressed = new MessageCompressor(MessageCompressor.MIN_THRESHOLD).compress(receipt());
+
+        printingContext.negotiateCompression(new MessageCompression(MessageCompression.DEFLATE, 0));
+
+        assertThat(MessageCompressor.isCompressed(compressed)).isTrue();
+        assertThat(printingContext.decompress(compressed)).isEqualTo(receipt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compressedMessagesAreRefusedBeforeCompressionIsNegotiated() {
+        ChannelPrintingContext printingContext = new ChannelPrintingContext(mock(ChannelServer.class));
+
+        printingContext.decompress(new MessageCompressor(MessageCompressor.MIN_THRESHOLD).compress(receipt()));
+    }
+
+    @Test
+    public void unknownCompressionIsRefused() {
+        ChannelServer channelServer = mock(ChannelServer.class);
+        ChannelPrintingContext printingContext = new ChannelPrintingContext(channelServer);
+
+        MessageCompression accepted = printingContext.negotiateCompression(new MessageCompression("lz4", 512));
+        printingContext.send(receipt());
+
+        assertThat(accepted.getMessageCompression()).isEqualTo(MessageCompression.NONE);
+        verify(channelServer).send(receipt());
+    }
+
+    private static String receipt() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            stringBuilder.append("{\"text\":\"Item ").append(i).append("      1 x 2.50\",\"alignment\":\"LEFT\"},");
+        }
+        return stringBuilder.toString();
+    }
+}
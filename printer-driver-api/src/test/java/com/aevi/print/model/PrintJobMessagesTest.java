@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PrintJobMessagesTest {
+
+    @Test
+    public void cachedMessagesMatchTheirSerializedForm() {
+        assertThat(PrintJobMessages.toJson(PrintJobMessages.IN_PROGRESS)).isEqualTo(new PrintJob(PrintJob.State.IN_PROGRESS).toJson());
+        assertThat(PrintJobMessages.toJson(PrintJobMessages.PRINTED)).isEqualTo(new PrintJob(PrintJob.State.PRINTED).toJson());
+    }
+
+    @Test
+    public void cachedMessagesAreReused() {
+        assertThat(PrintJobMessages.toJson(PrintJobMessages.PRINTED)).isSameAs(PrintJobMessages.toJson(PrintJobMessages.PRINTED));
+    }
+
+    @Test
+    public void otherPrintJobsAreSerialized() {
+        PrintJob failed = new PrintJob(PrintJob.State.FAILED, PrinterMessages.ERROR_BUSY);
+        assertThat(PrintJob.fromJson(PrintJobMessages.toJson(failed)).getFailedReason()).isEqualTo(PrinterMessages.ERROR_BUSY);
+    }
+
+    @Test
+    public void checkFinalStates() {
+        assertThat(PrintJobMessages.isFinalState(PrintJobMessages.IN_PROGRESS)).isFalse();
+        assertThat(PrintJobMessages.isFinalState(PrintJobMessages.PRINTED)).isTrue();
+        assertThat(PrintJobMessages.isFinalState(new PrintJob(PrintJob.State.FAILED, PrinterMessages.ERROR_BUSY))).isTrue();
+    }
+
+    @Test
+    public void sendAndEndStreamSendsTheMessageBeforeTheEndOfStream() {
+        final List<String> sent = new ArrayList<>();
+        PrintingContext printingContext = new PrintingContext() {
+            @Override
+            public boolean send(String message) {
+                return sent.add(message);
+            }
+
+            @Override
+            public boolean sendEndStream() {
+                return sent.add("END");
+            }
+
+            @Override
+            public boolean sendError(String code, String message) {
+                return false;
+            }
+        };
+
+        assertThat(printingContext.sendAndEndStream("final")).isTrue();
+        assertThat(sent).containsExactly("final", "END");
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aevi.print.model;
+
+import com.aevi.util.json.JsonConverter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PrintRequestTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canTellAPrintRequestFromAPlainPayload() {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("TEST text");
+
+        assertThat(PrintRequest.isPrintRequest(new PrintRequest(printPayload).toJson())).isTrue();
+        assertThat(PrintRequest.isPrintRequest(printPayload.toJson())).isFalse();
+    }
+
+    @Test
+    public void canTellAPrintRequestFromAPlainPayloadWhateverTheOrderOfItsFields() {
+        assertThat(PrintRequest.isPrintRequest(" {\"printPayload\": {\"printerId\": \"ID-1\"}, \"printRequestVersion\": 1}")).isTrue();
+        assertThat(PrintRequest.isPrintRequest("{\"printerId\":\"ID-1\",\"rows\":[{\"printRequestVersion\":1}]}")).isFalse();
+        assertThat(PrintRequest.isPrintRequest("not json")).isFalse();
+        assertThat(PrintRequest.isPrintRequest(null)).isFalse();
+    }
+
+    @Test
+    public void canRoundTripWithSharedRegions() {
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.addSharedRegion(new SharedRegion("logo", "content://com.example.till.files/logo.bin", 16, 1024));
+
+        PrintRequest result = PrintRequest.fromJson(printRequest.toJson());
+
+        assertThat(result.getPrinterId()).isEqualTo("ID-1");
+        SharedRegion sharedRegion = result.getSharedRegion("logo");
+        assertThat(sharedRegion.getUri()).isEqualTo("content://com.example.till.files/logo.bin");
+        assertThat(sharedRegion.getOffset()).isEqualTo(16);
+        assertThat(sharedRegion.getLength()).isEqualTo(1024);
+        assertThat(result.getSharedRegion("unknown")).isNull();
+        assertThat(result.getIdempotencyKey()).isNull();
+    }
+
+    @Test
+    public void canRoundTripWithAnIdempotencyKey() {
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.setIdempotencyKey("till-1/receipt-42");
+
+        assertThat(PrintRequest.fromJson(printRequest.toJson()).getIdempotencyKey()).isEqualTo("till-1/receipt-42");
+    }
+
+    @Test
+    public void canRoundTripWithPriorityAndDeadline() {
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        assertThat(printRequest.getPriority()).isEqualTo(PrintRequest.Priority.CUSTOMER_RECEIPT);
+        assertThat(printRequest.hasDeadline()).isFalse();
+
+        printRequest.setPriority(PrintRequest.Priority.BACKGROUND_REPORT);
+        printRequest.setDeadlineMs(5000);
+        PrintRequest result = PrintRequest.fromJson(printRequest.toJson());
+
+        assertThat(result.getPriority()).isEqualTo(PrintRequest.Priority.BACKGROUND_REPORT);
+        assertThat(result.getDeadlineMs()).isEqualTo(5000);
+    }
+
+    @Test
+    public void canRoundTripATemplateRequestWithCopies() {
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.setTemplateId("receipt");
+        printRequest.setSlotValue("total", "12.50");
+        printRequest.setCopies(2);
+        printRequest.setCopySeparation(PrintRequest.CopySeparation.PAUSE);
+
+        PrintRequest result = PrintRequest.fromJson(printRequest.toJson());
+
+        assertThat(result.getTemplateId()).isEqualTo("receipt");
+        assertThat(result.getSlotValues()).containsEntry("total", "12.50");
+        assertThat(result.getCopies()).isEqualTo(2);
+        assertThat(result.getCopySeparation()).isEqualTo(PrintRequest.CopySeparation.PAUSE);
+    }
+
+    @Test
+    public void producesTheSameJsonAsTheReflectiveConverter() {
+        PrintPayload printPayload = new PrintPayload("ID-1");
+        printPayload.append("TEST text");
+        PrintRequest printRequest = new PrintRequest(printPayload);
+        printRequest.addSharedRegion(new SharedRegion("logo", "content://com.example.till.files/logo.bin", 16, 1024));
+        printRequest.setIdempotencyKey("till-1/receipt-42");
+        printRequest.setPriority(PrintRequest.Priority.BACKGROUND_REPORT);
+        printRequest.setDeadlineMs(5000);
+        printRequest.setTemplateId("receipt");
+        printRequest.setSlotValue("total", "12.50");
+        printRequest.setCopies(2);
+        printRequest.setCopySeparation(PrintRequest.CopySeparation.NONE);
+
+        assertThat(printRequest.toJson()).isEqualTo(JsonConverter.serialize(printRequest));
+        assertThat(new PrintRequest(null).toJson()).isEqualTo(JsonConverter.serialize(new PrintRequest(null)));
+    }
+
+    @Test
+    public void canReadReflectivelyWrittenJsonWithUnknownFieldsAndConstants() {
+        PrintRequest printRequest = PrintRequest.fromJson("{\"somethingNew\":[1,2],\"printRequestVersion\":2,"
+                + "\"printPayload\":{\"printerId\":\"ID-1\"},\"priority\":\"SOMETHING_NEW\",\"idempotencyKey\":null,\"copies\":3}");
+
+        assertThat(printRequest.getPrinterId()).isEqualTo("ID-1");
+        assertThat(printRequest.getPriority()).isEqualTo(PrintRequest.Priority.CUSTOMER_RECEIPT);
+        assertThat(printRequest.getIdempotencyKey()).isNull();
+        assertThat(printRequest.getCopies()).isEqualTo(3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMessageThatIsNotJson() {
+        PrintRequest.fromJson("{\"printRequestVersion\":");
+    }
+
+    @Test
+    public void theCallingPackageIsNeverTakenFromTheMessage() {
+        PrintRequest printRequest = new PrintRequest(new PrintPayload("ID-1"));
+        printRequest.setCallingPackageName("com.example.till");
+
+        assertThat(printRequest.toJson()).doesNotContain("com.example.till");
+        assertThat(PrintRequest.fromJson(printRequest.toJson()).getCallingPackageName()).isNull();
+    }
+
+    @Test
+    public void canMapASharedRegion() throws Exception {
+        File file = newFile(8);
+
+        ByteBuffer byteBuffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            byteBuffer = new SharedRegion("blob", "content://com.example.till.files/blob.bin", 2, 4).map(randomAccessFile.getChannel());
+        }
+
+        assertThat(byteBuffer.isReadOnly()).isTrue();
+        assertThat(byteBuffer.remaining()).isEqualTo(4);
+        assertThat(byteBuffer.get()).isEqualTo((byte) 2);
+        assertThat(byteBuffer.get(3)).isEqualTo((byte) 5);
+    }
+
+    @Test
+    public void willNotMapARegionBeyondTheEndOfTheFile() throws Exception {
+        File file = newFile(8);
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            assertThat(canMap(new SharedRegion("blob", "content://com.example.till.files/blob.bin", 6, 4), randomAccessFile)).isFalse();
+            assertThat(canMap(new SharedRegion("blob", "content://com.example.till.files/blob.bin", -1, 4), randomAccessFile)).isFalse();
+            assertThat(canMap(new SharedRegion("blob", "content://com.example.till.files/blob.bin", 4, Long.MAX_VALUE), randomAccessFile)).isFalse();
+            assertThat(canMap(new SharedRegion("blob", "content://com.example.till.files/blob.bin", 4, 4), randomAccessFile)).isTrue();
+        }
+    }
+
+    private File newFile(int size) throws IOException {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            for (int i = 0; i < size; i++) {
+                outputStream.write(i);
+            }
+        }
+        return file;
+    }
+
+    private static boolean canMap(SharedRegion sharedRegion, RandomAccessFile randomAccessFile) {
+        try {
+            sharedRegion.map(randomAccessFile.getChannel());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}